@@ -0,0 +1,19 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+# Indicate the path of the java compiler to use
+export JAVA_HOME=/usr/csshare/pkgs/jdk1.7.0_17
+export PATH=$JAVA_HOME/bin:$PATH
+
+# compile the java program
+javac -cp $DIR/../lib/pg73jdbc3.jar -d $DIR/../classes $DIR/../src/*.java
+
+# recreate the tables, load the CSV files from the client side, move them
+# onto integer user keys, then build the indexes once the data is in place.
+#Use your database name, port number and login
+psql -h localhost -p $PGPORT $DB_NAME < $DIR/../../sql/src/create_tables.sql
+java -cp $DIR/../classes:$DIR/../lib/pg73jdbc3.jar BulkLoader $DB_NAME $PGPORT $USER $DIR/../../data || exit 1
+psql -h localhost -p $PGPORT $DB_NAME < $DIR/../../sql/src/migrate_user_keys.sql
+psql -h localhost -p $PGPORT $DB_NAME < $DIR/../../sql/src/create_message_archive.sql
+psql -h localhost -p $PGPORT $DB_NAME < $DIR/../../sql/src/track_connection_changes.sql
+psql -h localhost -p $PGPORT $DB_NAME < $DIR/../../sql/src/create_notifications.sql
+psql -h localhost -p $PGPORT $DB_NAME < $DIR/../../sql/src/create_index.sql
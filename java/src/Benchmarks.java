@@ -0,0 +1,288 @@
+/*
+ * Data Access Benchmarks
+ * =============================
+ * Edward Martens (862256447), Cody Phu (862107077)
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Micro-benchmarks of the hot data-access paths, so alternative
+ * implementations can be compared by numbers.
+ *
+ * Every benchmark runs a few warmup iterations and then the measured
+ * ones, each calling the operation as often as fits in the iteration
+ * time, and reports the mean time per operation with its standard
+ * deviation over the iterations.  Inputs are drawn with a fixed seed from
+ * the users in data/USR.csv, so two runs on the same data ask the same
+ * questions.
+ *
+ * The render.* and index.* benchmarks need only the data directory.  The
+ * db.* ones run against a database loaded from the same files and are
+ * skipped when none is given.  -Dprofnetwork.bench picks the benchmarks
+ * whose name contains it; -Dprofnetwork.benchWarmup,
+ * -Dprofnetwork.benchIterations and -Dprofnetwork.benchMillis size the
+ * runs.
+ */
+public class Benchmarks {
+
+   public static final int DEFAULT_WARMUP = 3;
+   public static final int DEFAULT_ITERATIONS = 5;
+   public static final int DEFAULT_MILLIS = 1000;
+
+   // inputs drawn per benchmark; a power of two.
+   private static final int INPUTS = 1024;
+
+   // rows per page rendered by the render benchmarks.
+   private static final int PAGE_ROWS = ResultPager.DEFAULT_PAGE_SIZE;
+
+   // rows materialized by the row benchmarks.
+   static final String USR_RANGE_QUERY =
+      "SELECT userId, name, email, dateOfBirth FROM USR WHERE userId >= ? ORDER BY userId LIMIT 100";
+
+   private static final String[] REPORT_COLUMNS =
+      { "benchmark", "iterations", "ops", "ns/op", "+- ns/op", "ops/s" };
+
+   /**
+    * One benchmarked operation.  op(i) is called with i = 0, 1, 2, ... and
+    * returns something derived from its work, so it cannot be optimized
+    * away.
+    */
+   static abstract class Benchmark {
+      final String name;
+
+      Benchmark (String name) {
+         this.name = name;
+      }
+
+      abstract Object op (int i) throws Exception;
+   }//end Benchmark
+
+   // folds every result in, so the JIT has to compute them.
+   private static volatile int _sink;
+
+   // discards what the render benchmarks write.
+   private static final Writer NULL_WRITER = new Writer() {
+      public void write (char[] buf, int off, int len) {
+         _sink += len;
+      }
+      public void write (String s, int off, int len) {
+         _sink += len;
+      }
+      public void write (int c) {
+         _sink += c;
+      }
+      public void flush () {
+      }
+      public void close () {
+      }
+   };
+
+   private final List<String[]> _users = new ArrayList<String[]>();
+   private final String[] _userIds = new String[INPUTS];
+   private final String[] _fragments = new String[INPUTS];
+
+   /**
+    * Reads USR.csv and draws the inputs.
+    *
+    * @param dataDir the directory holding USR.csv
+    * @param seed seeds the choice of inputs
+    */
+   public Benchmarks (File dataDir, long seed) throws IOException {
+      BufferedReader reader = new BufferedReader(new FileReader(new File(dataDir, "USR.csv")));
+      try {
+         reader.readLine(); // header
+         String line;
+         while ((line = reader.readLine()) != null) {
+            String[] fields = new String[5];
+            BulkLoader.parseLine(line, fields);
+            if (fields[0] != null && fields[0].length() > 0)
+               this._users.add(new String[] { fields[0], fields[3], fields[2], fields[4] });
+         }//end while
+      } finally {
+         reader.close();
+      }
+      if (this._users.isEmpty())
+         throw new IOException("no users in " + new File(dataDir, "USR.csv"));
+
+      Random random = new Random(seed);
+      for (int i = 0; i < INPUTS; ++i) {
+         String[] user = this._users.get(random.nextInt(this._users.size()));
+         this._userIds[i] = user[0];
+         String name = user[1] == null ? "" : user[1];
+         int length = Math.min(name.length(), 3 + random.nextInt(3));
+         int at = random.nextInt(name.length() - length + 1);
+         this._fragments[i] = name.substring(at, at + length);
+      }//end for
+   }//end Benchmarks
+
+   /**
+    * The benchmarks that need no database.
+    */
+   public List<Benchmark> offline () {
+      List<Benchmark> list = new ArrayList<Benchmark>();
+      final NameIndex index = new NameIndex();
+      for (String[] user : this._users)
+         index.put(user[0], user[1]);
+      final List<String[]> rows = this._users;
+      for (final ResultRenderer.Format format : ResultRenderer.Format.values()) {
+         final ResultRenderer renderer = new ResultRenderer(format, NULL_WRITER);
+         final List<String[]> page = new ArrayList<String[]>(PAGE_ROWS);
+         list.add(new Benchmark("render." + format.name().toLowerCase()) {
+            Object op (int i) throws Exception {
+               int from = (i * PAGE_ROWS) % Math.max(1, rows.size() - PAGE_ROWS);
+               page.clear();
+               page.addAll(rows.subList(from, Math.min(rows.size(), from + PAGE_ROWS)));
+               renderer.renderPage(ProfNetwork.PEOPLE_COLUMNS, page, true);
+               return page;
+            }
+         });
+      }//end for
+      list.add(new Benchmark("index.search") {
+         Object op (int i) {
+            return index.search(_fragments[i & (INPUTS - 1)], ProfNetwork.SEARCH_LIMIT);
+         }
+      });
+      return list;
+   }//end offline
+
+   /**
+    * The benchmarks that run against the database.
+    */
+   public List<Benchmark> online (final ProfNetwork esql) throws Exception {
+      List<Benchmark> list = new ArrayList<Benchmark>();
+      final ResultRenderer table = new ResultRenderer(ResultRenderer.Format.TABLE, NULL_WRITER);
+      final MessageIdAllocator unblocked = new MessageIdAllocator(esql, ProfNetwork.MESSAGE_SEQUENCE, 1);
+      esql.getNameIndex();
+      list.add(new Benchmark("db.returnResult") {
+         Object op (int i) throws Exception {
+            return esql.executeQueryAndReturnResult(USR_RANGE_QUERY, _userIds[i & (INPUTS - 1)]);
+         }
+      });
+      list.add(new Benchmark("db.printResult") {
+         Object op (int i) throws Exception {
+            return esql.executeQueryAndRender(table, USR_RANGE_QUERY, _userIds[i & (INPUTS - 1)]);
+         }
+      });
+      list.add(new Benchmark("db.friendList") {
+         Object op (int i) throws Exception {
+            Integer key = esql.userKey(_userIds[i & (INPUTS - 1)]);
+            return esql.executeQueryAndReturnResult(ProfNetwork.FRIEND_LIST_QUERY, key, key);
+         }
+      });
+      list.add(new Benchmark("db.searchPeople") {
+         Object op (int i) throws Exception {
+            return esql.searchPeople(_fragments[i & (INPUTS - 1)], ProfNetwork.SEARCH_LIMIT);
+         }
+      });
+      list.add(new Benchmark("db.getCurrSeqVal") {
+         Object op (int i) throws Exception {
+            return esql.getCurrSeqVal(ProfNetwork.MESSAGE_SEQUENCE);
+         }
+      });
+      list.add(new Benchmark("db.nextvalUnblocked") {
+         Object op (int i) throws Exception {
+            return unblocked.nextId();
+         }
+      });
+      return list;
+   }//end online
+
+   /**
+    * Runs one benchmark and returns its report row.
+    */
+   static String[] measure (Benchmark bench, int warmup, int iterations, long millis) throws Exception {
+      double[] nsPerOp = new double[iterations];
+      long totalOps = 0;
+      int op = 0;
+      for (int it = -warmup; it < iterations; ++it) {
+         long ops = 0;
+         long start = System.nanoTime();
+         long deadline = start + millis * 1000000L;
+         long now;
+         do {
+            Object result = bench.op(op++);
+            _sink += result == null ? 0 : result.hashCode();
+            ++ops;
+         } while ((now = System.nanoTime()) < deadline);
+         if (it >= 0) {
+            nsPerOp[it] = (double) (now - start) / ops;
+            totalOps += ops;
+         }//end if
+      }//end for
+
+      double mean = 0;
+      for (double v : nsPerOp)
+         mean += v;
+      mean /= iterations;
+      double var = 0;
+      for (double v : nsPerOp)
+         var += (v - mean) * (v - mean);
+      double stddev = iterations > 1 ? Math.sqrt(var / (iterations - 1)) : 0;
+      return new String[] {
+         bench.name, String.valueOf(iterations), String.valueOf(totalOps),
+         String.format("%.1f", mean), String.format("%.1f", stddev),
+         String.format("%.1f", 1e9 / mean) };
+   }//end measure
+
+   /**
+    * The main execution method
+    *
+    * @param args the command line arguments: <data dir> [<dbname> <port> <user>]
+    */
+   public static void main (String[] args) {
+      if (args.length != 1 && args.length != 4) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            Benchmarks.class.getName () +
+            " <data dir> [<dbname> <port> <user>]");
+         return;
+      }//end if
+
+      String filter = System.getProperty("profnetwork.bench", "");
+      int warmup = Integer.getInteger("profnetwork.benchWarmup", DEFAULT_WARMUP);
+      int iterations = Math.max(1, Integer.getInteger("profnetwork.benchIterations", DEFAULT_ITERATIONS));
+      int millis = Integer.getInteger("profnetwork.benchMillis", DEFAULT_MILLIS);
+      long seed = Long.getLong("profnetwork.benchSeed", 42L);
+
+      ProfNetwork esql = null;
+      try{
+         Benchmarks benchmarks = new Benchmarks(new File(args[0]), seed);
+         List<Benchmark> list = benchmarks.offline();
+         if (args.length == 4) {
+            Class.forName ("org.postgresql.Driver");
+            esql = new ProfNetwork (args[1], args[2], args[3], "");
+            list.addAll(benchmarks.online(esql));
+         }//end if
+
+         List<String[]> rows = new ArrayList<String[]>();
+         for (Benchmark bench : list) {
+            if (bench.name.indexOf(filter) < 0)
+               continue;
+            System.err.println("Running " + bench.name + "...");
+            rows.add(measure(bench, warmup, iterations, millis));
+         }//end for
+         ResultRenderer.forConsole().renderPage(REPORT_COLUMNS, rows, true);
+      }catch(Exception e) {
+         System.err.println (e.getMessage ());
+      }finally{
+         if (esql != null)
+            esql.cleanup ();
+      }//end try
+   }//end main
+}//end Benchmarks
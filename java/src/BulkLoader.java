@@ -0,0 +1,469 @@
+/*
+ * Parallel CSV Bulk Loader
+ * =============================
+ * Edward Martens (862256447), Cody Phu (862107077)
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Loads the seed CSV files in data/ into the tables from create_tables.sql
+ * from the client side, so the files do not have to be on the database
+ * host the way server-side COPY in load_data.sql needs them to be.
+ *
+ * Each file is read in chunks of CHUNK_ROWS records, a record running on
+ * over as many lines as a quoted field holds newlines; a pool of worker
+ * threads parses the chunks (quoted fields, M/d/yyyy dates, blank = NULL)
+ * and inserts each one as a single JDBC batch in its own transaction on
+ * its own pooled connection.  If any chunk fails, no further chunk is
+ * started and, once the running ones are done, every table being loaded is
+ * truncated before the load fails, so a failed load leaves empty tables
+ * rather than part of the data.  Foreign keys are dropped before the load and
+ * added back, and checked in one pass each, at the end; indexes from
+ * create_index.sql should be created after the load for the same reason.
+ * Rows per second are reported per table.
+ *
+ * Usage: java BulkLoader <dbname> <port> <user> <data dir>
+ *
+ */
+public class BulkLoader {
+
+   // records parsed and inserted per batch.
+   public static final int CHUNK_ROWS = 5000;
+
+   // column kinds used to parse CSV fields.
+   private static final char TEXT = 'S';
+   private static final char INT = 'I';
+   private static final char DATE = 'D';
+   private static final char TIME = 'T';
+
+   /**
+    * One CSV file and the table and columns it loads into.
+    */
+   private static class TableSpec {
+      final String file;
+      final String table;
+      final String[] columns;
+      final String kinds;
+      final AtomicLong rows = new AtomicLong();
+      long millis;
+
+      TableSpec (String file, String table, String[] columns, String kinds) {
+         this.file = file;
+         this.table = table;
+         this.columns = columns;
+         this.kinds = kinds;
+      }
+
+      String insertSql () {
+         StringBuilder sql = new StringBuilder("INSERT INTO ").append(this.table).append(" (");
+         StringBuilder values = new StringBuilder(") VALUES (");
+         for (int i = 0; i < this.columns.length; ++i) {
+            sql.append(i == 0 ? "" : ", ").append(this.columns[i]);
+            values.append(i == 0 ? "?" : ", ?");
+         }//end for
+         return sql.append(values).append(")").toString();
+      }
+   }//end TableSpec
+
+   private static final TableSpec[] TABLES = {
+      new TableSpec("USR.csv", "USR",
+         new String[] { "userId", "password", "email", "name", "dateOfBirth" }, "SSSSD"),
+      new TableSpec("Connection.csv", "CONNECTION_USR",
+         new String[] { "userId", "connectionId", "status" }, "SSS"),
+      new TableSpec("Work_Exp.csv", "WORK_EXPR",
+         new String[] { "userId", "company", "role", "location", "startDate", "endDate" }, "SSSSDD"),
+      new TableSpec("Edu_Dep.csv", "EDUCATIONAL_DETAILS",
+         new String[] { "userId", "instituitionName", "major", "degree", "startdate", "enddate" }, "SSSSDD"),
+      new TableSpec("Message.csv", "MESSAGE",
+         new String[] { "msgId", "senderId", "receiverId", "contents", "sendTime", "deleteStatus", "status" }, "ISSSTIS"),
+   };
+
+   private final ConnectionPool _pool;
+   private final ExecutorService _workers;
+   // bounds the number of chunks read ahead of the workers.
+   private final Semaphore _inFlight;
+   // set by the first chunk that fails; the rest are skipped.
+   private volatile boolean _failed = false;
+
+   public BulkLoader (ConnectionPool pool, int threads) {
+      this._pool = pool;
+      this._workers = Executors.newFixedThreadPool(threads);
+      this._inFlight = new Semaphore(2 * threads);
+   }//end BulkLoader
+
+   /**
+    * The main execution method
+    *
+    * @param args the command line arguments: <dbname> <port> <user> <data dir>
+    */
+   public static void main (String[] args) {
+      if (args.length != 4) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            BulkLoader.class.getName () +
+            " <dbname> <port> <user> <data dir>");
+         return;
+      }//end if
+
+      int threads = Integer.getInteger("profnetwork.loadThreads",
+         Runtime.getRuntime().availableProcessors()).intValue();
+      ConnectionPool pool = null;
+      BulkLoader loader = null;
+      boolean failed = false;
+      try{
+         Class.forName ("org.postgresql.Driver");
+         String url = "jdbc:postgresql://localhost:" + args[1] + "/" + args[0];
+         pool = new ConnectionPool(url, args[2], "", threads + 1, 4);
+         loader = new BulkLoader(pool, threads);
+         loader.load(new File(args[3]));
+      }catch(Exception e) {
+         System.err.println (e.getMessage ());
+         failed = true;
+      }finally{
+         if (loader != null)
+            loader.shutdown();
+         if (pool != null)
+            pool.close();
+      }//end try
+      // lets bulk_load.sh stop before migrating a failed load.
+      if (failed)
+         System.exit(1);
+   }//end main
+
+   /**
+    * Loads every CSV file found in dataDir.  Missing files are skipped.
+    *
+    * @param dataDir the directory holding the CSV files
+    */
+   public void load (File dataDir) throws SQLException, IOException, InterruptedException {
+      long start = System.currentTimeMillis();
+      List<String> foreignKeys = dropForeignKeys();
+      System.out.println("Dropped " + foreignKeys.size() + " foreign keys for the load");
+
+      long restore;
+      long total = 0;
+      try {
+         // with the foreign keys gone the tables can load side by side.
+         List<Future<?>> chunks = new ArrayList<Future<?>>();
+         StringBuilder loaded = new StringBuilder();
+         for (int t = 0; t < TABLES.length && !this._failed; ++t) {
+            File file = new File(dataDir, TABLES[t].file);
+            if (!file.exists()) {
+               System.out.println("Skipping " + TABLES[t].table + ": " + file + " not found");
+               continue;
+            }//end if
+            loaded.append(loaded.length() == 0 ? "" : ", ").append(TABLES[t].table);
+            readChunks(TABLES[t], file, chunks);
+         }//end for
+         // wait for every chunk, so none commits after the truncate below.
+         String failure = null;
+         for (Future<?> chunk : chunks) {
+            try {
+               chunk.get();
+            }catch (java.util.concurrent.ExecutionException e){
+               if (failure == null)
+                  failure = e.getCause().getMessage();
+            }//end try
+         }//end for
+         if (failure != null) {
+            try {
+               execute("TRUNCATE " + loaded);
+            }catch (SQLException e){
+               throw new SQLException("Load failed: " + failure + "; emptying " + loaded +
+                  " failed too: " + e.getMessage());
+            }//end try
+            throw new SQLException("Load failed, " + loaded + " emptied: " + failure);
+         }//end if
+      } finally {
+         // put the foreign keys back even when the load failed.
+         restore = System.currentTimeMillis();
+         addForeignKeys(foreignKeys);
+      }
+      execute("SELECT setval('MessageIDSequence', (SELECT COALESCE(MAX(msgId), 0) + 1 FROM MESSAGE), false)");
+      execute("ANALYZE");
+      long end = System.currentTimeMillis();
+
+      for (int t = 0; t < TABLES.length; ++t) {
+         long rows = TABLES[t].rows.get();
+         if (rows == 0)
+            continue;
+         total += rows;
+         System.out.println(String.format("%-20s %10d rows %10.0f rows/sec",
+            TABLES[t].table, rows, rows * 1000.0 / Math.max(1, TABLES[t].millis)));
+      }//end for
+      System.out.println(String.format("%-20s %10d ms", "constraints", end - restore));
+      System.out.println(String.format("%-20s %10d rows %10.0f rows/sec",
+         "TOTAL", total, total * 1000.0 / Math.max(1, end - start)));
+   }//end load
+
+   public void shutdown () {
+      this._workers.shutdownNow();
+   }//end shutdown
+
+   // reads the file a chunk of records at a time and queues each chunk for
+   // a worker; stops once a chunk has failed.
+   private void readChunks (final TableSpec spec, File file, List<Future<?>> chunks) throws IOException, InterruptedException {
+      final long started = System.currentTimeMillis();
+      BufferedReader reader = new BufferedReader(new FileReader(file), 1 << 16);
+      try {
+         reader.readLine(); // header, e.g. "User Id,Password,..."
+         String line;
+         List<String> chunk = new ArrayList<String>(CHUNK_ROWS);
+         // the record read so far while a quoted field is still open.
+         StringBuilder record = null;
+         while (!this._failed) {
+            line = reader.readLine();
+            if (line != null) {
+               if (record != null) {
+                  record.append('\n').append(line);
+                  if (opensQuote(line)) {
+                     chunk.add(record.toString());
+                     record = null;
+                  }//end if
+               } else if (opensQuote(line)) {
+                  record = new StringBuilder(line);
+               } else if (line.length() > 0) {
+                  chunk.add(line);
+               }//end if
+            } else if (record != null) {
+               // an unterminated quote runs to the end of the file.
+               chunk.add(record.toString());
+               record = null;
+            }//end if
+            if (chunk.size() == CHUNK_ROWS || (line == null && !chunk.isEmpty())) {
+               final List<String> lines = chunk;
+               this._inFlight.acquire();
+               chunks.add(this._workers.submit(new java.util.concurrent.Callable<Void>() {
+                  public Void call () throws Exception {
+                     try {
+                        if (_failed)
+                           return null;
+                        insertChunk(spec, lines);
+                        synchronized (spec) {
+                           spec.millis = System.currentTimeMillis() - started;
+                        }
+                        return null;
+                     } catch (Exception e) {
+                        _failed = true;
+                        throw e;
+                     } finally {
+                        _inFlight.release();
+                     }
+                  }
+               }));
+               chunk = new ArrayList<String>(CHUNK_ROWS);
+            }//end if
+            if (line == null)
+               break;
+         }//end while
+      } finally {
+         reader.close();
+      }
+   }//end readChunks
+
+   // true when the line has an odd number of double quotes, i.e. it opens
+   // a quoted field it does not close, or closes one an earlier line opened.
+   static boolean opensQuote (String line) {
+      boolean odd = false;
+      for (int i = 0; i < line.length(); ++i)
+         if (line.charAt(i) == '"')
+            odd = !odd;
+      return odd;
+   }//end opensQuote
+
+   // parses one chunk and inserts it as a single batch and transaction.
+   private void insertChunk (TableSpec spec, List<String> lines) throws SQLException {
+      PooledConnection conn = this._pool.acquire();
+      Connection physical = conn.getConnection();
+      try {
+         physical.setAutoCommit(false);
+         // a plain statement: the driver sends the whole batch in one round trip.
+         PreparedStatement stmt = physical.prepareStatement(spec.insertSql());
+         try {
+            String[] fields = new String[spec.columns.length];
+            for (int i = 0; i < lines.size(); ++i) {
+               parseLine(lines.get(i), fields);
+               for (int c = 0; c < fields.length; ++c)
+                  bind(stmt, c + 1, spec.kinds.charAt(c), fields[c]);
+               stmt.addBatch();
+            }//end for
+            stmt.executeBatch();
+         } finally {
+            stmt.close();
+         }
+         physical.commit();
+         spec.rows.addAndGet(lines.size());
+      } catch (SQLException e) {
+         conn.rollbackQuietly();
+         throw e;
+      } finally {
+         conn.restoreAutoCommit(true);
+         this._pool.release(conn);
+      }
+   }//end insertChunk
+
+   private static void bind (PreparedStatement stmt, int index, char kind, String value) throws SQLException {
+      if (value == null || value.length() == 0) {
+         stmt.setNull(index, kind == TEXT ? java.sql.Types.VARCHAR
+            : kind == INT ? java.sql.Types.INTEGER
+            : kind == DATE ? java.sql.Types.DATE : java.sql.Types.TIMESTAMP);
+         return;
+      }//end if
+      switch (kind) {
+         case INT: stmt.setInt(index, Integer.parseInt(value)); break;
+         case DATE: stmt.setDate(index, parseDate(value)); break;
+         case TIME: stmt.setTimestamp(index, parseTimestamp(value)); break;
+         default: stmt.setString(index, value); break;
+      }//end switch
+   }//end bind
+
+   /**
+    * Splits one CSV record into fields, honouring double-quoted fields and
+    * doubled quotes inside them; a quoted field may hold newlines.
+    * Missing trailing fields are set to null.
+    */
+   static void parseLine (String line, String[] fields) {
+      int field = 0;
+      int i = 0;
+      int n = line.length();
+      if (n > 0 && line.charAt(n - 1) == '\r')
+         --n;
+      StringBuilder quoted = null;
+      while (field < fields.length && i <= n) {
+         if (i < n && line.charAt(i) == '"') {
+            if (quoted == null)
+               quoted = new StringBuilder();
+            quoted.setLength(0);
+            ++i;
+            while (i < n) {
+               char ch = line.charAt(i++);
+               if (ch == '"') {
+                  if (i < n && line.charAt(i) == '"') {
+                     quoted.append('"');
+                     ++i;
+                  } else {
+                     break;
+                  }//end if
+               } else {
+                  quoted.append(ch);
+               }//end if
+            }//end while
+            fields[field++] = quoted.toString();
+            while (i < n && line.charAt(i) != ',')
+               ++i;
+         } else {
+            int comma = line.indexOf(',', i);
+            if (comma < 0 || comma > n)
+               comma = n;
+            fields[field++] = line.substring(i, comma).trim();
+            i = comma;
+         }//end if
+         ++i; // skip the comma
+      }//end while
+      while (field < fields.length)
+         fields[field++] = null;
+   }//end parseLine
+
+   /**
+    * Parses an M/d/yyyy date, or an ISO yyyy-MM-dd one.
+    */
+   static java.sql.Date parseDate (String value) {
+      int slash = value.indexOf('/');
+      if (slash < 0)
+         return java.sql.Date.valueOf(value.trim());
+      int slash2 = value.indexOf('/', slash + 1);
+      int month = Integer.parseInt(value.substring(0, slash).trim());
+      int day = Integer.parseInt(value.substring(slash + 1, slash2).trim());
+      int year = Integer.parseInt(value.substring(slash2 + 1).trim());
+      return java.sql.Date.valueOf(year + "-" + month + "-" + day);
+   }//end parseDate
+
+   /**
+    * Parses "M/d/yyyy H:mm[:ss]" or an ISO timestamp.
+    */
+   static Timestamp parseTimestamp (String value) {
+      String v = value.trim();
+      if (v.indexOf('/') < 0)
+         return Timestamp.valueOf(v.length() == 10 ? v + " 00:00:00" : v);
+      int space = v.indexOf(' ');
+      java.sql.Date date = parseDate(space < 0 ? v : v.substring(0, space));
+      String time = space < 0 ? "00:00:00" : v.substring(space + 1).trim();
+      if (time.length() - time.replace(":", "").length() == 1)
+         time = time + ":00";
+      return Timestamp.valueOf(date.toString() + " " + time);
+   }//end parseTimestamp
+
+   // drops every foreign key on the loaded tables; returns the statements
+   // that recreate them.
+   private List<String> dropForeignKeys () throws SQLException {
+      List<String> restore = new ArrayList<String>();
+      List<String> drop = new ArrayList<String>();
+      PooledConnection conn = this._pool.acquire();
+      try {
+         Statement stmt = conn.getConnection().createStatement();
+         try {
+            ResultSet rs = stmt.executeQuery(
+               "SELECT conrelid::regclass::text, conname, pg_get_constraintdef(oid) FROM pg_constraint " +
+               "WHERE contype = 'f' AND conrelid::regclass::text IN " +
+               "('usr', 'work_expr', 'educational_details', 'message', 'connection_usr')");
+            while (rs.next()) {
+               drop.add("ALTER TABLE " + rs.getString(1) + " DROP CONSTRAINT " + rs.getString(2));
+               restore.add("ALTER TABLE " + rs.getString(1) + " ADD CONSTRAINT " + rs.getString(2) +
+                  " " + rs.getString(3));
+            }//end while
+            rs.close();
+            for (String sql : drop)
+               stmt.executeUpdate(sql);
+         } finally {
+            stmt.close();
+         }
+      } finally {
+         this._pool.release(conn);
+      }
+      return restore;
+   }//end dropForeignKeys
+
+   private void addForeignKeys (List<String> restore) throws SQLException {
+      for (String sql : restore)
+         execute(sql);
+   }//end addForeignKeys
+
+   private void execute (String sql) throws SQLException {
+      PooledConnection conn = this._pool.acquire();
+      try {
+         Statement stmt = conn.getConnection().createStatement();
+         try {
+            stmt.execute(sql);
+         } finally {
+            stmt.close();
+         }
+      } finally {
+         this._pool.release(conn);
+      }
+   }//end execute
+}//end BulkLoader
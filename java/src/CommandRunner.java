@@ -0,0 +1,405 @@
+/*
+ * Scripted Command Interface
+ * =============================
+ * Edward Martens (862256447), Cody Phu (862107077)
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs ProfNetwork operations from a script instead of the menus.
+ *
+ * Each line of the script is one command followed by its arguments,
+ * separated by blanks; an argument containing blanks is written in double
+ * quotes, with \" and \\ inside.  Blank lines and lines starting with #
+ * are skipped.  The commands are
+ *
+ *    login USERID PASSWORD          logout
+ *    profile USERID                 friend-list [USERID]
+ *    search FRAGMENT [LIMIT]        send-message RECEIVER CONTENTS
+ *    messages received|sent [LIMIT] flush
+ *    request USERID                 pending
+ *    decide accept|reject USERID... stats
+ *    suggest [LIMIT]                connection USERID
+ *    find QUERY [LIMIT]             facets QUERY
+ *    notifications
+ *
+ * and they call the same ProfNetwork methods as the menus.  login, logout,
+ * profile, search, find, facets and stats work without a login; the rest
+ * act as the user logged in last, as does friend-list without a USERID.
+ * The first notifications of a user starts counting the messages and
+ * requests that arrive for them; later ones report the counts.
+ *
+ * Every command writes one JSON object on a line of its own to standard
+ * output, e.g.
+ *
+ *    {"line":3,"command":"search","ok":true,"ms":0.412,"columns":[...],"rows":[[...]]}
+ *
+ * or "ok":false with an "error".  At the end a {"summary":[...]} line
+ * gives the count, errors, mean and maximum time of each command.  The
+ * messages ProfNetwork prints itself go to standard error.
+ */
+public class CommandRunner {
+
+   /**
+    * What one command returns: rows to print, or just a count.
+    */
+   private static class Result {
+      final String[] columns;
+      final List<List<String>> rows;
+      final int count;
+
+      Result (String[] columns, List<List<String>> rows) {
+         this.columns = columns;
+         this.rows = rows;
+         this.count = rows.size();
+      }
+
+      Result (int count) {
+         this.columns = null;
+         this.rows = null;
+         this.count = count;
+      }
+   }//end Result
+
+   private final ProfNetwork _esql;
+   private final Writer _out;
+
+   // user the commands act as, null before login.
+   private String _user = null;
+
+   // command -> { count, errors, total nanos, max nanos }, in first-seen order.
+   private final Map<String, long[]> _timings = new LinkedHashMap<String, long[]>();
+
+   public CommandRunner (ProfNetwork esql, Writer out) {
+      this._esql = esql;
+      this._out = out;
+   }//end CommandRunner
+
+   /**
+    * Runs every command read from script, then writes the summary.
+    *
+    * @param script the commands, one per line
+    * @return the number of commands that failed
+    * @throws java.io.IOException when reading the script or writing fails
+    */
+   public int run (BufferedReader script) throws IOException {
+      int failed = 0;
+      String line;
+      for (int lineNo = 1; (line = script.readLine()) != null; ++lineNo) {
+         List<String> args;
+         try {
+            args = tokenize(line);
+         }catch (IllegalArgumentException e){
+            report(lineNo, "", System.nanoTime(), null, e.getMessage());
+            ++failed;
+            continue;
+         }//end try
+         if (args.isEmpty() || args.get(0).startsWith("#"))
+            continue;
+         String command = args.get(0);
+         long start = System.nanoTime();
+         Result result = null;
+         String error = null;
+         try {
+            result = execute(command, args.subList(1, args.size()));
+         }catch (SQLException e){
+            error = e.getMessage();
+         }catch (IllegalArgumentException e){
+            error = e.getMessage();
+         }//end try
+         if (error != null)
+            ++failed;
+         report(lineNo, command, start, result, error);
+      }//end for
+      this._esql.flushMessages();
+      writeSummary();
+      return failed;
+   }//end run
+
+   private Result execute (String command, List<String> args) throws SQLException {
+      switch (command) {
+         case "login":
+            expect(args, 2, 2, "login USERID PASSWORD");
+            if (!this._esql.authenticate(args.get(0), args.get(1)))
+               throw new IllegalArgumentException("login failed for " + args.get(0));
+            this._user = args.get(0);
+            return new Result(1);
+         case "logout":
+            expect(args, 0, 0, "logout");
+            this._user = null;
+            return new Result(0);
+         case "profile":
+            expect(args, 1, 1, "profile USERID");
+            return new Result(ProfNetwork.PROFILE_COLUMNS, this._esql.getProfile(args.get(0)));
+         case "friend-list":
+            expect(args, 0, 1, "friend-list [USERID]");
+            return new Result(ProfNetwork.PROFILE_COLUMNS,
+               this._esql.getFriendList(args.isEmpty() ? user() : args.get(0)));
+         case "search":
+            expect(args, 1, 2, "search FRAGMENT [LIMIT]");
+            return new Result(ProfNetwork.PEOPLE_COLUMNS, this._esql.searchPeople(args.get(0),
+               args.size() > 1 ? parseInt(args.get(1)) : ProfNetwork.SEARCH_LIMIT));
+         case "send-message":
+            expect(args, 2, 2, "send-message RECEIVER CONTENTS");
+            int msgId = this._esql.sendMessage(user(), args.get(0), args.get(1));
+            List<List<String>> ids = new ArrayList<List<String>>();
+            ids.add(Arrays.asList(String.valueOf(msgId)));
+            return new Result(new String[] { "msgid" }, ids);
+         case "flush":
+            expect(args, 0, 0, "flush");
+            if (this._user == null)
+               this._esql.flushMessages();
+            else
+               this._esql.flushMessages(this._user);
+            return new Result(0);
+         case "messages":
+            expect(args, 1, 2, "messages received|sent [LIMIT]");
+            boolean sent = args.get(0).equals("sent");
+            if (!sent && !args.get(0).equals("received"))
+               throw new IllegalArgumentException("usage: messages received|sent [LIMIT]");
+            this._esql.flushMessages(user());
+            return new Result(ProfNetwork.MESSAGE_COLUMNS, this._esql.fetchMessagePage(user(), sent, null,
+               args.size() > 1 ? parseInt(args.get(1)) : ResultPager.configuredPageSize()));
+         case "request":
+            expect(args, 1, 1, "request USERID");
+            if (!this._esql.requestConnection(user(), args.get(0)))
+               throw new IllegalArgumentException(args.get(0) + " is too far away");
+            return new Result(1);
+         case "pending":
+            expect(args, 0, 0, "pending");
+            return new Result(ProfNetwork.PENDING_COLUMNS,
+               this._esql.getPendingRequests(user()));
+         case "decide":
+            expect(args, 2, Integer.MAX_VALUE, "decide accept|reject USERID...");
+            String decision = args.get(0).equals("accept") ? "Accept"
+               : args.get(0).equals("reject") ? "Reject" : null;
+            if (decision == null)
+               throw new IllegalArgumentException("usage: decide accept|reject USERID...");
+            return new Result(this._esql.decideRequests(user(),
+               new ArrayList<String>(args.subList(1, args.size())), decision).size());
+         case "suggest":
+            expect(args, 0, 1, "suggest [LIMIT]");
+            return new Result(ProfNetwork.SUGGESTION_COLUMNS, this._esql.suggestConnections(user(),
+               args.isEmpty() ? ConnectionRecommender.DEFAULT_LIMIT : parseInt(args.get(0))));
+         case "connection":
+            expect(args, 1, 1, "connection USERID");
+            List<String> path = this._esql.connectionPath(user(), args.get(0));
+            List<List<String>> connection = new ArrayList<List<String>>();
+            connection.add(Arrays.asList(path == null ? null : ProfNetwork.join(path, Integer.MAX_VALUE),
+               ProfNetwork.join(this._esql.mutualConnections(user(), args.get(0)), Integer.MAX_VALUE)));
+            return new Result(new String[] { "path", "mutual" }, connection);
+         case "find":
+            expect(args, 1, 2, "find QUERY [LIMIT]");
+            List<List<String>> found = new ArrayList<List<String>>();
+            for (String userId : this._esql.getFacetIndex().search(args.get(0),
+                  args.size() > 1 ? parseInt(args.get(1)) : ProfNetwork.SEARCH_LIMIT))
+               found.add(Arrays.asList(userId));
+            return new Result(new String[] { "userid" }, found);
+         case "facets":
+            expect(args, 1, 1, "facets QUERY");
+            return new Result(FacetIndex.COUNT_COLUMNS,
+               this._esql.getFacetIndex().facetCounts(args.get(0), ProfNetwork.FACET_VALUES));
+         case "notifications":
+            expect(args, 0, 0, "notifications");
+            NotificationHub hub = this._esql.getNotificationHub();
+            NotificationHub.Mailbox box = hub.mailbox(user());
+            if (box == null)
+               box = hub.subscribe(user());
+            List<List<String>> counts = new ArrayList<List<String>>();
+            counts.add(Arrays.asList(String.valueOf(box.unread()), String.valueOf(box.pending())));
+            return new Result(new String[] { "unread", "pending" }, counts);
+         case "stats":
+            expect(args, 0, 0, "stats");
+            List<List<String>> rows = new ArrayList<List<String>>();
+            rows.add(Arrays.asList("profiles", this._esql.getProfileCache().toString()));
+            rows.add(Arrays.asList("friend-lists", this._esql.getFriendListCache().toString()));
+            return new Result(new String[] { "cache", "counters" }, rows);
+         default:
+            throw new IllegalArgumentException("unknown command " + command);
+      }//end switch
+   }//end execute
+
+   private String user () {
+      if (this._user == null)
+         throw new IllegalArgumentException("not logged in");
+      return this._user;
+   }//end user
+
+   private static void expect (List<String> args, int min, int max, String usage) {
+      if (args.size() < min || args.size() > max)
+         throw new IllegalArgumentException("usage: " + usage);
+   }//end expect
+
+   private static int parseInt (String value) {
+      try {
+         return Integer.parseInt(value);
+      }catch (NumberFormatException e){
+         throw new IllegalArgumentException("not a number: " + value);
+      }//end try
+   }//end parseInt
+
+   /**
+    * Splits a script line into blank separated arguments, honouring double
+    * quotes and backslash escapes inside them.
+    */
+   static List<String> tokenize (String line) {
+      List<String> args = new ArrayList<String>();
+      StringBuilder arg = new StringBuilder();
+      int i = 0;
+      while (i < line.length()) {
+         char ch = line.charAt(i);
+         if (Character.isWhitespace(ch)) {
+            ++i;
+            continue;
+         }//end if
+         arg.setLength(0);
+         if (ch == '"') {
+            for (++i; ; ++i) {
+               if (i >= line.length())
+                  throw new IllegalArgumentException("unterminated quote");
+               ch = line.charAt(i);
+               if (ch == '"')
+                  break;
+               if (ch == '\\' && i + 1 < line.length())
+                  ch = line.charAt(++i);
+               arg.append(ch);
+            }//end for
+            ++i;
+         } else {
+            while (i < line.length() && !Character.isWhitespace(line.charAt(i)))
+               arg.append(line.charAt(i++));
+         }//end if
+         args.add(arg.toString());
+      }//end while
+      return args;
+   }//end tokenize
+
+   private void report (int lineNo, String command, long start, Result result, String error) throws IOException {
+      long elapsed = System.nanoTime() - start;
+      long[] timing = this._timings.get(command);
+      if (timing == null) {
+         timing = new long[4];
+         this._timings.put(command, timing);
+      }//end if
+      ++timing[0];
+      if (error != null)
+         ++timing[1];
+      timing[2] += elapsed;
+      timing[3] = Math.max(timing[3], elapsed);
+
+      StringBuilder json = new StringBuilder(256);
+      json.append("{\"line\":").append(lineNo).append(",\"command\":");
+      ResultRenderer.quoteJson(json, command);
+      json.append(",\"ok\":").append(error == null);
+      json.append(",\"ms\":").append(millis(elapsed));
+      if (error != null) {
+         json.append(",\"error\":");
+         ResultRenderer.quoteJson(json, error);
+      } else if (result.rows == null) {
+         json.append(",\"count\":").append(result.count);
+      } else {
+         json.append(",\"columns\":[");
+         for (int c = 0; c < result.columns.length; ++c) {
+            if (c > 0)
+               json.append(',');
+            ResultRenderer.quoteJson(json, result.columns[c]);
+         }//end for
+         json.append("],\"rows\":[");
+         for (int r = 0; r < result.rows.size(); ++r) {
+            json.append(r == 0 ? "[" : ",[");
+            List<String> row = result.rows.get(r);
+            for (int c = 0; c < row.size(); ++c) {
+               if (c > 0)
+                  json.append(',');
+               ResultRenderer.quoteJson(json, row.get(c));
+            }//end for
+            json.append(']');
+         }//end for
+         json.append(']');
+      }//end if
+      json.append("}\n");
+      this._out.write(json.toString());
+      this._out.flush();
+   }//end report
+
+   private void writeSummary () throws IOException {
+      StringBuilder json = new StringBuilder("{\"summary\":[");
+      boolean first = true;
+      for (Map.Entry<String, long[]> entry : this._timings.entrySet()) {
+         long[] t = entry.getValue();
+         json.append(first ? "{\"command\":" : ",{\"command\":");
+         ResultRenderer.quoteJson(json, entry.getKey());
+         json.append(",\"count\":").append(t[0]);
+         json.append(",\"errors\":").append(t[1]);
+         json.append(",\"meanMs\":").append(millis(t[2] / t[0]));
+         json.append(",\"maxMs\":").append(millis(t[3]));
+         json.append('}');
+         first = false;
+      }//end for
+      json.append("]}\n");
+      this._out.write(json.toString());
+      this._out.flush();
+   }//end writeSummary
+
+   private static String millis (long nanos) {
+      return String.format("%.3f", nanos / 1e6);
+   }//end millis
+
+   /**
+    * Runs a script of commands against the database.
+    *
+    * @param args <dbname> <port> <user> [script file, standard input if absent]
+    */
+   public static void main (String[] args) {
+      if (args.length != 3 && args.length != 4) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            CommandRunner.class.getName () +
+            " <dbname> <port> <user> [script]");
+         return;
+      }//end if
+
+      // keep standard output for the JSON results.
+      System.setOut(System.err);
+      ProfNetwork esql = null;
+      int failed = 0;
+      try{
+         Class.forName ("org.postgresql.Driver");
+         esql = new ProfNetwork (args[0], args[1], args[2], "");
+         BufferedReader script = args.length == 4
+            ? new BufferedReader(new FileReader(args[3]))
+            : new BufferedReader(new InputStreamReader(System.in));
+         try {
+            failed = new CommandRunner(esql, ResultRenderer.stdout()).run(script);
+         } finally {
+            script.close();
+         }
+      }catch(Exception e) {
+         System.err.println (e.getMessage ());
+         failed = 1;
+      }finally{
+         if (esql != null)
+            esql.cleanup ();
+      }//end try
+      System.exit(failed == 0 ? 0 : 1);
+   }//end main
+}//end CommandRunner
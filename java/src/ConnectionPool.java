@@ -0,0 +1,195 @@
+/*
+ * JDBC Connection Pool
+ * =============================
+ * Edward Martens (862256447), Cody Phu (862107077)
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A bounded pool of PostgreSQL connections.  Connections are opened lazily
+ * up to the configured maximum; once that many are in use, acquire() blocks
+ * until another caller releases one.
+ *
+ * A caller whose statement fails tells the connection so (see
+ * PooledConnection.failed and rollbackQuietly); release() then checks the
+ * connection and drops it if its socket is gone, instead of handing a dead
+ * connection out again.
+ *
+ */
+public class ConnectionPool {
+
+   // how long acquire() waits for a free connection before giving up.
+   private static final long ACQUIRE_TIMEOUT_SECONDS = 30;
+
+   private final String _url;
+   private final String _user;
+   private final String _passwd;
+   private final int _maxSize;
+   private final int _statementCacheSize;
+
+   // connections that are open and not handed out.
+   private final LinkedBlockingQueue<PooledConnection> _idle =
+      new LinkedBlockingQueue<PooledConnection>();
+
+   // every connection opened by this pool, idle or in use.
+   private final List<PooledConnection> _all = new ArrayList<PooledConnection>();
+
+   private boolean _closed = false;
+
+   /**
+    * Creates a new pool.  No connection is opened until the first acquire().
+    *
+    * @param url the JDBC connection URL
+    * @param user the user name used to login to the database
+    * @param passwd the user login password
+    * @param maxSize the maximum number of physical connections
+    * @param statementCacheSize the number of prepared statements cached per connection
+    */
+   public ConnectionPool (String url, String user, String passwd, int maxSize, int statementCacheSize) {
+      if (maxSize < 1)
+         throw new IllegalArgumentException("pool size must be at least 1");
+      this._url = url;
+      this._user = user;
+      this._passwd = passwd;
+      this._maxSize = maxSize;
+      this._statementCacheSize = statementCacheSize;
+   }//end ConnectionPool
+
+   /**
+    * Takes a connection out of the pool, opening a new one if the pool is
+    * not yet full.  Every acquire() must be paired with a release().
+    *
+    * @return a connection reserved for the calling thread
+    * @throws java.sql.SQLException when no connection could be obtained
+    */
+   public PooledConnection acquire () throws SQLException {
+      PooledConnection conn = this._idle.poll();
+      if (conn == null)
+         conn = openIfRoom();
+      if (conn == null) {
+         try {
+            conn = this._idle.poll(ACQUIRE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+         }catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection");
+         }//end try
+         if (conn == null)
+            throw new SQLException("Timed out waiting for a database connection");
+      }//end if
+      if (conn.isClosed()) {
+         discard(conn);
+         return acquire();
+      }//end if
+      return conn;
+   }//end acquire
+
+   /**
+    * Hands a connection back to the pool, or drops it if it is no longer
+    * usable.
+    *
+    * @param conn a connection obtained from acquire()
+    */
+   public void release (PooledConnection conn) {
+      if (conn == null)
+         return;
+      if (!conn.validate()) {
+         discard(conn);
+         return;
+      }//end if
+      synchronized (this) {
+         if (this._closed) {
+            this._all.remove(conn);
+            conn.close();
+            return;
+         }//end if
+      }
+      this._idle.offer(conn);
+   }//end release
+
+   /**
+    * Drops a connection that is known to be broken and frees its slot.
+    *
+    * @param conn a connection obtained from acquire()
+    */
+   public void discard (PooledConnection conn) {
+      synchronized (this) {
+         this._all.remove(conn);
+      }
+      conn.close();
+   }//end discard
+
+   /**
+    * Returns the most physical connections this pool will open.
+    */
+   public int maxSize () {
+      return this._maxSize;
+   }//end maxSize
+
+   /**
+    * Returns the number of physical connections currently open.
+    */
+   public synchronized int size () {
+      return this._all.size();
+   }//end size
+
+   /**
+    * Closes every idle connection; connections still in use are closed as
+    * soon as they are released.
+    */
+   public void close () {
+      synchronized (this) {
+         this._closed = true;
+      }
+      PooledConnection conn;
+      while ((conn = this._idle.poll()) != null) {
+         synchronized (this) {
+            this._all.remove(conn);
+         }
+         conn.close();
+      }//end while
+   }//end close
+
+   /**
+    * Opens a physical connection that is not part of the pool, for a
+    * caller that keeps it to itself, e.g. to LISTEN on.  The caller
+    * closes it.
+    *
+    * @return a new connection to the pool's database
+    * @throws java.sql.SQLException when the connection could not be opened
+    */
+   public Connection openDedicated () throws SQLException {
+      synchronized (this) {
+         if (this._closed)
+            throw new SQLException("Connection pool is closed");
+      }
+      return DriverManager.getConnection(this._url, this._user, this._passwd);
+   }//end openDedicated
+
+   private PooledConnection openIfRoom () throws SQLException {
+      synchronized (this) {
+         if (this._closed)
+            throw new SQLException("Connection pool is closed");
+         if (this._all.size() >= this._maxSize)
+            return null;
+         PooledConnection conn = new PooledConnection(
+            DriverManager.getConnection(this._url, this._user, this._passwd),
+            this._statementCacheSize);
+         this._all.add(conn);
+         return conn;
+      }
+   }//end openIfRoom
+}//end ConnectionPool
@@ -0,0 +1,579 @@
+/*
+ * Connection Recommender
+ * =============================
+ * Edward Martens (862256447), Cody Phu (862107077)
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Suggests people a user may know: users they are not connected to,
+ * ranked by mutual accepted connections, shared companies (WORK_EXPR)
+ * and shared institutions (EDUCATIONAL_DETAILS).
+ *
+ * Mutual connections are counted over the SocialGraph: the neighbor
+ * arrays of the user's connections are split among the threads of a
+ * ForkJoinPool, each counting the second-hop users it reaches, and the
+ * partial counts are merged.  Companies and institutions are kept in
+ * memory as groups of user codes, read once from the database.
+ *
+ * The counts of the most recently asked users are cached and kept up to
+ * date as connections are accepted or removed: a change of one edge only
+ * moves the counts of the users at its ends and of their connections, so
+ * it is applied to the cached counts in place and the ranking is redone
+ * from them on the next request.  Configured by
+ * -Dprofnetwork.recommendThreads, -Dprofnetwork.recommendCacheSize and
+ * -Dprofnetwork.recommendGroupLimit.
+ */
+public class ConnectionRecommender {
+
+   public static final int DEFAULT_CACHE_SIZE = 1024;
+
+   // companies and schools with more members than this are too common to
+   // suggest anyone by themselves; they still add to the score.
+   public static final int DEFAULT_GROUP_LIMIT = 1000;
+
+   // suggestions ranked and kept per cached user, at least.
+   public static final int DEFAULT_LIMIT = 10;
+
+   // a mutual connection weighs this many shared companies or schools.
+   static final int MUTUAL_WEIGHT = 2;
+
+   // second-hop edges counted by one fork/join leaf.
+   private static final int LEAF_EDGES = 4096;
+
+   static final String[] COLUMNS = { "userid", "mutual", "companies", "schools", "score" };
+
+   static final String COMPANIES_QUERY =
+      "SELECT U.userId, W.company FROM WORK_EXPR W JOIN USR U ON U.userKey = W.userKey";
+   static final String SCHOOLS_QUERY =
+      "SELECT U.userId, E.instituitionName FROM EDUCATIONAL_DETAILS E JOIN USR U ON U.userKey = E.userKey";
+
+   /**
+    * An open addressing map from user codes to counts; a count of zero is
+    * the same as no entry.
+    */
+   static final class Counts {
+      private int[] _keys;
+      private int[] _values;
+      private int _used = 0;
+
+      Counts (int expected) {
+         int capacity = 16;
+         while (capacity < expected * 2)
+            capacity <<= 1;
+         this._keys = new int[capacity];
+         this._values = new int[capacity];
+         Arrays.fill(this._keys, -1);
+      }
+
+      int get (int key) {
+         int mask = this._keys.length - 1;
+         for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+            if (this._keys[i] == key)
+               return this._values[i];
+            if (this._keys[i] < 0)
+               return 0;
+         }//end for
+      }//end get
+
+      void add (int key, int delta) {
+         int mask = this._keys.length - 1;
+         int i = hash(key) & mask;
+         while (this._keys[i] != key && this._keys[i] >= 0)
+            i = (i + 1) & mask;
+         if (this._keys[i] < 0) {
+            if (delta == 0)
+               return;
+            this._keys[i] = key;
+            if (++this._used * 2 > this._keys.length) {
+               this._values[i] = delta;
+               grow();
+               return;
+            }//end if
+         }//end if
+         this._values[i] += delta;
+      }//end add
+
+      void set (int key, int value) {
+         add(key, value - get(key));
+      }//end set
+
+      // slots, for iterating with keyAt and valueAt.
+      int capacity () {
+         return this._keys.length;
+      }
+
+      int keyAt (int slot) {
+         return this._keys[slot];
+      }
+
+      int valueAt (int slot) {
+         return this._values[slot];
+      }
+
+      void addAll (Counts other) {
+         for (int i = 0; i < other._keys.length; ++i)
+            if (other._keys[i] >= 0 && other._values[i] != 0)
+               add(other._keys[i], other._values[i]);
+      }//end addAll
+
+      private void grow () {
+         int[] keys = this._keys;
+         int[] values = this._values;
+         this._keys = new int[keys.length * 2];
+         this._values = new int[keys.length * 2];
+         Arrays.fill(this._keys, -1);
+         this._used = 0;
+         for (int i = 0; i < keys.length; ++i)
+            if (keys[i] >= 0 && values[i] != 0)
+               add(keys[i], values[i]);
+      }//end grow
+
+      private static int hash (int key) {
+         int h = key * 0x9E3779B9;
+         return h ^ (h >>> 16);
+      }//end hash
+   }//end Counts
+
+   /**
+    * Counts how often each user appears in lists[lo..hi), splitting the
+    * range in halves until a half holds at most LEAF_EDGES entries.
+    */
+   static final class TwoHopTask extends RecursiveTask<Counts> {
+      private static final long serialVersionUID = 1L;
+
+      private final int[][] _lists;
+      private final long[] _prefix;
+      private final int _lo, _hi;
+
+      TwoHopTask (int[][] lists, long[] prefix, int lo, int hi) {
+         this._lists = lists;
+         this._prefix = prefix;
+         this._lo = lo;
+         this._hi = hi;
+      }
+
+      protected Counts compute () {
+         long edges = this._prefix[this._hi] - this._prefix[this._lo];
+         if (this._hi - this._lo <= 1 || edges <= LEAF_EDGES) {
+            Counts counts = new Counts((int) Math.min(edges, 1 << 20));
+            for (int i = this._lo; i < this._hi; ++i)
+               for (int v : this._lists[i])
+                  counts.add(v, 1);
+            return counts;
+         }//end if
+         int mid = (this._lo + this._hi) >>> 1;
+         TwoHopTask left = new TwoHopTask(this._lists, this._prefix, this._lo, mid);
+         left.fork();
+         Counts right = new TwoHopTask(this._lists, this._prefix, mid, this._hi).compute();
+         Counts merged = left.join();
+         // fold the smaller map into the larger one.
+         if (merged.capacity() < right.capacity()) {
+            right.addAll(merged);
+            return right;
+         }//end if
+         merged.addAll(right);
+         return merged;
+      }//end compute
+   }//end TwoHopTask
+
+   /**
+    * The users in each company or institution, by normalized name.
+    */
+   static final class Groups {
+      private final HashMap<String, Integer> _codes = new HashMap<String, Integer>();
+      private int[][] _members = new int[16][];
+      private int[] _memberCount = new int[16];
+      // sorted group codes of each user.
+      private int[][] _byUser = new int[0][];
+
+      void add (int user, String name) {
+         if (name == null || name.trim().length() == 0)
+            return;
+         String key = name.trim().toLowerCase();
+         Integer code = this._codes.get(key);
+         if (code == null) {
+            code = Integer.valueOf(this._codes.size());
+            this._codes.put(key, code);
+         }//end if
+         int g = code.intValue();
+         if (user >= this._byUser.length)
+            this._byUser = Arrays.copyOf(this._byUser, Math.max(user + 1, 2 * this._byUser.length));
+         int[] mine = this._byUser[user] == null ? new int[0] : this._byUser[user];
+         int at = Arrays.binarySearch(mine, g);
+         if (at >= 0)
+            return;
+         at = -at - 1;
+         int[] grown = new int[mine.length + 1];
+         System.arraycopy(mine, 0, grown, 0, at);
+         grown[at] = g;
+         System.arraycopy(mine, at, grown, at + 1, mine.length - at);
+         this._byUser[user] = grown;
+
+         if (g >= this._members.length) {
+            this._members = Arrays.copyOf(this._members, 2 * this._members.length);
+            this._memberCount = Arrays.copyOf(this._memberCount, this._members.length);
+         }//end if
+         int[] members = this._members[g];
+         if (members == null)
+            members = this._members[g] = new int[4];
+         else if (this._memberCount[g] == members.length)
+            members = this._members[g] = Arrays.copyOf(members, 2 * members.length);
+         members[this._memberCount[g]++] = user;
+      }//end add
+
+      int[] groups (int user) {
+         return user < this._byUser.length && this._byUser[user] != null ? this._byUser[user] : new int[0];
+      }//end groups
+
+      // the number of groups a and b are both in.
+      int shared (int a, int b) {
+         return intersection(groups(a), groups(b));
+      }//end shared
+   }//end Groups
+
+   /**
+    * The cached state of one user.
+    */
+   private static final class Cached {
+      int[] friends;
+      final Counts mutual;
+      // ranked suggestions, or null when the counts have changed since.
+      List<List<String>> top = null;
+      // the limit top was ranked for.
+      int ranked = 0;
+
+      Cached (int[] friends, Counts mutual) {
+         this.friends = friends;
+         this.mutual = mutual;
+      }
+   }//end Cached
+
+   private final ProfNetwork _esql;
+   private final ForkJoinPool _pool;
+   private final int _groupLimit;
+   private final LinkedHashMap<Integer, Cached> _cache;
+   private Groups _companies = null;
+   private Groups _schools = null;
+
+   // counts connection changes, so counts computed across one are not cached.
+   private long _changes = 0;
+
+   /**
+    * Creates a recommender from the system properties described above.
+    */
+   public static ConnectionRecommender configured (ProfNetwork esql) {
+      return new ConnectionRecommender(esql,
+         Integer.getInteger("profnetwork.recommendThreads", Runtime.getRuntime().availableProcessors()),
+         Integer.getInteger("profnetwork.recommendCacheSize", DEFAULT_CACHE_SIZE),
+         Integer.getInteger("profnetwork.recommendGroupLimit", DEFAULT_GROUP_LIMIT));
+   }//end configured
+
+   /**
+    * @param esql the database the graph and the groups are read from
+    * @param threads the parallelism of the counting
+    * @param cacheSize the most users whose counts are kept
+    * @param groupLimit the largest group whose members are suggested
+    */
+   public ConnectionRecommender (ProfNetwork esql, int threads, final int cacheSize, int groupLimit) {
+      this._esql = esql;
+      this._pool = new ForkJoinPool(Math.max(1, threads));
+      this._groupLimit = groupLimit;
+      this._cache = new LinkedHashMap<Integer, Cached>(16, 0.75f, true) {
+         protected boolean removeEldestEntry (Map.Entry<Integer, Cached> eldest) {
+            return size() > cacheSize;
+         }
+      };
+   }//end ConnectionRecommender
+
+   /**
+    * Returns the best suggestions for a user, best first.
+    *
+    * @param userId the user
+    * @param limit the most suggestions returned
+    * @return rows of userId, mutual connections, shared companies, shared
+    *         schools and score
+    * @throws java.sql.SQLException when failed to load the graph or groups
+    */
+   public List<List<String>> suggest (String userId, int limit) throws SQLException {
+      SocialGraph graph = this._esql.getSocialGraph();
+      loadGroups(graph);
+      int u = graph.lookup(userId);
+      if (u < 0 || limit <= 0)
+         return new ArrayList<List<String>>();
+      Integer key = Integer.valueOf(u);
+
+      long changes;
+      synchronized (this) {
+         Cached cached = this._cache.get(key);
+         if (cached != null)
+            return top(graph, u, cached, limit);
+         changes = this._changes;
+      }
+
+      // count outside the lock; the pool does the work.
+      int[] friends = graph.neighbors(u);
+      int[][] lists = graph.neighborLists(friends);
+      long[] prefix = new long[lists.length + 1];
+      for (int i = 0; i < lists.length; ++i)
+         prefix[i + 1] = prefix[i] + lists[i].length;
+      Counts mutual = lists.length == 0 ? new Counts(0) : this._pool.invoke(new TwoHopTask(lists, prefix, 0, lists.length));
+      mutual.set(u, 0);
+      for (int f : friends)
+         mutual.set(f, 0);
+
+      synchronized (this) {
+         Cached cached = this._cache.get(key);
+         if (cached == null) {
+            cached = new Cached(friends, mutual);
+            // a connection changed while counting: use the counts once.
+            if (changes == this._changes)
+               this._cache.put(key, cached);
+         }//end if
+         return top(graph, u, cached, limit);
+      }
+   }//end suggest
+
+   /**
+    * Updates the cached counts for a connection accepted after the graph
+    * was changed.
+    */
+   public void connectionAdded (String a, String b) throws SQLException {
+      connectionChanged(a, b, 1);
+   }//end connectionAdded
+
+   /**
+    * Updates the cached counts for a connection removed after the graph
+    * was changed.
+    */
+   public void connectionRemoved (String a, String b) throws SQLException {
+      connectionChanged(a, b, -1);
+   }//end connectionRemoved
+
+   /**
+    * Records a company (school false) or institution (school true) added
+    * to a user's profile.
+    */
+   public void affiliationAdded (String userId, String name, boolean school) throws SQLException {
+      SocialGraph graph = this._esql.getSocialGraph();
+      int u = graph.intern(userId);
+      synchronized (this) {
+         if (this._companies == null)
+            return;
+         (school ? this._schools : this._companies).add(u, name);
+         // shared groups are scored when ranking; every ranking may move.
+         for (Cached cached : this._cache.values())
+            cached.top = null;
+      }
+   }//end affiliationAdded
+
+   /**
+    * Stops the counting threads.
+    */
+   public void shutdown () {
+      this._pool.shutdown();
+   }//end shutdown
+
+   private void connectionChanged (String a, String b, int delta) throws SQLException {
+      SocialGraph graph = this._esql.getSocialGraph();
+      int ua = graph.lookup(a);
+      int ub = graph.lookup(b);
+      if (ua < 0 || ub < 0)
+         return;
+      int[][] ends = graph.neighborLists(new int[] { ua, ub });
+      synchronized (this) {
+         ++this._changes;
+         for (Map.Entry<Integer, Cached> entry : this._cache.entrySet()) {
+            int x = entry.getKey().intValue();
+            Cached cached = entry.getValue();
+            if (x == ua)
+               changeOwnEdge(cached, ua, ub, ends[1], delta);
+            else if (x == ub)
+               changeOwnEdge(cached, ub, ua, ends[0], delta);
+            else
+               changeFriendEdge(cached, x, ua, ub, delta);
+         }//end for
+      }
+   }//end connectionChanged
+
+   // x, one end of the edge, gained or lost the other end y, whose
+   // neighbors (after the change) are given.
+   private static void changeOwnEdge (Cached cached, int x, int y, int[] yNeighbors, int delta) {
+      if (delta > 0) {
+         if (contains(cached.friends, y))
+            return;
+         cached.friends = insert(cached.friends, y);
+         cached.mutual.set(y, 0);
+      } else {
+         if (!contains(cached.friends, y))
+            return;
+         cached.friends = remove(cached.friends, y);
+         // y is a candidate again, with the connections both still have.
+         cached.mutual.set(y, intersection(cached.friends, yNeighbors));
+      }//end if
+      for (int w : yNeighbors)
+         if (w != x && !contains(cached.friends, w))
+            cached.mutual.add(w, delta);
+      cached.top = null;
+   }//end changeOwnEdge
+
+   // x is not on the edge; it sees a new or lost path through a friend.
+   private static void changeFriendEdge (Cached cached, int x, int ua, int ub, int delta) {
+      boolean viaA = contains(cached.friends, ua) && x != ub && !contains(cached.friends, ub);
+      boolean viaB = contains(cached.friends, ub) && x != ua && !contains(cached.friends, ua);
+      if (viaA)
+         cached.mutual.add(ub, delta);
+      if (viaB)
+         cached.mutual.add(ua, delta);
+      if (viaA || viaB)
+         cached.top = null;
+   }//end changeFriendEdge
+
+   // the ranked suggestions for u; called holding the lock.
+   private List<List<String>> top (SocialGraph graph, int u, Cached cached, int limit) {
+      if (cached.top == null || cached.ranked < limit) {
+         cached.ranked = Math.max(limit, DEFAULT_LIMIT);
+         cached.top = rank(graph, u, cached, cached.ranked);
+      }//end if
+      return new ArrayList<List<String>>(cached.top.subList(0, Math.min(limit, cached.top.size())));
+   }//end top
+
+   private List<List<String>> rank (SocialGraph graph, int u, Cached cached, int limit) {
+      // candidates: second-hop users, then members of u's smaller groups.
+      Counts candidates = new Counts(64);
+      Counts mutual = cached.mutual;
+      for (int i = 0; i < mutual.capacity(); ++i)
+         if (mutual.keyAt(i) >= 0 && mutual.valueAt(i) > 0)
+            candidates.add(mutual.keyAt(i), 1);
+      addMembers(candidates, this._companies, u);
+      addMembers(candidates, this._schools, u);
+
+      // a min-heap of the best limit candidates, as { score, -code, ... }.
+      PriorityQueue<int[]> heap = new PriorityQueue<int[]>(limit + 1, new Comparator<int[]>() {
+         public int compare (int[] x, int[] y) {
+            return x[0] != y[0] ? (x[0] < y[0] ? -1 : 1) : (x[1] < y[1] ? -1 : x[1] > y[1] ? 1 : 0);
+         }
+      });
+      for (int i = 0; i < candidates.capacity(); ++i) {
+         int c = candidates.keyAt(i);
+         if (c < 0 || candidates.valueAt(i) == 0 || c == u || contains(cached.friends, c))
+            continue;
+         int m = mutual.get(c);
+         int companies = this._companies.shared(u, c);
+         int schools = this._schools.shared(u, c);
+         int score = MUTUAL_WEIGHT * m + companies + schools;
+         if (score <= 0)
+            continue;
+         heap.add(new int[] { score, -c, m, companies, schools });
+         if (heap.size() > limit)
+            heap.poll();
+      }//end for
+
+      List<List<String>> rows = new ArrayList<List<String>>(heap.size());
+      while (!heap.isEmpty()) {
+         int[] s = heap.poll();
+         rows.add(Arrays.asList(graph.userId(-s[1]), String.valueOf(s[2]), String.valueOf(s[3]),
+            String.valueOf(s[4]), String.valueOf(s[0])));
+      }//end while
+      Collections.reverse(rows);
+      return rows;
+   }//end rank
+
+   private void addMembers (Counts candidates, Groups groups, int u) {
+      for (int g : groups.groups(u)) {
+         if (groups._memberCount[g] > this._groupLimit)
+            continue;
+         int[] members = groups._members[g];
+         for (int i = 0; i < groups._memberCount[g]; ++i)
+            candidates.add(members[i], 1);
+      }//end for
+   }//end addMembers
+
+   private void loadGroups (final SocialGraph graph) throws SQLException {
+      synchronized (this) {
+         if (this._companies != null)
+            return;
+      }
+      final Groups companies = new Groups();
+      final Groups schools = new Groups();
+      this._esql.executeQueryStreaming(COMPANIES_QUERY, ProfNetwork.STREAM_BATCH_SIZE, new RowHandler() {
+         public void start (String[] columns) {
+         }
+         public boolean handleRow (String[] row) {
+            companies.add(graph.intern(row[0]), row[1]);
+            return true;
+         }
+      });
+      this._esql.executeQueryStreaming(SCHOOLS_QUERY, ProfNetwork.STREAM_BATCH_SIZE, new RowHandler() {
+         public void start (String[] columns) {
+         }
+         public boolean handleRow (String[] row) {
+            schools.add(graph.intern(row[0]), row[1]);
+            return true;
+         }
+      });
+      synchronized (this) {
+         if (this._companies == null) {
+            this._companies = companies;
+            this._schools = schools;
+         }//end if
+      }
+   }//end loadGroups
+
+   private static boolean contains (int[] sorted, int v) {
+      return Arrays.binarySearch(sorted, v) >= 0;
+   }//end contains
+
+   private static int[] insert (int[] sorted, int v) {
+      int at = -Arrays.binarySearch(sorted, v) - 1;
+      int[] grown = new int[sorted.length + 1];
+      System.arraycopy(sorted, 0, grown, 0, at);
+      grown[at] = v;
+      System.arraycopy(sorted, at, grown, at + 1, sorted.length - at);
+      return grown;
+   }//end insert
+
+   private static int[] remove (int[] sorted, int v) {
+      int at = Arrays.binarySearch(sorted, v);
+      int[] shrunk = new int[sorted.length - 1];
+      System.arraycopy(sorted, 0, shrunk, 0, at);
+      System.arraycopy(sorted, at + 1, shrunk, at, sorted.length - at - 1);
+      return shrunk;
+   }//end remove
+
+   // the number of values in both sorted arrays.
+   static int intersection (int[] a, int[] b) {
+      int n = 0;
+      for (int i = 0, j = 0; i < a.length && j < b.length; ) {
+         if (a[i] < b[j])
+            ++i;
+         else if (a[i] > b[j])
+            ++j;
+         else {
+            ++n;
+            ++i;
+            ++j;
+         }//end if
+      }//end for
+      return n;
+   }//end intersection
+}//end ConnectionRecommender
@@ -0,0 +1,362 @@
+/*
+ * Work and School Facet Index
+ * =============================
+ * Edward Martens (862256447), Cody Phu (862107077)
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Finds users by where they worked and studied without a query: an
+ * inverted index from every company, role, location, institution, major
+ * and degree in WORK_EXPR and EDUCATIONAL_DETAILS to the bitmap of users
+ * having it.
+ *
+ * A query is a list of facet:value terms, e.g.
+ *
+ *    role:"Senior Developer" company:Babbleopia major:history
+ *
+ * Values are compared without case and extra blanks.  Alternatives for
+ * one facet are written facet:a|b or as repeated terms and are ORed; the
+ * terms of different facets are ANDed.  Terms match per user, not per
+ * row: the query above also finds a user who was a Senior Developer
+ * elsewhere and worked at Babbleopia in another role.  An empty query
+ * matches every user with a work or school entry.
+ *
+ * Users are dictionary encoded to ints, so each bitmap holds one bit per
+ * user.  All public methods are synchronized.
+ */
+public class FacetIndex {
+
+   public enum Facet {
+      COMPANY, ROLE, LOCATION, SCHOOL, MAJOR, DEGREE;
+
+      /** The name used in queries, e.g. company. */
+      public String label () {
+         return name().toLowerCase();
+      }
+   }//end Facet
+
+   static final String[] COUNT_COLUMNS = { "facet", "value", "users" };
+
+   static final String WORK_QUERY =
+      "SELECT U.userId, W.company, W.role, W.location FROM WORK_EXPR W JOIN USR U ON U.userKey = W.userKey";
+   static final String SCHOOL_QUERY =
+      "SELECT U.userId, E.instituitionName, E.major, E.degree FROM EDUCATIONAL_DETAILS E " +
+      "JOIN USR U ON U.userKey = E.userKey";
+
+   /**
+    * What find() answers for one query.
+    */
+   public static final class Found {
+      // the number of users matching.
+      public final int total;
+      // the first of them in userId order.
+      public final List<String> users;
+      // rows of facet, value and users, as facetCounts() returns them.
+      public final List<List<String>> counts;
+
+      Found (int total, List<String> users, List<List<String>> counts) {
+         this.total = total;
+         this.users = users;
+         this.counts = counts;
+      }
+   }//end Found
+
+   /**
+    * One value of one facet and the users having it.
+    */
+   private static final class Value {
+      final int id;
+      final Facet facet;
+      final String display;
+      final BitSet users = new BitSet();
+
+      Value (int id, Facet facet, String display) {
+         this.id = id;
+         this.facet = facet;
+         this.display = display;
+      }
+   }//end Value
+
+   private final UserDictionary _users = new UserDictionary();
+   private final EnumMap<Facet, HashMap<String, Value>> _byFacet =
+      new EnumMap<Facet, HashMap<String, Value>>(Facet.class);
+   private final List<Value> _values = new ArrayList<Value>();
+   // users with at least one value.
+   private final BitSet _all = new BitSet();
+   // the value ids of each user, for the facet counts.
+   private int[][] _userValues = new int[0][];
+   private int[] _userValueCount = new int[0];
+
+   public FacetIndex () {
+      for (Facet facet : Facet.values())
+         this._byFacet.put(facet, new HashMap<String, Value>());
+   }//end FacetIndex
+
+   /**
+    * Reads every WORK_EXPR and EDUCATIONAL_DETAILS row into a new index.
+    *
+    * @param esql the database to read from
+    * @return the loaded index
+    * @throws java.sql.SQLException when failed to execute the queries
+    */
+   public static FacetIndex load (ProfNetwork esql) throws SQLException {
+      final FacetIndex index = new FacetIndex();
+      esql.executeQueryStreaming(WORK_QUERY, ProfNetwork.STREAM_BATCH_SIZE, new RowHandler() {
+         public void start (String[] columns) {
+         }
+         public boolean handleRow (String[] row) {
+            index.addWork(row[0], row[1], row[2], row[3]);
+            return true;
+         }
+      });
+      esql.executeQueryStreaming(SCHOOL_QUERY, ProfNetwork.STREAM_BATCH_SIZE, new RowHandler() {
+         public void start (String[] columns) {
+         }
+         public boolean handleRow (String[] row) {
+            index.addSchool(row[0], row[1], row[2], row[3]);
+            return true;
+         }
+      });
+      return index;
+   }//end load
+
+   /**
+    * Indexes a WORK_EXPR row; null values are skipped.
+    */
+   public synchronized void addWork (String userId, String company, String role, String location) {
+      int u = this._users.intern(userId);
+      add(u, Facet.COMPANY, company);
+      add(u, Facet.ROLE, role);
+      add(u, Facet.LOCATION, location);
+   }//end addWork
+
+   /**
+    * Indexes an EDUCATIONAL_DETAILS row; null values are skipped.
+    */
+   public synchronized void addSchool (String userId, String school, String major, String degree) {
+      int u = this._users.intern(userId);
+      add(u, Facet.SCHOOL, school);
+      add(u, Facet.MAJOR, major);
+      add(u, Facet.DEGREE, degree);
+   }//end addSchool
+
+   /**
+    * Answers count(), search() and facetCounts() together, parsing the
+    * query and selecting its users once.
+    *
+    * @param query the facet:value terms
+    * @param limit the most userIds returned
+    * @param perFacet the most values returned per facet
+    * @throws IllegalArgumentException when the query names no facet
+    */
+   public synchronized Found find (String query, int limit, int perFacet) {
+      BitSet match = select(query);
+      return new Found(match.cardinality(), first(match, limit), counts(match, perFacet));
+   }//end find
+
+   /**
+    * Returns the number of users matching a query.
+    *
+    * @throws IllegalArgumentException when the query names no facet
+    */
+   public synchronized int count (String query) {
+      return select(query).cardinality();
+   }//end count
+
+   /**
+    * Returns the userIds matching a query, in userId order.
+    *
+    * @param query the facet:value terms
+    * @param limit the most userIds returned
+    * @throws IllegalArgumentException when the query names no facet
+    */
+   public synchronized List<String> search (String query, int limit) {
+      return first(select(query), limit);
+   }//end search
+
+   /**
+    * Returns, for each facet, its most common values among the users
+    * matching a query, with their number of users.
+    *
+    * @param query the facet:value terms
+    * @param perFacet the most values returned per facet
+    * @return rows of facet, value and users, facet by facet, most users first
+    * @throws IllegalArgumentException when the query names no facet
+    */
+   public synchronized List<List<String>> facetCounts (String query, int perFacet) {
+      return counts(select(query), perFacet);
+   }//end facetCounts
+
+   /**
+    * Returns the number of users indexed.
+    */
+   public synchronized int size () {
+      return this._all.cardinality();
+   }//end size
+
+   // the first limit userIds of the users matched, in userId order.  Keeps
+   // only the limit smallest in a heap, instead of sorting every match.
+   private List<String> first (BitSet match, int limit) {
+      if (limit <= 0)
+         return new ArrayList<String>();
+      PriorityQueue<String> smallest = new PriorityQueue<String>(limit, Collections.reverseOrder());
+      for (int u = match.nextSetBit(0); u >= 0; u = match.nextSetBit(u + 1)) {
+         String id = this._users.userId(u);
+         if (smallest.size() < limit)
+            smallest.add(id);
+         else if (id.compareTo(smallest.peek()) < 0) {
+            smallest.poll();
+            smallest.add(id);
+         }//end if
+      }//end for
+      List<String> ids = new ArrayList<String>(smallest);
+      Collections.sort(ids);
+      return ids;
+   }//end first
+
+   // the most common values of each facet among the users matched.
+   private List<List<String>> counts (BitSet match, int perFacet) {
+      final int[] counts = new int[this._values.size()];
+      for (int u = match.nextSetBit(0); u >= 0; u = match.nextSetBit(u + 1))
+         for (int i = 0; i < this._userValueCount[u]; ++i)
+            ++counts[this._userValues[u][i]];
+
+      List<List<String>> rows = new ArrayList<List<String>>();
+      for (Facet facet : Facet.values()) {
+         List<Value> values = new ArrayList<Value>();
+         for (Value v : this._byFacet.get(facet).values())
+            if (counts[v.id] > 0)
+               values.add(v);
+         Collections.sort(values, new Comparator<Value>() {
+            public int compare (Value a, Value b) {
+               return counts[a.id] != counts[b.id] ? counts[b.id] - counts[a.id] : a.display.compareTo(b.display);
+            }
+         });
+         for (int i = 0; i < values.size() && i < perFacet; ++i) {
+            Value v = values.get(i);
+            rows.add(Arrays.asList(facet.label(), v.display, String.valueOf(counts[v.id])));
+         }//end for
+      }//end for
+      return rows;
+   }//end counts
+
+   private void add (int u, Facet facet, String value) {
+      if (value == null)
+         return;
+      String key = normalize(value);
+      if (key.length() == 0)
+         return;
+      HashMap<String, Value> values = this._byFacet.get(facet);
+      Value v = values.get(key);
+      if (v == null) {
+         v = new Value(this._values.size(), facet, value.trim());
+         values.put(key, v);
+         this._values.add(v);
+      }//end if
+      if (v.users.get(u))
+         return;
+      v.users.set(u);
+      this._all.set(u);
+
+      if (u >= this._userValues.length) {
+         int capacity = Math.max(u + 1, 2 * this._userValues.length);
+         this._userValues = Arrays.copyOf(this._userValues, capacity);
+         this._userValueCount = Arrays.copyOf(this._userValueCount, capacity);
+      }//end if
+      int[] list = this._userValues[u];
+      if (list == null)
+         list = this._userValues[u] = new int[4];
+      else if (this._userValueCount[u] == list.length)
+         list = this._userValues[u] = Arrays.copyOf(list, 2 * list.length);
+      list[this._userValueCount[u]++] = v.id;
+   }//end add
+
+   // the users matching every facet of the query, any of its values each.
+   private BitSet select (String query) {
+      EnumMap<Facet, BitSet> any = new EnumMap<Facet, BitSet>(Facet.class);
+      for (String[] term : parse(query)) {
+         Facet facet = facet(term[0]);
+         BitSet users = any.get(facet);
+         if (users == null) {
+            users = new BitSet();
+            any.put(facet, users);
+         }//end if
+         for (String alternative : term[1].split("\\|")) {
+            Value v = this._byFacet.get(facet).get(normalize(alternative));
+            if (v != null)
+               users.or(v.users);
+         }//end for
+      }//end for
+      BitSet match = (BitSet) this._all.clone();
+      for (BitSet users : any.values())
+         match.and(users);
+      return match;
+   }//end select
+
+   private static Facet facet (String label) {
+      for (Facet facet : Facet.values())
+         if (facet.label().equals(label.toLowerCase()))
+            return facet;
+      StringBuilder known = new StringBuilder();
+      for (Facet facet : Facet.values())
+         known.append(known.length() == 0 ? "" : ", ").append(facet.label());
+      throw new IllegalArgumentException("unknown facet " + label + "; use one of " + known);
+   }//end facet
+
+   /**
+    * Splits a query into { facet, value } terms; a value with blanks is
+    * written in double quotes.
+    */
+   static List<String[]> parse (String query) {
+      List<String[]> terms = new ArrayList<String[]>();
+      int n = query.length();
+      int i = 0;
+      while (i < n) {
+         if (Character.isWhitespace(query.charAt(i))) {
+            ++i;
+            continue;
+         }//end if
+         int colon = query.indexOf(':', i);
+         if (colon < 0)
+            throw new IllegalArgumentException("expected facet:value at \"" + query.substring(i) + "\"");
+         String facet = query.substring(i, colon).trim();
+         StringBuilder value = new StringBuilder();
+         i = colon + 1;
+         boolean quoted = false;
+         while (i < n && (quoted || !Character.isWhitespace(query.charAt(i)))) {
+            char ch = query.charAt(i++);
+            if (ch == '"')
+               quoted = !quoted;
+            else
+               value.append(ch);
+         }//end while
+         if (quoted)
+            throw new IllegalArgumentException("unterminated quote");
+         terms.add(new String[] { facet, value.toString() });
+      }//end while
+      return terms;
+   }//end parse
+
+   // lower case with runs of blanks collapsed, for comparing values.
+   static String normalize (String value) {
+      return value.trim().replaceAll("\\s+", " ").toLowerCase();
+   }//end normalize
+}//end FacetIndex
@@ -0,0 +1,610 @@
+/*
+ * Connection Graph Snapshot
+ * =============================
+ * Edward Martens (862256447), Cody Phu (862107077)
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A copy of USR's userIds and of every CONNECTION_USR row kept in a file,
+ * so a new process builds its SocialGraph and UserFilter without reading
+ * both tables in full.
+ *
+ * The file holds the userIds in userKey order, which is the order of
+ * their codes, and the rows in CSR form: the rows sent by user u are
+ * _targets[_offsets[u] .. _offsets[u+1]), sorted by target, with the
+ * status of each in _status.  Loading it is a fast deserialization, not
+ * a shared view: the file is read through a memory map only to bulk copy
+ * it into heap arrays, the userIds are interned again, and toGraph() and
+ * userFilter() build their own structures from those.  Each process thus
+ * holds its own copy; what it saves is the table scans and the network,
+ * not memory.
+ *
+ * After loading, the copy is caught up with the database: the users whose
+ * userKey is above the largest one in the file and the rows whose
+ * changedAt is not older than the time the file was taken.  Rows changed
+ * since go into an overlay that is folded into the CSR arrays when the
+ * file is written again.
+ *
+ * The reading of the tables starts a little before the time recorded,
+ * SLACK_SECONDS and KEY_SLACK, so a transaction that stamped a row before
+ * that time but committed after it is still caught up.
+ *
+ * The catch up only adds and changes; it cannot see deleted users or rows,
+ * and the file may be of earlier contents of the database altogether, e.g.
+ * from before create_db.sh, bulk_load.sh or migrate_user_keys.sql.  The
+ * header's user count, row count and largest userKey are the file's
+ * fingerprint: once caught up they must equal the count of USR rows, the
+ * count of CONNECTION_USR rows and max(userKey), or the file is dropped
+ * and the tables are read in full.
+ *
+ * A new file is written to a temporary file and renamed over the old one,
+ * so a process loading the old file at that moment still reads a whole
+ * one.  Configured by -Dprofnetwork.graphSnapshot, the file, empty
+ * to read the tables every time, and -Dprofnetwork.snapshotMinutes.
+ *
+ * All public methods are synchronized.
+ */
+public class GraphSnapshot implements Runnable {
+
+   // minutes between writes of the file by a running process.
+   public static final int DEFAULT_MINUTES = 10;
+
+   // how far the catch up reads behind the time and userKey recorded.
+   public static final int SLACK_SECONDS = 60;
+   public static final int KEY_SLACK = 1024;
+
+   // "PNGS", then the layout version.
+   private static final int MAGIC = 0x504E4753;
+   private static final int VERSION = 1;
+
+   private static final Charset UTF8 = Charset.forName("UTF-8");
+
+   // the status of a row, as kept in _status.
+   static final byte OTHER = 0;
+   static final byte ACCEPT = 1;
+   static final byte REQUEST = 2;
+   static final byte REJECT = 3;
+
+   static final String NOW_QUERY = "SELECT localtimestamp";
+   static final String USERS_QUERY =
+      "SELECT userId, userKey FROM USR WHERE userKey > ? ORDER BY userKey";
+   static final String ROWS_QUERY =
+      "SELECT A.userId, B.userId, C.status FROM CONNECTION_USR C " +
+      "JOIN USR A ON A.userKey = C.userKey JOIN USR B ON B.userKey = C.connectionKey";
+   static final String CHANGED_ROWS_QUERY = ROWS_QUERY + " WHERE C.changedAt >= ?";
+   static final String FINGERPRINT_QUERY =
+      "SELECT (SELECT count(*) FROM USR), (SELECT count(*) FROM CONNECTION_USR), " +
+      "(SELECT coalesce(max(userKey), 0) FROM USR)";
+
+   private final ProfNetwork _esql;
+   private final File _file;
+   private ScheduledExecutorService _scheduler = null;
+
+   private UserDictionary _users = new UserDictionary();
+   private int _maxUserKey = 0;
+   // database time the tables were last read at.
+   private Timestamp _takenAt = null;
+
+   // CSR rows for users 0.._offsets.length-2.
+   private int[] _offsets = new int[1];
+   private int[] _targets = new int[0];
+   private byte[] _status = new byte[0];
+
+   // status of rows changed since the arrays were built, by edgeKey(u, v).
+   private final HashMap<Long, Byte> _changed = new HashMap<Long, Byte>();
+
+   // true when the file is behind what is held here.
+   private boolean _dirty = false;
+
+   private GraphSnapshot (ProfNetwork esql, File file) {
+      this._esql = esql;
+      this._file = file;
+   }//end GraphSnapshot
+
+   /**
+    * Returns the file named by -Dprofnetwork.graphSnapshot, by default one
+    * per database in the temporary directory, or null when snapshots are
+    * turned off.
+    */
+   public static File configuredFile (String dbname) {
+      String name = System.getProperty("profnetwork.graphSnapshot");
+      if (name == null)
+         return new File(System.getProperty("java.io.tmpdir"), "profnetwork-" + dbname + ".graph");
+      return name.trim().length() == 0 ? null : new File(name.trim());
+   }//end configuredFile
+
+   /**
+    * Loads the file and catches it up with the database.  A missing or
+    * unreadable file, or one that does not match the database once caught
+    * up, is replaced by a full read of the tables.
+    *
+    * @param esql the database the snapshot is of
+    * @param file where the snapshot is kept
+    * @return the caught up snapshot
+    * @throws java.sql.SQLException when failed to execute the queries
+    */
+   public static GraphSnapshot open (ProfNetwork esql, File file) throws SQLException {
+      GraphSnapshot snapshot = new GraphSnapshot(esql, file);
+      synchronized (snapshot) {
+         boolean loaded = snapshot.map();
+         if (!loaded)
+            snapshot.readAll();
+         snapshot.catchUp();
+         if (loaded && !snapshot.matchesDatabase()) {
+            System.err.println("Ignoring " + file + ": it does not match the database");
+            snapshot.readAll();
+         }//end if
+      }
+      return snapshot;
+   }//end open
+
+   /**
+    * Returns the file the snapshot is kept in.
+    */
+   public File file () {
+      return this._file;
+   }//end file
+
+   /**
+    * Returns the number of users held.
+    */
+   public synchronized int userCount () {
+      return this._users.size();
+   }//end userCount
+
+   /**
+    * Returns the number of CONNECTION_USR rows held.
+    */
+   public synchronized int rowCount () {
+      compact();
+      return this._targets.length;
+   }//end rowCount
+
+   /**
+    * Builds the graph of the accepted rows.  The graph gets its own copy
+    * of the dictionary, with the same codes.
+    */
+   public synchronized SocialGraph toGraph () {
+      compact();
+      UserDictionary users = new UserDictionary();
+      for (int u = 0; u < this._users.size(); ++u)
+         users.intern(this._users.userId(u));
+      int accepted = 0;
+      for (int i = 0; i < this._status.length; ++i)
+         if (this._status[i] == ACCEPT)
+            ++accepted;
+      int[] src = new int[accepted];
+      int[] dst = new int[accepted];
+      int m = 0;
+      for (int u = 0; u + 1 < this._offsets.length; ++u)
+         for (int i = this._offsets[u]; i < this._offsets[u + 1]; ++i)
+            if (this._status[i] == ACCEPT) {
+               src[m] = u;
+               dst[m++] = this._targets[i];
+            }//end if
+      return new SocialGraph(users, src, dst, m);
+   }//end toGraph
+
+   /**
+    * Builds a filter holding every userId.
+    */
+   public synchronized UserFilter userFilter () {
+      UserFilter filter = new UserFilter(2 * this._users.size());
+      for (int u = 0; u < this._users.size(); ++u)
+         filter.put(this._users.userId(u));
+      filter.caughtUpTo(this._maxUserKey);
+      return filter;
+   }//end userFilter
+
+   /**
+    * Reads the users and rows changed since the last catch up.
+    *
+    * @return the number of users and rows read
+    * @throws java.sql.SQLException when failed to execute the queries
+    */
+   public synchronized int catchUp () throws SQLException {
+      Timestamp now = now();
+      Timestamp since = new Timestamp(this._takenAt.getTime() - TimeUnit.SECONDS.toMillis(SLACK_SECONDS));
+      int read = readUsers(Math.max(0, this._maxUserKey - KEY_SLACK));
+      for (List<String> row : this._esql.executeQueryAndReturnResult(CHANGED_ROWS_QUERY, since)) {
+         int u = this._users.intern(row.get(0));
+         int v = this._users.intern(row.get(1));
+         byte status = status(row.get(2));
+         if (status(u, v) != status) {
+            this._changed.put(Long.valueOf(edgeKey(u, v)), Byte.valueOf(status));
+            this._dirty = true;
+         }//end if
+         ++read;
+      }//end for
+      this._takenAt = now;
+      return read;
+   }//end catchUp
+
+   /**
+    * Writes the snapshot to its file, replacing the old one.
+    *
+    * @throws java.io.IOException when failed to write or rename the file
+    */
+   public synchronized void write () throws IOException {
+      compact();
+      ByteArrayOutputStream names = new ByteArrayOutputStream();
+      int[] ends = new int[this._users.size()];
+      for (int u = 0; u < ends.length; ++u) {
+         byte[] name = this._users.userId(u).getBytes(UTF8);
+         names.write(name, 0, name.length);
+         ends[u] = names.size();
+      }//end for
+
+      File dir = this._file.getAbsoluteFile().getParentFile();
+      File tmp = File.createTempFile(this._file.getName(), ".tmp", dir);
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16));
+      try {
+         out.writeInt(MAGIC);
+         out.writeInt(VERSION);
+         out.writeLong(this._takenAt.getTime());
+         out.writeInt(this._takenAt.getNanos());
+         out.writeInt(this._maxUserKey);
+         out.writeInt(ends.length);
+         out.writeInt(this._targets.length);
+         out.writeInt(names.size());
+         for (int end : ends)
+            out.writeInt(end);
+         names.writeTo(out);
+         for (int pad = names.size(); pad % 4 != 0; ++pad)
+            out.writeByte(0);
+         for (int offset : this._offsets)
+            out.writeInt(offset);
+         for (int target : this._targets)
+            out.writeInt(target);
+         out.write(this._status);
+      } finally {
+         out.close();
+      }
+      if (!tmp.renameTo(this._file)) {
+         // renaming over an existing file fails on some platforms.
+         this._file.delete();
+         if (!tmp.renameTo(this._file)) {
+            tmp.delete();
+            throw new IOException("cannot replace " + this._file);
+         }//end if
+      }//end if
+      this._dirty = false;
+   }//end write
+
+   /**
+    * Catches up and writes the file if anything changed, for the
+    * scheduler and for ProfNetwork.cleanup().
+    */
+   public void run () {
+      try {
+         synchronized (this) {
+            catchUp();
+            if (this._dirty)
+               write();
+         }
+      }catch (SQLException e){
+         System.err.println("Graph snapshot catch up failed: " + e.getMessage());
+      }catch (IOException e){
+         System.err.println("Graph snapshot not written: " + e.getMessage());
+      }//end try
+   }//end run
+
+   /**
+    * Runs a catch up and write every given number of minutes on a daemon
+    * thread.
+    */
+   public synchronized void start (int minutes) {
+      if (this._scheduler != null)
+         return;
+      this._scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+         public Thread newThread (Runnable r) {
+            Thread t = new Thread(r, "graph-snapshot");
+            t.setDaemon(true);
+            return t;
+         }
+      });
+      this._scheduler.scheduleWithFixedDelay(this, minutes, minutes, TimeUnit.MINUTES);
+   }//end start
+
+   /**
+    * Stops the scheduled writes; a write under way finishes.
+    */
+   public synchronized void shutdown () {
+      if (this._scheduler != null) {
+         this._scheduler.shutdown();
+         this._scheduler = null;
+      }//end if
+   }//end shutdown
+
+   // copies the file into the arrays; false when it is missing or unusable.
+   private boolean map () {
+      if (!this._file.isFile())
+         return false;
+      try {
+         MappedByteBuffer buf;
+         RandomAccessFile raf = new RandomAccessFile(this._file, "r");
+         try {
+            FileChannel channel = raf.getChannel();
+            buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+         } finally {
+            raf.close();
+         }
+         if (buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+            System.err.println("Ignoring " + this._file + ": not a graph snapshot of this version");
+            return false;
+         }//end if
+         Timestamp takenAt = new Timestamp(buf.getLong());
+         takenAt.setNanos(buf.getInt());
+         int maxUserKey = buf.getInt();
+         int users = buf.getInt();
+         int rows = buf.getInt();
+         int nameBytes = buf.getInt();
+         if (users < 0 || rows < 0 || nameBytes < 0 ||
+               4L * users + nameBytes + 3 + 4L * (users + 1) + 5L * rows > buf.remaining()) {
+            System.err.println("Ignoring " + this._file + ": bad header");
+            return false;
+         }//end if
+
+         int[] ends = ints(buf, users);
+         byte[] names = new byte[nameBytes];
+         buf.get(names);
+         buf.position((buf.position() + 3) & ~3);
+         int[] offsets = ints(buf, users + 1);
+         int[] targets = ints(buf, rows);
+         byte[] status = new byte[rows];
+         buf.get(status);
+         if (!consistent(ends, nameBytes, offsets, targets)) {
+            System.err.println("Ignoring " + this._file + ": inconsistent contents");
+            return false;
+         }//end if
+
+         for (int u = 0, start = 0; u < users; start = ends[u++])
+            this._users.intern(new String(names, start, ends[u] - start, UTF8));
+         this._takenAt = takenAt;
+         this._maxUserKey = maxUserKey;
+         this._offsets = offsets;
+         this._targets = targets;
+         this._status = status;
+         return true;
+      }catch (IOException e){
+         System.err.println("Ignoring " + this._file + ": " + e.getMessage());
+      }catch (BufferUnderflowException e){
+         System.err.println("Ignoring " + this._file + ": truncated");
+      }catch (RuntimeException e){
+         System.err.println("Ignoring " + this._file + ": " + e);
+      }//end try
+      this._users = new UserDictionary();
+      return false;
+   }//end map
+
+   // true when the name ends and the CSR arrays describe a valid layout.
+   private static boolean consistent (int[] ends, int nameBytes, int[] offsets, int[] targets) {
+      for (int u = 0, start = 0; u < ends.length; start = ends[u++])
+         if (ends[u] < start || ends[u] > nameBytes)
+            return false;
+      if (offsets[0] != 0 || offsets[offsets.length - 1] != targets.length)
+         return false;
+      for (int u = 0; u + 1 < offsets.length; ++u) {
+         if (offsets[u] > offsets[u + 1])
+            return false;
+         for (int i = offsets[u]; i < offsets[u + 1]; ++i)
+            if (targets[i] < 0 || targets[i] >= ends.length || (i > offsets[u] && targets[i] <= targets[i - 1]))
+               return false;
+      }//end for
+      return true;
+   }//end consistent
+
+   // true when the users and rows held agree with the database's counts.
+   private boolean matchesDatabase () throws SQLException {
+      compact();
+      List<String> counts = this._esql.executeQueryAndReturnResult(FINGERPRINT_QUERY).get(0);
+      return Long.parseLong(counts.get(0).trim()) == this._users.size() &&
+         Long.parseLong(counts.get(1).trim()) == this._targets.length &&
+         Integer.parseInt(counts.get(2).trim()) == this._maxUserKey;
+   }//end matchesDatabase
+
+   // reads count ints at the buffer's position and moves past them.
+   private static int[] ints (MappedByteBuffer buf, int count) {
+      int[] values = new int[count];
+      buf.asIntBuffer().get(values);
+      buf.position(buf.position() + 4 * count);
+      return values;
+   }//end ints
+
+   // replaces whatever is held with the full contents of USR and CONNECTION_USR.
+   private void readAll () throws SQLException {
+      this._takenAt = now();
+      this._users = new UserDictionary();
+      this._maxUserKey = 0;
+      readUsers(0);
+      final int[][] rows = { new int[1024], new int[1024] };
+      final byte[][] status = { new byte[1024] };
+      final int[] count = { 0 };
+      this._esql.executeQueryStreaming(ROWS_QUERY, ProfNetwork.STREAM_BATCH_SIZE, new RowHandler() {
+         public void start (String[] columns) {
+         }
+         public boolean handleRow (String[] row) {
+            if (count[0] == rows[0].length) {
+               rows[0] = Arrays.copyOf(rows[0], 2 * count[0]);
+               rows[1] = Arrays.copyOf(rows[1], 2 * count[0]);
+               status[0] = Arrays.copyOf(status[0], 2 * count[0]);
+            }//end if
+            rows[0][count[0]] = GraphSnapshot.this._users.intern(row[0]);
+            rows[1][count[0]] = GraphSnapshot.this._users.intern(row[1]);
+            status[0][count[0]] = status(row[2]);
+            ++count[0];
+            return true;
+         }
+      });
+      build(rows[0], rows[1], status[0], count[0]);
+      this._changed.clear();
+      this._dirty = true;
+   }//end readAll
+
+   // interns the users above a userKey, in userKey order.
+   private int readUsers (int afterKey) throws SQLException {
+      final int before = this._users.size();
+      this._esql.executeQueryStreaming(USERS_QUERY, ProfNetwork.STREAM_BATCH_SIZE, new RowHandler() {
+         public void start (String[] columns) {
+         }
+         public boolean handleRow (String[] row) {
+            GraphSnapshot.this._users.intern(row[0]);
+            GraphSnapshot.this._maxUserKey =
+               Math.max(GraphSnapshot.this._maxUserKey, Integer.parseInt(row[1].trim()));
+            return true;
+         }
+      }, Integer.valueOf(afterKey));
+      if (this._users.size() > before)
+         this._dirty = true;
+      return this._users.size() - before;
+   }//end readUsers
+
+   private Timestamp now () throws SQLException {
+      return Timestamp.valueOf(this._esql.executeQueryAndReturnResult(NOW_QUERY).get(0).get(0).trim());
+   }//end now
+
+   // the status of row (u, v), looking at the overlay first.
+   private byte status (int u, int v) {
+      Byte changed = this._changed.get(Long.valueOf(edgeKey(u, v)));
+      if (changed != null)
+         return changed.byteValue();
+      if (u + 1 >= this._offsets.length)
+         return OTHER;
+      int i = Arrays.binarySearch(this._targets, this._offsets[u], this._offsets[u + 1], v);
+      return i < 0 ? OTHER : this._status[i];
+   }//end status
+
+   // folds the overlay into the CSR arrays.
+   private void compact () {
+      if (this._changed.isEmpty() && this._offsets.length == this._users.size() + 1)
+         return;
+      int m = this._targets.length + this._changed.size();
+      int[] src = new int[m];
+      int[] dst = new int[m];
+      byte[] status = new byte[m];
+      int n = 0;
+      for (int u = 0; u + 1 < this._offsets.length; ++u)
+         for (int i = this._offsets[u]; i < this._offsets[u + 1]; ++i)
+            if (!this._changed.containsKey(Long.valueOf(edgeKey(u, this._targets[i])))) {
+               src[n] = u;
+               dst[n] = this._targets[i];
+               status[n++] = this._status[i];
+            }//end if
+      for (Map.Entry<Long, Byte> e : this._changed.entrySet()) {
+         long key = e.getKey().longValue();
+         src[n] = (int) (key >>> 32);
+         dst[n] = (int) key;
+         status[n++] = e.getValue().byteValue();
+      }//end for
+      build(src, dst, status, n);
+      this._changed.clear();
+   }//end compact
+
+   // CSR arrays from a row list with no repeated (src, dst) pair.
+   private void build (int[] src, int[] dst, byte[] status, int m) {
+      int users = this._users.size();
+      int[] offsets = new int[users + 1];
+      for (int i = 0; i < m; ++i)
+         ++offsets[src[i] + 1];
+      for (int u = 0; u < users; ++u)
+         offsets[u + 1] += offsets[u];
+      // target and status packed into one long, so a row sorts in one go.
+      long[] packed = new long[m];
+      int[] next = Arrays.copyOf(offsets, users);
+      for (int i = 0; i < m; ++i)
+         packed[next[src[i]]++] = ((long) dst[i] << 8) | (status[i] & 0xff);
+      int[] targets = new int[m];
+      byte[] bytes = new byte[m];
+      for (int u = 0; u < users; ++u) {
+         Arrays.sort(packed, offsets[u], offsets[u + 1]);
+         for (int i = offsets[u]; i < offsets[u + 1]; ++i) {
+            targets[i] = (int) (packed[i] >>> 8);
+            bytes[i] = (byte) packed[i];
+         }//end for
+      }//end for
+      this._offsets = offsets;
+      this._targets = targets;
+      this._status = bytes;
+   }//end build
+
+   static byte status (String name) {
+      String s = name.trim();
+      if (s.equals("Accept"))
+         return ACCEPT;
+      if (s.equals("Request"))
+         return REQUEST;
+      if (s.equals("Reject"))
+         return REJECT;
+      return OTHER;
+   }//end status
+
+   private static long edgeKey (int u, int v) {
+      return ((long) u << 32) | (v & 0xffffffffL);
+   }//end edgeKey
+
+   /**
+    * Writes the snapshot of a database, e.g. from cron before the first
+    * sessions of the day.
+    *
+    * @param args dbname, port and user
+    */
+   public static void main (String[] args) {
+      if (args.length != 3) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            GraphSnapshot.class.getName () +
+            " <dbname> <port> <user>");
+         return;
+      }//end if
+
+      File file = configuredFile(args[0]);
+      if (file == null) {
+         System.err.println("Graph snapshots are turned off by -Dprofnetwork.graphSnapshot");
+         return;
+      }//end if
+      ProfNetwork esql = null;
+      try{
+         Class.forName ("org.postgresql.Driver");
+         esql = new ProfNetwork (args[0], args[1], args[2], "");
+         GraphSnapshot snapshot = open(esql, file);
+         snapshot.write();
+         System.out.println("Wrote " + snapshot.userCount() + " users and " +
+            snapshot.rowCount() + " connections to " + file);
+      }catch(Exception e) {
+         System.err.println (e.getMessage ());
+      }finally{
+         if (esql != null)
+            esql.cleanup ();
+      }//end try
+   }//end main
+}//end GraphSnapshot
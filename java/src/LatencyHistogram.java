@@ -0,0 +1,117 @@
+/*
+ * Latency Histogram
+ * =============================
+ * Edward Martens (862256447), Cody Phu (862107077)
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+/**
+ * A histogram of latencies in microseconds with a bounded relative error,
+ * in the manner of HdrHistogram.
+ *
+ * Values below 2 * SUB_BUCKETS are counted exactly.  Above that every
+ * power of two is split into SUB_BUCKETS equal buckets, so a recorded
+ * value is off by less than 1 / SUB_BUCKETS (under 1.6%) whatever its
+ * size, and the whole range of a long fits in a few thousand counters.
+ * Recording is a shift and an increment, with no allocation.
+ *
+ * Not thread safe: give every thread its own histogram and add() them
+ * together at the end.
+ */
+public class LatencyHistogram {
+
+   // buckets per power of two; a power of two itself.
+   private static final int SUB_BUCKET_BITS = 6;
+   private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+   private final long[] _counts = new long[(64 - SUB_BUCKET_BITS) * SUB_BUCKETS + 2 * SUB_BUCKETS];
+   private long _total = 0;
+   private long _min = Long.MAX_VALUE;
+   private long _max = 0;
+   private long _sum = 0;
+
+   /**
+    * Counts one latency.
+    *
+    * @param micros the latency in microseconds; negative values count as 0
+    */
+   public void record (long micros) {
+      long value = Math.max(0, micros);
+      ++this._counts[index(value)];
+      ++this._total;
+      this._sum += value;
+      this._min = Math.min(this._min, value);
+      this._max = Math.max(this._max, value);
+   }//end record
+
+   /**
+    * Adds the counts of other to this histogram.
+    */
+   public void add (LatencyHistogram other) {
+      for (int i = 0; i < this._counts.length; ++i)
+         this._counts[i] += other._counts[i];
+      this._total += other._total;
+      this._sum += other._sum;
+      this._min = Math.min(this._min, other._min);
+      this._max = Math.max(this._max, other._max);
+   }//end add
+
+   public long count () {
+      return this._total;
+   }//end count
+
+   public long max () {
+      return this._max;
+   }//end max
+
+   public long min () {
+      return this._total == 0 ? 0 : this._min;
+   }//end min
+
+   public double mean () {
+      return this._total == 0 ? 0 : (double) this._sum / this._total;
+   }//end mean
+
+   /**
+    * Returns the latency below or at which the given fraction of the
+    * recorded values fall, e.g. 0.99 for p99.
+    *
+    * @param fraction between 0 and 1
+    * @return the upper end of the bucket holding that value, at most max()
+    */
+   public long percentile (double fraction) {
+      if (this._total == 0)
+         return 0;
+      long rank = Math.max(1, (long) Math.ceil(fraction * this._total));
+      long seen = 0;
+      for (int i = 0; i < this._counts.length; ++i) {
+         seen += this._counts[i];
+         if (seen >= rank)
+            return Math.min(highest(i), this._max);
+      }//end for
+      return this._max;
+   }//end percentile
+
+   // bucket of a value: exact below 2 * SUB_BUCKETS, then SUB_BUCKETS per octave.
+   private static int index (long value) {
+      if (value < 2 * SUB_BUCKETS)
+         return (int) value;
+      int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+      return shift * SUB_BUCKETS + (int) (value >>> shift);
+   }//end index
+
+   // largest value counted in bucket i.
+   private static long highest (int i) {
+      if (i < 2 * SUB_BUCKETS)
+         return i;
+      int shift = i / SUB_BUCKETS - 1;
+      long sub = i - shift * SUB_BUCKETS;
+      return ((sub + 1) << shift) - 1;
+   }//end highest
+}//end LatencyHistogram
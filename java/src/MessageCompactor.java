@@ -0,0 +1,244 @@
+/*
+ * Message Compactor
+ * =============================
+ * Edward Martens (862256447), Cody Phu (862107077)
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps MESSAGE down to the messages a mailbox still shows first.
+ *
+ * MESSAGE holds the hot messages and MESSAGE_ARCHIVE the cold ones, split
+ * on sendTime: a pass moves every message sent before the hot window, and
+ * every message deleted by both sides whatever its age, into the archive.
+ * ViewMessages and the delete path read MESSAGE and go to the archive only
+ * for a user who pages past the hot messages, so their cost follows the
+ * size of the hot window instead of all the mail ever sent.  The archive is
+ * a plain second table, not a partition: a manual two-way split, kept that
+ * way for simplicity.
+ *
+ * A pass works in transactions of at most the batch size: the messages are
+ * locked, copied and deleted, so a message being deleted by a user at the
+ * same time is either moved with its new deleteStatus or not at all.  The
+ * batches go oldest first, by (sendTime, msgId), so a pass that stops
+ * partway still leaves nothing in MESSAGE older than an archived message,
+ * which is what fetchMessagePage relies on.
+ * Configured by -Dprofnetwork.messageHotDays and -Dprofnetwork.compactBatch.
+ */
+public class MessageCompactor implements Runnable {
+
+   // days a message stays in MESSAGE.
+   public static final int DEFAULT_HOT_DAYS = 90;
+
+   // most messages moved in one transaction.
+   public static final int DEFAULT_BATCH_SIZE = 500;
+
+   static final String ARCHIVE_TABLE = "MESSAGE_ARCHIVE";
+
+   private static final String COLUMNS = "msgId, senderKey, receiverKey, contents, sendTime, deleteStatus, status";
+
+   static final String COLD_MESSAGES_QUERY =
+      "SELECT msgId FROM MESSAGE WHERE deleteStatus = 3 OR sendTime < ? ORDER BY sendTime, msgId LIMIT ? FOR UPDATE";
+
+   private final ProfNetwork _esql;
+   private final long _hotMillis;
+   private final int _batchSize;
+   private ScheduledExecutorService _scheduler = null;
+
+   // messages moved since this compactor was created.
+   private long _moved = 0;
+
+   /**
+    * Creates a compactor from the system properties described above.
+    */
+   public static MessageCompactor configured (ProfNetwork esql) {
+      return new MessageCompactor(esql,
+         Integer.getInteger("profnetwork.messageHotDays", DEFAULT_HOT_DAYS),
+         Integer.getInteger("profnetwork.compactBatch", DEFAULT_BATCH_SIZE));
+   }//end configured
+
+   /**
+    * @param esql the database to compact
+    * @param hotDays days a message stays in MESSAGE
+    * @param batchSize most messages moved in one transaction
+    */
+   public MessageCompactor (ProfNetwork esql, int hotDays, int batchSize) {
+      this._esql = esql;
+      this._hotMillis = TimeUnit.DAYS.toMillis(hotDays);
+      this._batchSize = Math.max(1, batchSize);
+   }//end MessageCompactor
+
+   /**
+    * Moves every cold message into the archive.
+    *
+    * @return the number of messages moved
+    * @throws java.sql.SQLException when a transaction failed; the batches
+    *         committed before it stay moved
+    */
+   public int compact () throws SQLException {
+      Timestamp cutoff = new Timestamp(System.currentTimeMillis() - this._hotMillis);
+      int total = 0;
+      int moved;
+      do {
+         moved = moveBatch(cutoff);
+         total += moved;
+         synchronized (this) {
+            this._moved += moved;
+         }
+      } while (moved == this._batchSize);
+      return total;
+   }//end compact
+
+   /**
+    * Returns the number of messages moved by this compactor so far.
+    */
+   public synchronized long moved () {
+      return this._moved;
+   }//end moved
+
+   /**
+    * Runs one pass, for the scheduler.
+    */
+   public void run () {
+      try {
+         int moved = compact();
+         if (moved > 0)
+            System.err.println("Archived " + moved + " messages");
+      }catch (SQLException e){
+         System.err.println("Message compaction failed: " + e.getMessage());
+      }//end try
+   }//end run
+
+   /**
+    * Runs a pass every given number of minutes on a daemon thread.
+    */
+   public synchronized void start (int minutes) {
+      if (this._scheduler != null)
+         return;
+      this._scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+         public Thread newThread (Runnable r) {
+            Thread t = new Thread(r, "message-compactor");
+            t.setDaemon(true);
+            return t;
+         }
+      });
+      this._scheduler.scheduleWithFixedDelay(this, minutes, minutes, TimeUnit.MINUTES);
+   }//end start
+
+   /**
+    * Stops the scheduled passes; a pass under way finishes its batch.
+    */
+   public synchronized void shutdown () {
+      if (this._scheduler != null) {
+         this._scheduler.shutdown();
+         this._scheduler = null;
+      }//end if
+   }//end shutdown
+
+   // moves at most one batch of cold messages in one transaction.
+   private int moveBatch (Timestamp cutoff) throws SQLException {
+      QueryStats stats = this._esql.getQueryStats();
+      ConnectionPool pool = this._esql.getPool();
+      PooledConnection conn = pool.acquire();
+      Connection physical = conn.getConnection();
+      try {
+         physical.setAutoCommit(false);
+         List<Integer> ids = new ArrayList<Integer>();
+         long start = System.nanoTime();
+         PreparedStatement select = physical.prepareStatement(COLD_MESSAGES_QUERY);
+         try {
+            select.setTimestamp(1, cutoff);
+            select.setInt(2, this._batchSize);
+            ResultSet rs = select.executeQuery();
+            while (rs.next())
+               ids.add(Integer.valueOf(rs.getInt(1)));
+            rs.close();
+            stats.record(COLD_MESSAGES_QUERY, start, ids.size(), 0);
+         } catch (SQLException e) {
+            stats.error(COLD_MESSAGES_QUERY, start, e);
+            throw e;
+         } finally {
+            select.close();
+         }
+         if (!ids.isEmpty()) {
+            // the IDs are integers read back from the database, so they
+            // can go into the text as they are.
+            StringBuilder in = new StringBuilder("(");
+            for (int i = 0; i < ids.size(); ++i)
+               in.append(i == 0 ? "" : ", ").append(ids.get(i));
+            in.append(")");
+            execute(physical, stats, "INSERT INTO " + ARCHIVE_TABLE + " (" + COLUMNS + ") SELECT " + COLUMNS +
+               " FROM MESSAGE WHERE msgId IN " + in);
+            execute(physical, stats, "DELETE FROM MESSAGE WHERE msgId IN " + in);
+         }//end if
+         physical.commit();
+         return ids.size();
+      } catch (SQLException e) {
+         conn.rollbackQuietly();
+         throw e;
+      } finally {
+         conn.restoreAutoCommit(true);
+         pool.release(conn);
+      }
+   }//end moveBatch
+
+   private static void execute (Connection physical, QueryStats stats, String sql) throws SQLException {
+      long start = System.nanoTime();
+      Statement stmt = physical.createStatement();
+      try {
+         stats.record(sql, start, stmt.executeUpdate(sql), 0);
+      } catch (SQLException e) {
+         stats.error(sql, start, e);
+         throw e;
+      } finally {
+         stmt.close();
+      }
+   }//end execute
+
+   /**
+    * Runs one compaction pass and exits; for cron.
+    *
+    * @param args the command line arguments: <dbname> <port> <user>
+    */
+   public static void main (String[] args) {
+      if (args.length != 3) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            MessageCompactor.class.getName () +
+            " <dbname> <port> <user>");
+         return;
+      }//end if
+
+      ProfNetwork esql = null;
+      try{
+         Class.forName ("org.postgresql.Driver");
+         esql = new ProfNetwork (args[0], args[1], args[2], "");
+         System.out.println("Archived " + configured(esql).compact() + " messages");
+      }catch(Exception e) {
+         System.err.println (e.getMessage ());
+      }finally{
+         if (esql != null)
+            esql.cleanup ();
+      }//end try
+   }//end main
+}//end MessageCompactor
@@ -0,0 +1,82 @@
+/*
+ * Message ID Allocator
+ * =============================
+ * Edward Martens (862256447), Cody Phu (862107077)
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Hands out message IDs from a database sequence in blocks.  One round
+ * trip reserves blockSize values with nextval(); they are then given out
+ * from memory until the block is used up.  IDs stay unique across
+ * processes because every value still comes from the sequence, but the
+ * cost per message no longer depends on the size of MESSAGE.
+ *
+ * Values left in a block when the process exits are simply never used,
+ * the same way a rolled back nextval() leaves a gap.
+ *
+ */
+public class MessageIdAllocator {
+
+   // default number of IDs reserved per round trip.
+   public static final int DEFAULT_BLOCK_SIZE = 50;
+
+   private final ProfNetwork _esql;
+   private final String _sequence;
+   private final int _blockSize;
+
+   // reserved IDs; _block[_next.._end) are still free.
+   private final int[] _block;
+   private int _next = 0;
+   private int _end = 0;
+
+   /**
+    * Creates an allocator over the given sequence.  Nothing is reserved
+    * until the first call to nextId().
+    *
+    * @param esql the database the sequence lives in
+    * @param sequence name of the DB sequence
+    * @param blockSize the number of IDs reserved per round trip
+    */
+   public MessageIdAllocator (ProfNetwork esql, String sequence, int blockSize) {
+      if (blockSize < 1)
+         throw new IllegalArgumentException("block size must be at least 1");
+      this._esql = esql;
+      this._sequence = sequence;
+      this._blockSize = blockSize;
+      this._block = new int[blockSize];
+   }//end MessageIdAllocator
+
+   /**
+    * Returns an unused ID, reserving a new block when the current one is
+    * exhausted.
+    *
+    * @return the next message ID
+    * @throws java.sql.SQLException when a new block cannot be reserved
+    */
+   public synchronized int nextId () throws SQLException {
+      if (this._next == this._end)
+         refill();
+      return this._block[this._next++];
+   }//end nextId
+
+   private void refill () throws SQLException {
+      List<List<String>> ids = this._esql.executeQueryAndReturnResult(
+         "SELECT nextval(?::regclass) FROM generate_series(1, ?)", this._sequence, this._blockSize);
+      if (ids.isEmpty())
+         throw new SQLException("Sequence " + this._sequence + " returned no values");
+      for (int i = 0; i < ids.size(); ++i)
+         this._block[i] = Integer.parseInt(ids.get(i).get(0));
+      this._next = 0;
+      this._end = ids.size();
+   }//end refill
+}//end MessageIdAllocator
@@ -0,0 +1,284 @@
+/*
+ * Group-Commit Message Writer
+ * =============================
+ * Edward Martens (862256447), Cody Phu (862107077)
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Writes sent messages to MESSAGE in the background, many per transaction.
+ *
+ * Senders put messages on a bounded queue and return immediately; a single
+ * writer thread takes up to BATCH_SIZE of them, or whatever arrived within
+ * FLUSH_INTERVAL_MS of the first, and inserts them as one JDBC batch in one
+ * transaction, so the commit cost is shared by the whole batch.  When the
+ * queue is full senders block until the writer catches up.  close() stops
+ * accepting messages and waits until everything queued has been written.
+ *
+ * If a batch fails, its messages are retried one at a time so a single bad
+ * message (e.g. an unknown receiver) does not take the others with it.
+ * The messages that still fail are kept per sender until takeFailures()
+ * hands them to the sender; those nobody collected are printed by close().
+ *
+ */
+public class MessageWriter implements Runnable {
+
+   // most messages written in one transaction.
+   public static final int BATCH_SIZE = 100;
+
+   // how long the writer waits for a batch to fill up.
+   public static final long FLUSH_INTERVAL_MS = 5;
+
+   // messages that may wait before senders are made to block.
+   public static final int QUEUE_CAPACITY = 10000;
+
+   // most failures kept per sender until they are taken.
+   public static final int MAX_FAILURES = 100;
+
+   /**
+    * A message waiting to be written.
+    */
+   private static class PendingMessage {
+      final int msgId;
+      final int senderKey;
+      final int receiverKey;
+      final String contents;
+      final Timestamp sendTime;
+
+      PendingMessage (int msgId, int senderKey, int receiverKey, String contents, Timestamp sendTime) {
+         this.msgId = msgId;
+         this.senderKey = senderKey;
+         this.receiverKey = receiverKey;
+         this.contents = contents;
+         this.sendTime = sendTime;
+      }
+   }//end PendingMessage
+
+   private final ConnectionPool _pool;
+   private final QueryStats _stats;
+   private final ArrayBlockingQueue<PendingMessage> _queue =
+      new ArrayBlockingQueue<PendingMessage>(QUEUE_CAPACITY);
+   private final Thread _thread;
+   private volatile boolean _closed = false;
+
+   // senders hold the read lock from the closed check until their message
+   // is queued; close() takes the write lock, so no message is queued
+   // after the writer may have seen the queue closed and empty.
+   private final ReentrantReadWriteLock _closing = new ReentrantReadWriteLock();
+
+   // messages accepted and messages written (or failed), guarded by this.
+   private long _enqueued = 0;
+   private long _written = 0;
+
+   // why each message that could not be written failed, by sender key;
+   // guarded by this.
+   private final Map<Integer, List<String>> _failures = new HashMap<Integer, List<String>>();
+
+   /**
+    * Creates the writer and starts its thread.
+    *
+    * @param pool where the writer takes its connection from for each batch
+    * @param stats where the inserts are timed
+    */
+   public MessageWriter (ConnectionPool pool, QueryStats stats) {
+      this._pool = pool;
+      this._stats = stats;
+      this._thread = new Thread(this, "message-writer");
+      this._thread.setDaemon(true);
+      this._thread.start();
+   }//end MessageWriter
+
+   /**
+    * Queues a message for writing, blocking while the queue is full.
+    * Sender and receiver are given by their USR.userKey.
+    *
+    * @throws java.sql.SQLException when the writer has been closed
+    */
+   public void enqueue (int msgId, int senderKey, int receiverKey, String contents, Timestamp sendTime) throws SQLException {
+      this._closing.readLock().lock();
+      try {
+         if (this._closed)
+            throw new SQLException("Message writer is shut down");
+         this._queue.put(new PendingMessage(msgId, senderKey, receiverKey, contents, sendTime));
+         synchronized (this) {
+            ++this._enqueued;
+         }
+      }catch (InterruptedException e){
+         Thread.currentThread().interrupt();
+         throw new SQLException("Interrupted while queueing a message");
+      } finally {
+         this._closing.readLock().unlock();
+      }
+   }//end enqueue
+
+   /**
+    * Waits until every message queued so far has been written.
+    */
+   public void flush () {
+      synchronized (this) {
+         long target = this._enqueued;
+         while (this._written < target && this._thread.isAlive()) {
+            try {
+               this.wait(FLUSH_INTERVAL_MS * 10);
+            }catch (InterruptedException e){
+               Thread.currentThread().interrupt();
+               return;
+            }//end try
+         }//end while
+      }
+   }//end flush
+
+   /**
+    * Returns and forgets the failures of the messages a sender queued, one
+    * line per message, oldest first.
+    *
+    * @param senderKey the USR.userKey of the sender
+    */
+   public synchronized List<String> takeFailures (int senderKey) {
+      List<String> failures = this._failures.remove(Integer.valueOf(senderKey));
+      return failures == null ? new ArrayList<String>() : failures;
+   }//end takeFailures
+
+   /**
+    * Stops accepting messages and waits for the queue to drain.
+    */
+   public void close () {
+      // waits for senders already queueing; the writer keeps draining meanwhile.
+      this._closing.writeLock().lock();
+      try {
+         this._closed = true;
+      } finally {
+         this._closing.writeLock().unlock();
+      }
+      try {
+         this._thread.join();
+      }catch (InterruptedException e){
+         Thread.currentThread().interrupt();
+      }//end try
+      synchronized (this) {
+         for (List<String> failures : this._failures.values())
+            for (String failure : failures)
+               System.err.println(failure);
+         this._failures.clear();
+      }
+   }//end close
+
+   public void run () {
+      List<PendingMessage> batch = new ArrayList<PendingMessage>(BATCH_SIZE);
+      while (true) {
+         PendingMessage first;
+         try {
+            first = this._queue.poll(FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+         }catch (InterruptedException e){
+            first = this._queue.poll();
+         }//end try
+         if (first == null) {
+            if (this._closed && this._queue.isEmpty())
+               return;
+            continue;
+         }//end if
+
+         batch.add(first);
+         long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(FLUSH_INTERVAL_MS);
+         while (batch.size() < BATCH_SIZE) {
+            long wait = deadline - System.nanoTime();
+            PendingMessage next;
+            try {
+               next = wait > 0 ? this._queue.poll(wait, TimeUnit.NANOSECONDS) : this._queue.poll();
+            }catch (InterruptedException e){
+               next = this._queue.poll();
+            }//end try
+            if (next == null)
+               break;
+            batch.add(next);
+         }//end while
+
+         write(batch);
+         synchronized (this) {
+            this._written += batch.size();
+            this.notifyAll();
+         }
+         batch.clear();
+      }//end while
+   }//end run
+
+   private void write (List<PendingMessage> batch) {
+      try {
+         insert(batch, true);
+      }catch (SQLException e){
+         // find the culprit: write the messages one by one.
+         for (int i = 0; i < batch.size(); ++i) {
+            try {
+               insert(batch.subList(i, i + 1), false);
+            }catch (SQLException single){
+               failed(batch.get(i), single);
+            }//end try
+         }//end for
+      }//end try
+   }//end write
+
+   private synchronized void failed (PendingMessage m, SQLException e) {
+      Integer sender = Integer.valueOf(m.senderKey);
+      List<String> failures = this._failures.get(sender);
+      if (failures == null) {
+         failures = new ArrayList<String>();
+         this._failures.put(sender, failures);
+      }//end if
+      if (failures.size() < MAX_FAILURES)
+         failures.add("Message " + m.msgId + " could not be sent: " + e.getMessage());
+   }//end failed
+
+   private void insert (List<PendingMessage> batch, boolean asBatch) throws SQLException {
+      long start = System.nanoTime();
+      PooledConnection conn = this._pool.acquire();
+      Connection physical = conn.getConnection();
+      try {
+         physical.setAutoCommit(false);
+         PreparedStatement stmt = physical.prepareStatement(ProfNetwork.INSERT_MESSAGE_QUERY);
+         try {
+            for (PendingMessage m : batch) {
+               stmt.setInt(1, m.msgId);
+               stmt.setInt(2, m.senderKey);
+               stmt.setInt(3, m.receiverKey);
+               stmt.setString(4, m.contents);
+               stmt.setTimestamp(5, m.sendTime);
+               if (asBatch)
+                  stmt.addBatch();
+               else
+                  stmt.executeUpdate();
+            }//end for
+            if (asBatch)
+               stmt.executeBatch();
+         } finally {
+            stmt.close();
+         }
+         physical.commit();
+         this._stats.record(ProfNetwork.INSERT_MESSAGE_QUERY, start, batch.size(), 0);
+      } catch (SQLException e) {
+         this._stats.error(ProfNetwork.INSERT_MESSAGE_QUERY, start, e);
+         conn.rollbackQuietly();
+         throw e;
+      } finally {
+         conn.restoreAutoCommit(true);
+         this._pool.release(conn);
+      }
+   }//end insert
+}//end MessageWriter
@@ -0,0 +1,220 @@
+/*
+ * People Search Index
+ * =============================
+ * Edward Martens (862256447), Cody Phu (862107077)
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * An in-memory trigram index over USR.name for substring people search.
+ *
+ * Every lower-cased name is split into overlapping three-character grams
+ * and each gram keeps a sorted posting list of the (dictionary encoded)
+ * users whose name contains it.  A search intersects the posting lists of
+ * the query's grams, smallest first, checks the surviving candidates
+ * against the full substring and keeps the best limit matches: names that
+ * start with the query, then names with a word starting with it, then any
+ * other match, shorter names first.  Queries shorter than a gram fall back
+ * to a scan of the in-memory names.
+ *
+ * All public methods are synchronized.
+ */
+public class NameIndex {
+
+   private static final int GRAM = 3;
+
+   private final UserDictionary _users = new UserDictionary();
+
+   // lower-cased name per user code, null when the user has no name.
+   private String[] _names = new String[0];
+
+   // gram key -> users whose name contains that gram.
+   private final HashMap<Long, PostingList> _postings = new HashMap<Long, PostingList>();
+
+   /**
+    * Reads every userId and name from USR and indexes them.
+    *
+    * @param esql the database to read USR from
+    * @return the loaded index
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public static NameIndex load (ProfNetwork esql) throws SQLException {
+      final NameIndex index = new NameIndex();
+      esql.executeQueryStreaming("SELECT userId, name FROM USR",
+         ProfNetwork.STREAM_BATCH_SIZE, new RowHandler() {
+            public void start (String[] columns) {
+            }
+            public boolean handleRow (String[] row) {
+               index.put(row[0], row[1]);
+               return true;
+            }
+         });
+      return index;
+   }//end load
+
+   /**
+    * Adds a user or replaces the name indexed for them.
+    *
+    * @param userId the user
+    * @param name the user's name, or null
+    */
+   public synchronized void put (String userId, String name) {
+      int code = this._users.intern(userId);
+      if (code >= this._names.length)
+         this._names = Arrays.copyOf(this._names, Math.max(1024, 2 * code + 1));
+      String old = this._names[code];
+      String normalized = name == null ? null : name.trim().toLowerCase();
+      if (old != null && old.equals(normalized))
+         return;
+      if (old != null)
+         for (int i = 0; i + GRAM <= old.length(); ++i) {
+            PostingList list = this._postings.get(gramKey(old, i));
+            if (list != null)
+               list.remove(code);
+         }//end for
+      this._names[code] = normalized;
+      if (normalized != null)
+         for (int i = 0; i + GRAM <= normalized.length(); ++i) {
+            Long key = gramKey(normalized, i);
+            PostingList list = this._postings.get(key);
+            if (list == null) {
+               list = new PostingList();
+               this._postings.put(key, list);
+            }//end if
+            list.add(code);
+         }//end for
+   }//end put
+
+   /**
+    * Returns the userIds of the best matches for a name fragment, best
+    * first.  Matching ignores case.
+    *
+    * @param fragment part of a name
+    * @param limit the maximum number of userIds returned
+    * @return at most limit userIds
+    */
+   public synchronized List<String> search (String fragment, int limit) {
+      String query = fragment.trim().toLowerCase();
+      // max-heap on rank, so the worst of the kept matches is dropped first.
+      PriorityQueue<long[]> best = new PriorityQueue<long[]>(limit + 1, new java.util.Comparator<long[]>() {
+         public int compare (long[] a, long[] b) {
+            return a[0] < b[0] ? 1 : a[0] > b[0] ? -1 : 0;
+         }
+      });
+
+      if (query.length() < GRAM) {
+         for (int code = 0; code < this._users.size(); ++code)
+            consider(code, query, limit, best);
+      } else {
+         int grams = query.length() - GRAM + 1;
+         PostingList[] lists = new PostingList[grams];
+         for (int i = 0; i < grams; ++i) {
+            lists[i] = this._postings.get(gramKey(query, i));
+            if (lists[i] == null || lists[i].size == 0)
+               return new ArrayList<String>();
+         }//end for
+         Arrays.sort(lists, new java.util.Comparator<PostingList>() {
+            public int compare (PostingList a, PostingList b) {
+               return a.size - b.size;
+            }
+         });
+         PostingList smallest = lists[0];
+         for (int i = 0; i < smallest.size; ++i) {
+            int code = smallest.codes[i];
+            boolean inAll = true;
+            for (int j = 1; j < lists.length && inAll; ++j)
+               inAll = lists[j].contains(code);
+            if (inAll)
+               consider(code, query, limit, best);
+         }//end for
+      }//end if
+
+      long[][] ranked = best.toArray(new long[best.size()][]);
+      Arrays.sort(ranked, new java.util.Comparator<long[]>() {
+         public int compare (long[] a, long[] b) {
+            return a[0] < b[0] ? -1 : a[0] > b[0] ? 1 : 0;
+         }
+      });
+      List<String> result = new ArrayList<String>(ranked.length);
+      for (int i = 0; i < ranked.length; ++i)
+         result.add(this._users.userId((int) ranked[i][1]));
+      return result;
+   }//end search
+
+   /**
+    * Returns the number of indexed users.
+    */
+   public synchronized int size () {
+      return this._users.size();
+   }//end size
+
+   // verifies a candidate and offers it to the bounded heap.
+   private void consider (int code, String query, int limit, PriorityQueue<long[]> best) {
+      String name = code < this._names.length ? this._names[code] : null;
+      if (name == null)
+         return;
+      int at = name.indexOf(query);
+      if (at < 0)
+         return;
+      int tier = at == 0 ? 0 : name.charAt(at - 1) == ' ' ? 1 : 2;
+      if (tier == 2 && name.indexOf(" " + query) >= 0)
+         tier = 1;
+      // tier, then name length, then code for a stable order.
+      long rank = ((long) tier << 52) | ((long) Math.min(name.length(), 0xfffff) << 32) | code;
+      if (best.size() < limit) {
+         best.add(new long[] { rank, code });
+      } else if (limit > 0 && rank < best.peek()[0]) {
+         best.poll();
+         best.add(new long[] { rank, code });
+      }//end if
+   }//end consider
+
+   private static Long gramKey (String s, int at) {
+      return Long.valueOf(((long) s.charAt(at) << 32) | ((long) s.charAt(at + 1) << 16) | s.charAt(at + 2));
+   }//end gramKey
+
+   /**
+    * A sorted, growable list of user codes.
+    */
+   private static class PostingList {
+      int[] codes = new int[4];
+      int size = 0;
+
+      boolean contains (int code) {
+         return Arrays.binarySearch(this.codes, 0, this.size, code) >= 0;
+      }//end contains
+
+      void add (int code) {
+         int at = Arrays.binarySearch(this.codes, 0, this.size, code);
+         if (at >= 0)
+            return;
+         at = -at - 1;
+         if (this.size == this.codes.length)
+            this.codes = Arrays.copyOf(this.codes, 2 * this.size);
+         System.arraycopy(this.codes, at, this.codes, at + 1, this.size - at);
+         this.codes[at] = code;
+         ++this.size;
+      }//end add
+
+      void remove (int code) {
+         int at = Arrays.binarySearch(this.codes, 0, this.size, code);
+         if (at < 0)
+            return;
+         System.arraycopy(this.codes, at + 1, this.codes, at, this.size - at - 1);
+         --this.size;
+      }//end remove
+   }//end PostingList
+}//end NameIndex
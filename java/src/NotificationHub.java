@@ -0,0 +1,425 @@
+/*
+ * Message and Request Notifications
+ * =============================
+ * Edward Martens (862256447), Cody Phu (862107077)
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+/**
+ * Tells logged in users about new messages and connection requests
+ * without them asking again.
+ *
+ * Triggers on MESSAGE and CONNECTION_USR record every new message, new
+ * request and decided request in NOTIFICATION_EVENT and NOTIFY the
+ * profnetwork_events channel (see create_notifications.sql).  One
+ * dedicated connection per process LISTENs on the channel; when it is
+ * notified the hub reads the new events and hands each to the Mailbox of
+ * the user it is for, if that user is logged in here.  A mailbox counts
+ * the messages received since the user last read them and the requests
+ * waiting for the user, from the events alone: the database is only
+ * asked for the pending count once, at subscribe().
+ *
+ * The 7.3 driver only takes notifications in while it runs a query, so
+ * the listener runs a trivial one every -Dprofnetwork.notifyPollMs.
+ * Events are numbered by a sequence, and one that got its number before
+ * the last one read may commit after it, so every read starts
+ * EVENT_SLACK events back and skips the events already handed out.
+ * Events older than -Dprofnetwork.notifyRetainMinutes are deleted.
+ */
+public class NotificationHub implements Runnable {
+
+   public static final int DEFAULT_POLL_MILLIS = 250;
+   public static final int DEFAULT_RETAIN_MINUTES = 60;
+
+   // how far behind the newest event read each read starts.
+   static final int EVENT_SLACK = 256;
+
+   // events a mailbox keeps for eventsAfter().
+   static final int RECENT_EVENTS = 20;
+
+   // minutes between deletes of old events.
+   private static final int PRUNE_MINUTES = 10;
+
+   // seconds the listener waits after a failure before trying again.
+   private static final int RETRY_SECONDS = 30;
+
+   static final String CHANNEL = "profnetwork_events";
+
+   // the kinds of event written by the triggers.
+   public static final String MESSAGE = "message";
+   public static final String REQUEST = "request";
+   public static final String DECIDED = "decided";
+
+   static final String EVENTS_QUERY =
+      "SELECT E.eventId, E.kind, E.userKey, O.userId FROM NOTIFICATION_EVENT E " +
+      "LEFT JOIN USR O ON O.userKey = E.otherKey WHERE E.eventId > ? ORDER BY E.eventId";
+   static final String LAST_EVENT_QUERY =
+      "SELECT coalesce(max(eventId), 0) FROM NOTIFICATION_EVENT";
+   // one statement, so the count and the event number come from one snapshot.
+   static final String SUBSCRIBE_QUERY =
+      "SELECT (SELECT count(*) FROM CONNECTION_USR WHERE connectionKey = ? AND status = 'Request'), " +
+      "(SELECT coalesce(max(eventId), 0) FROM NOTIFICATION_EVENT)";
+   // createdAt is stamped by the server, so the cutoff is taken on its clock too.
+   static final String PRUNE_QUERY =
+      "DELETE FROM NOTIFICATION_EVENT WHERE createdAt < localtimestamp - ? * interval '1 minute'";
+
+   /**
+    * One event as a mailbox shows it.
+    */
+   public static final class Event {
+      public final long version;
+      public final String kind;
+      public final String from;
+
+      Event (long version, String kind, String from) {
+         this.version = version;
+         this.kind = kind;
+         this.from = from;
+      }
+   }//end Event
+
+   /**
+    * The counters of one logged in user, shared by all of the user's
+    * sessions in this process.  Every change raises the version, which
+    * await() waits on.
+    */
+   public static final class Mailbox {
+      private final String _userId;
+      private final int _key;
+      // events up to this one are in the counts read at subscribe().
+      private final int _baseline;
+      private int _sessions = 1;
+      private int _unread = 0;
+      private int _pending;
+      private long _version = 0;
+      private final LinkedList<Event> _recent = new LinkedList<Event>();
+
+      Mailbox (String userId, int key, int pending, int baseline) {
+         this._userId = userId;
+         this._key = key;
+         this._pending = pending;
+         this._baseline = baseline;
+      }
+
+      public String userId () {
+         return this._userId;
+      }
+
+      /** Messages received since the user last read them. */
+      public synchronized int unread () {
+         return this._unread;
+      }
+
+      /** Connection requests waiting for the user. */
+      public synchronized int pending () {
+         return this._pending;
+      }
+
+      public synchronized long version () {
+         return this._version;
+      }
+
+      /**
+       * Returns the kept events newer than the given version, oldest first.
+       */
+      public synchronized List<Event> eventsAfter (long version) {
+         List<Event> events = new ArrayList<Event>();
+         for (Event e : this._recent)
+            if (e.version > version)
+               events.add(e);
+         return events;
+      }//end eventsAfter
+
+      /**
+       * Waits at most the given time for the version to pass the given
+       * one.
+       *
+       * @return true if it did
+       */
+      public synchronized boolean await (long version, long millis) throws InterruptedException {
+         long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+         long left = millis;
+         while (this._version <= version && left > 0) {
+            wait(left);
+            left = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+         }//end while
+         return this._version > version;
+      }//end await
+
+      /**
+       * Clears the unread count, once the user has seen the messages.
+       */
+      public synchronized void markRead () {
+         if (this._unread == 0)
+            return;
+         this._unread = 0;
+         ++this._version;
+         notifyAll();
+      }//end markRead
+
+      synchronized void apply (int eventId, String kind, String from) {
+         if (eventId <= this._baseline)
+            return;
+         if (kind.equals(MESSAGE))
+            ++this._unread;
+         else if (kind.equals(REQUEST))
+            ++this._pending;
+         else if (kind.equals(DECIDED))
+            this._pending = Math.max(0, this._pending - 1);
+         else
+            return;
+         this._recent.add(new Event(++this._version, kind, from));
+         if (this._recent.size() > RECENT_EVENTS)
+            this._recent.removeFirst();
+         notifyAll();
+      }//end apply
+   }//end Mailbox
+
+   private final ProfNetwork _esql;
+   private final long _pollMillis;
+   private final int _retainMinutes;
+
+   // the logged in users, by userId and by userKey; guarded by this.
+   private final HashMap<String, Mailbox> _byUser = new HashMap<String, Mailbox>();
+   private final HashMap<Integer, Mailbox> _byKey = new HashMap<Integer, Mailbox>();
+
+   private Thread _thread = null;
+   private volatile boolean _stopped = false;
+
+   // used by the listener thread only.
+   private Connection _listener = null;
+   private int _cursor = -1;
+   private final TreeSet<Integer> _seen = new TreeSet<Integer>();
+   private long _lastPrune = System.nanoTime();
+
+   /**
+    * Creates a hub from the system properties described above.
+    */
+   public static NotificationHub configured (ProfNetwork esql) {
+      return new NotificationHub(esql,
+         Integer.getInteger("profnetwork.notifyPollMs", DEFAULT_POLL_MILLIS),
+         Integer.getInteger("profnetwork.notifyRetainMinutes", DEFAULT_RETAIN_MINUTES));
+   }//end configured
+
+   /**
+    * @param esql the database to listen to
+    * @param pollMillis how often the listener connection is polled
+    * @param retainMinutes how long events are kept in NOTIFICATION_EVENT
+    */
+   public NotificationHub (ProfNetwork esql, int pollMillis, int retainMinutes) {
+      this._esql = esql;
+      this._pollMillis = Math.max(10, pollMillis);
+      this._retainMinutes = Math.max(1, retainMinutes);
+   }//end NotificationHub
+
+   /**
+    * Starts counting events for a user, or adds a session to the user's
+    * mailbox when there already is one.
+    *
+    * @param userId the user logging in
+    * @return the user's mailbox
+    * @throws java.sql.SQLException when failed to read the pending count
+    */
+   public Mailbox subscribe (String userId) throws SQLException {
+      String id = userId.trim();
+      synchronized (this) {
+         Mailbox box = this._byUser.get(id);
+         if (box != null) {
+            ++box._sessions;
+            return box;
+         }//end if
+      }
+      int key = this._esql.userKey(id).intValue();
+      if (key == UserKeys.NO_KEY)
+         throw new IllegalArgumentException("no such user " + id);
+      List<String> counts = this._esql.executeQueryAndReturnResult(SUBSCRIBE_QUERY, Integer.valueOf(key)).get(0);
+      Mailbox fresh = new Mailbox(id, key,
+         Integer.parseInt(counts.get(0).trim()), Integer.parseInt(counts.get(1).trim()));
+      synchronized (this) {
+         Mailbox box = this._byUser.get(id);
+         if (box != null) {
+            ++box._sessions;
+            return box;
+         }//end if
+         this._byUser.put(id, fresh);
+         this._byKey.put(Integer.valueOf(key), fresh);
+         return fresh;
+      }
+   }//end subscribe
+
+   /**
+    * Ends one session of a user; the mailbox goes with the last one.
+    */
+   public synchronized void unsubscribe (String userId) {
+      Mailbox box = this._byUser.get(userId.trim());
+      if (box == null || --box._sessions > 0)
+         return;
+      this._byUser.remove(box._userId);
+      this._byKey.remove(Integer.valueOf(box._key));
+   }//end unsubscribe
+
+   /**
+    * Returns the mailbox of a logged in user, or null.
+    */
+   public synchronized Mailbox mailbox (String userId) {
+      return this._byUser.get(userId.trim());
+   }//end mailbox
+
+   /**
+    * Clears the unread count of a user, if logged in.
+    */
+   public void markRead (String userId) {
+      Mailbox box = mailbox(userId);
+      if (box != null)
+         box.markRead();
+   }//end markRead
+
+   /**
+    * Starts the listener on a daemon thread.
+    */
+   public synchronized void start () {
+      if (this._thread != null)
+         return;
+      this._thread = new Thread(this, "notification-listener");
+      this._thread.setDaemon(true);
+      this._thread.start();
+   }//end start
+
+   /**
+    * Stops the listener and closes its connection.
+    */
+   public void shutdown () {
+      Thread thread;
+      synchronized (this) {
+         thread = this._thread;
+         this._thread = null;
+      }
+      if (thread == null)
+         return;
+      this._stopped = true;
+      thread.interrupt();
+      try {
+         thread.join(TimeUnit.SECONDS.toMillis(5));
+      }catch (InterruptedException e){
+         Thread.currentThread().interrupt();
+      }//end try
+   }//end shutdown
+
+   /**
+    * The listener loop.
+    */
+   public void run () {
+      while (!this._stopped) {
+         long sleep = this._pollMillis;
+         try {
+            boolean notified = false;
+            if (this._listener == null) {
+               listen();
+               // whatever happened while not listening is read now.
+               notified = true;
+            }//end if
+            if (poll() || notified)
+               read();
+            if (System.nanoTime() - this._lastPrune > TimeUnit.MINUTES.toNanos(PRUNE_MINUTES))
+               prune();
+         }catch (SQLException e){
+            System.err.println("Notification listener: " + e.getMessage());
+            closeListener();
+            sleep = TimeUnit.SECONDS.toMillis(RETRY_SECONDS);
+         }//end try
+         try {
+            Thread.sleep(sleep);
+         }catch (InterruptedException e){
+            break;
+         }//end try
+      }//end while
+      closeListener();
+   }//end run
+
+   // opens the listener connection and LISTENs on the channel.
+   private void listen () throws SQLException {
+      Connection conn = this._esql.getPool().openDedicated();
+      try {
+         Statement stmt = conn.createStatement();
+         try {
+            stmt.executeUpdate("LISTEN " + CHANNEL);
+         } finally {
+            stmt.close();
+         }
+      }catch (SQLException e){
+         conn.close();
+         throw e;
+      }//end try
+      this._listener = conn;
+      if (this._cursor < 0)
+         this._cursor = Integer.parseInt(
+            this._esql.executeQueryAndReturnResult(LAST_EVENT_QUERY).get(0).get(0).trim());
+   }//end listen
+
+   // true when the channel was notified since the last poll.
+   private boolean poll () throws SQLException {
+      Statement stmt = this._listener.createStatement();
+      try {
+         stmt.executeQuery("SELECT 1").close();
+      } finally {
+         stmt.close();
+      }
+      PGNotification[] notifications = ((PGConnection) this._listener).getNotifications();
+      return notifications != null && notifications.length > 0;
+   }//end poll
+
+   // hands the events not handed out yet to the mailboxes.
+   private void read () throws SQLException {
+      List<List<String>> rows = this._esql.executeQueryAndReturnResult(EVENTS_QUERY,
+         Integer.valueOf(Math.max(0, this._cursor - EVENT_SLACK)));
+      for (List<String> row : rows) {
+         Integer eventId = Integer.valueOf(row.get(0).trim());
+         if (!this._seen.add(eventId))
+            continue;
+         this._cursor = Math.max(this._cursor, eventId.intValue());
+         Mailbox box;
+         synchronized (this) {
+            box = this._byKey.get(Integer.valueOf(row.get(2).trim()));
+         }
+         if (box != null)
+            box.apply(eventId.intValue(), row.get(1).trim(), row.get(3) == null ? null : row.get(3).trim());
+      }//end for
+      // the events the next read does not return any more.
+      this._seen.headSet(Integer.valueOf(this._cursor - EVENT_SLACK + 1)).clear();
+   }//end read
+
+   private void prune () throws SQLException {
+      this._lastPrune = System.nanoTime();
+      this._esql.executeUpdate(PRUNE_QUERY, Integer.valueOf(this._retainMinutes));
+   }//end prune
+
+   private void closeListener () {
+      if (this._listener == null)
+         return;
+      try {
+         this._listener.close();
+      }catch (SQLException e){
+         // the connection is gone either way.
+      }//end try
+      this._listener = null;
+   }//end closeListener
+}//end NotificationHub
@@ -0,0 +1,199 @@
+/*
+ * Pooled JDBC Connection
+ * =============================
+ * Edward Martens (862256447), Cody Phu (862107077)
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.postgresql.PGStatement;
+
+/**
+ * A physical database connection owned by a ConnectionPool together with
+ * the cache of PreparedStatements that were created on it.  Statements are
+ * keyed by their SQL text, so the same menu query issued again is bound and
+ * executed on the already prepared server-side plan instead of being parsed
+ * and planned from scratch.
+ *
+ * A PooledConnection is only ever used by the thread that acquired it from
+ * the pool, so the cache does not need any locking.
+ */
+public class PooledConnection {
+
+   // reference to physical database connection.
+   private final Connection _connection;
+
+   // SQL text -> prepared statement, least recently used first.
+   private final LinkedHashMap<String, PreparedStatement> _statements;
+
+   // a statement failed since the connection was last checked.
+   private boolean _suspect = false;
+
+   // the connection could not be put back into a usable state.
+   private boolean _broken = false;
+
+   /**
+    * Wraps a physical connection.
+    *
+    * @param connection the physical connection
+    * @param cacheSize the maximum number of statements kept prepared
+    */
+   public PooledConnection (Connection connection, final int cacheSize) {
+      this._connection = connection;
+      this._statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+         protected boolean removeEldestEntry (Map.Entry<String, PreparedStatement> eldest) {
+            if (size() <= cacheSize)
+               return false;
+            closeQuietly(eldest.getValue());
+            return true;
+         }
+      };
+   }//end PooledConnection
+
+   /**
+    * Returns the physical connection, e.g. to toggle autocommit.
+    */
+   public Connection getConnection () {
+      return this._connection;
+   }//end getConnection
+
+   /**
+    * Returns a prepared statement for the given SQL, reusing a cached one
+    * when the same SQL was prepared on this connection before.  The
+    * returned statement has its parameters cleared and must not be closed
+    * by the caller.
+    *
+    * @param sql the SQL text with '?' placeholders
+    * @return the prepared statement
+    * @throws java.sql.SQLException when the statement cannot be prepared
+    */
+   public PreparedStatement prepare (String sql) throws SQLException {
+      PreparedStatement stmt = this._statements.get(sql);
+      if (stmt == null) {
+         stmt = this._connection.prepareStatement(sql);
+         // ask the driver to PREPARE on the server so the plan is reused.
+         if (stmt instanceof PGStatement)
+            ((PGStatement) stmt).setUseServerPrepare(true);
+         this._statements.put(sql, stmt);
+      } else {
+         stmt.clearParameters();
+      }//end if
+      return stmt;
+   }//end prepare
+
+   /**
+    * Returns the number of statements currently cached.
+    */
+   public int cachedStatements () {
+      return this._statements.size();
+   }//end cachedStatements
+
+   /**
+    * Checks whether the physical connection is still usable.
+    */
+   public boolean isClosed () {
+      try {
+         return this._connection.isClosed();
+      }catch (SQLException e){
+         return true;
+      }//end try
+   }//end isClosed
+
+   /**
+    * Notes that a statement failed on this connection.  The failure may be
+    * the statement's own or a dropped socket, so the pool checks the
+    * connection on release before handing it out again.
+    */
+   public void failed () {
+      this._suspect = true;
+   }//end failed
+
+   /**
+    * Rolls back the open transaction after a failure, without throwing:
+    * the caller goes on to throw its own exception.  When the rollback
+    * fails too, the connection is marked broken and the pool drops it.
+    */
+   public void rollbackQuietly () {
+      this._suspect = true;
+      try {
+         this._connection.rollback();
+      }catch (SQLException e){
+         this._broken = true;
+      }//end try
+   }//end rollbackQuietly
+
+   /**
+    * Puts the connection back into the given autocommit mode, without
+    * throwing; a connection that refuses is marked broken.
+    */
+   public void restoreAutoCommit (boolean autoCommit) {
+      if (this._broken)
+         return;
+      try {
+         this._connection.setAutoCommit(autoCommit);
+      }catch (SQLException e){
+         this._broken = true;
+      }//end try
+   }//end restoreAutoCommit
+
+   /**
+    * Checks whether the connection may be handed out again.  One that only
+    * ran successful statements is trusted; one that saw a failure must
+    * answer a trivial query first.
+    */
+   boolean validate () {
+      if (this._broken || isClosed())
+         return false;
+      if (!this._suspect)
+         return true;
+      try {
+         Statement stmt = this._connection.createStatement();
+         try {
+            stmt.executeQuery("SELECT 1").close();
+         } finally {
+            stmt.close();
+         }
+      }catch (SQLException e){
+         return false;
+      }//end try
+      this._suspect = false;
+      return true;
+   }//end validate
+
+   /**
+    * Closes every cached statement and the physical connection.
+    */
+   public void close () {
+      Iterator<PreparedStatement> it = this._statements.values().iterator();
+      while (it.hasNext()) {
+         closeQuietly(it.next());
+         it.remove();
+      }//end while
+      try {
+         this._connection.close();
+      }catch (SQLException e){
+         // ignored.
+      }//end try
+   }//end close
+
+   private static void closeQuietly (PreparedStatement stmt) {
+      try {
+         stmt.close();
+      }catch (SQLException e){
+         // ignored.
+      }//end try
+   }//end closeQuietly
+}//end PooledConnection
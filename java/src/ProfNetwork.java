@@ -13,10 +13,12 @@
 
 import java.sql.DriverManager;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.Statement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.io.File;
 import java.io.FileReader;
 import java.io.BufferedReader;
@@ -24,16 +26,85 @@ import java.io.InputStreamReader;
 import java.util.List;
 import java.util.Date;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * This class defines a simple embedded SQL utility class that is designed to
  * work with PostgreSQL JDBC drivers.
  *
+ * All statements go through a bounded ConnectionPool and are issued as
+ * PreparedStatements with '?' placeholders; each pooled connection caches
+ * the statements it has prepared, so repeated menu queries reuse their
+ * server-side plan.
+ *
  */
 public class ProfNetwork {
 
-   // reference to physical database connection.
-   private Connection _connection = null;
+   // default number of physical connections kept by the pool.
+   public static final int DEFAULT_POOL_SIZE = 4;
+
+   // number of prepared statements cached on each pooled connection.
+   public static final int STATEMENT_CACHE_SIZE = 64;
+
+   // number of rows fetched per round trip by executeQueryStreaming.
+   public static final int STREAM_BATCH_SIZE = 500;
+
+   // sequence message IDs are drawn from.
+   public static final String MESSAGE_SEQUENCE = "MessageIDSequence";
+
+   // name of the server-side cursor opened by executeQueryStreaming.
+   private static final String STREAM_CURSOR = "profnetwork_stream";
+
+   // pool of physical database connections.
+   private ConnectionPool _pool = null;
+
+   // accepted connections, loaded on first use.
+   private SocialGraph _graph = null;
+
+   // file copy of USR and CONNECTION_USR the graph and the user filter are
+   // built from, or null when the tables are read instead.
+   private final File _snapshotFile;
+   private GraphSnapshot _snapshot = null;
+
+   // people search index over USR.name, loaded on first use.
+   private NameIndex _names = null;
+
+   // Bloom filter over the userIds in USR, loaded on first use.
+   private UserFilter _userFilter = null;
+
+   // userId -> USR.userKey, filled as users are looked up.
+   private final UserKeys _userKeys = new UserKeys(this);
+
+   // profile rows and friend lists shown by FriendProfile, by userId.
+   private final ProfileCache _profiles = ProfileCache.configured();
+   private final ProfileCache _friendLists = ProfileCache.configured();
+
+   // background loader for FriendProfile, started on first use.
+   private ProfilePrefetcher _prefetcher = null;
+
+   // people you may know, started on first use.
+   private ConnectionRecommender _recommender = null;
+
+   // work and school search index, loaded on first use.
+   private FacetIndex _facets = null;
+
+   // background writer for sent messages, started on first use.
+   private MessageWriter _writer = null;
+
+   // new message and request counts of the logged in users, started on first use.
+   private NotificationHub _notifications = null;
+
+   // timings of every statement executed, published through JMX.
+   private final QueryStats _stats = QueryStats.configured();
+
+   // numbers the JMX names of the instances in this process.
+   private static final java.util.concurrent.atomic.AtomicInteger _instances =
+      new java.util.concurrent.atomic.AtomicInteger();
+
+   // block allocators for sequence values, keyed by sequence name.
+   private final Map<String, MessageIdAllocator> _allocators = new HashMap<String, MessageIdAllocator>();
 
    // handling the keyboard inputs through a BufferedReader
    // This variable can be global for convenience.
@@ -50,15 +121,34 @@ public class ProfNetwork {
     * @throws java.sql.SQLException when failed to make a connection.
     */
    public ProfNetwork (String dbname, String dbport, String user, String passwd) throws SQLException {
+      this(dbname, dbport, user, passwd, DEFAULT_POOL_SIZE);
+   }//end ProfNetwork
 
+   /**
+    * Creates a new instance of Messenger backed by a pool of at most
+    * poolSize connections.
+    *
+    * @param database the name of the database
+    * @param dbport the port the PostgreSQL server listens on
+    * @param username the user name used to login to the database
+    * @param password the user login password
+    * @param poolSize the maximum number of physical connections
+    * @throws java.sql.SQLException when failed to make a connection.
+    */
+   public ProfNetwork (String dbname, String dbport, String user, String passwd, int poolSize) throws SQLException {
+
+      this._snapshotFile = GraphSnapshot.configuredFile(dbname);
       System.out.print("Connecting to database...");
       try{
          // constructs the connection URL
          String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
          System.out.println ("Connection URL: " + url + "\n");
 
-         // obtain a physical connection
-         this._connection = DriverManager.getConnection(url, user, passwd);
+         // open the first physical connection up front so a bad URL or a
+         // stopped server is reported right away.
+         this._pool = new ConnectionPool(url, user, passwd, poolSize, STATEMENT_CACHE_SIZE);
+         this._pool.release(this._pool.acquire());
+         this._stats.register("ProfNetwork:type=QueryStats,id=" + _instances.incrementAndGet());
          System.out.println("Done");
       }catch (Exception e){
          System.err.println("Error - Unable to Connect to Database: " + e.getMessage() );
@@ -67,22 +157,58 @@ public class ProfNetwork {
       }//end catch
    }//end ProfNetwork
 
+   /**
+    * Binds the given values to the placeholders of a prepared statement,
+    * in order.  Strings, numbers, dates and nulls are supported.
+    */
+   private static void bind (PreparedStatement stmt, Object[] params) throws SQLException {
+      for (int i = 0; i < params.length; ++i) {
+         Object p = params[i];
+         if (p == null)
+            stmt.setNull(i + 1, java.sql.Types.VARCHAR);
+         else if (p instanceof String)
+            stmt.setString(i + 1, (String) p);
+         else if (p instanceof Integer)
+            stmt.setInt(i + 1, ((Integer) p).intValue());
+         else if (p instanceof Long)
+            stmt.setLong(i + 1, ((Long) p).longValue());
+         else if (p instanceof Timestamp)
+            stmt.setTimestamp(i + 1, (Timestamp) p);
+         else if (p instanceof Date)
+            stmt.setTimestamp(i + 1, new Timestamp(((Date) p).getTime()));
+         else
+            stmt.setObject(i + 1, p);
+      }//end for
+   }//end bind
+
    /**
     * Method to execute an update SQL statement.  Update SQL instructions
     * includes CREATE, INSERT, UPDATE, DELETE, and DROP.
     *
-    * @param sql the input SQL string
+    * @param sql the input SQL string, with '?' placeholders for params
+    * @param params the values bound to the placeholders
+    * @return the number of rows affected
     * @throws java.sql.SQLException when update failed
     */
-   public void executeUpdate (String sql) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
-
-      // issues the update instruction
-      stmt.executeUpdate (sql);
+   public int executeUpdate (String sql, Object... params) throws SQLException {
+      long start = System.nanoTime();
+      PooledConnection conn = this._pool.acquire();
+      try {
+         // fetches the cached statement object
+         PreparedStatement stmt = conn.prepare(sql);
+         bind(stmt, params);
 
-      // close the instruction
-      stmt.close ();
+         // issues the update instruction
+         int rowCount = stmt.executeUpdate ();
+         this._stats.record(sql, start, rowCount, 0);
+         return rowCount;
+      } catch (SQLException e) {
+         this._stats.error(sql, start, e);
+         conn.failed();
+         throw e;
+      } finally {
+         this._pool.release(conn);
+      }
    }//end executeUpdate
 
    /**
@@ -90,135 +216,974 @@ public class ProfNetwork {
     * method issues the query to the DBMS and outputs the results to
     * standard out.
     *
-    * @param query the input query string
+    * @param query the input query string, with '?' placeholders for params
+    * @param params the values bound to the placeholders
     * @return the number of rows returned
     * @throws java.sql.SQLException when failed to execute the query
     */
-   public int executeQueryAndPrintResult (String query) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
+   public int executeQueryAndPrintResult (String query, Object... params) throws SQLException {
+      return executeQueryAndRender(ResultRenderer.forConsole(), query, params);
+   }//end executeQueryAndPrintResult
 
-      // issues the query instruction
-      ResultSet rs = stmt.executeQuery (query);
+   /**
+    * Method to execute an input query SQL instruction (i.e. SELECT) and
+    * write the results through the given renderer, a page at a time.
+    *
+    * @param renderer where the rows are written
+    * @param query the input query string, with '?' placeholders for params
+    * @param params the values bound to the placeholders
+    * @return the number of rows returned
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int executeQueryAndRender (ResultRenderer renderer, String query, Object... params) throws SQLException {
+      long start = System.nanoTime();
+      PooledConnection conn = this._pool.acquire();
+      try {
+         // fetches the cached statement object
+         PreparedStatement stmt = conn.prepare(query);
+         bind(stmt, params);
 
-      /*
-       ** obtains the metadata object for the returned result set.  The metadata
-       ** contains row and column info.
-       */
-      ResultSetMetaData rsmd = rs.getMetaData ();
-      int numCol = rsmd.getColumnCount ();
-      int rowCount = 0;
+         // issues the query instruction
+         ResultSet rs = stmt.executeQuery ();
 
-      // iterates through the result set and output them to standard out.
-      boolean outputHeader = true;
-      while (rs.next()){
-	 if(outputHeader){
-	    for(int i = 1; i <= numCol; i++){
-		System.out.print(rsmd.getColumnName(i).trim() + "\t");
-	    }
-	    System.out.println();
-	    outputHeader = false;
-	 }
-         for (int i=1; i<=numCol; ++i)
-            System.out.print (rs.getString(i).trim() + "\t");
-         System.out.println ();
-         ++rowCount;
-      }//end while
-      stmt.close ();
-      return rowCount;
-   }//end executeQuery
+         /*
+          ** obtains the metadata object for the returned result set.  The metadata
+          ** contains row and column info.
+          */
+         ResultSetMetaData rsmd = rs.getMetaData ();
+         int numCol = rsmd.getColumnCount ();
+         int rowCount = 0;
+         long bytes = 0;
+
+         // hands the rows to a buffered renderer, one page at a time.
+         ResultPager pager = new ResultPager(renderer, ResultPager.configuredPageSize(), null);
+         String[] columns = new String[numCol];
+         for (int i = 1; i <= numCol; ++i)
+            columns[i - 1] = rsmd.getColumnName(i);
+         pager.start(columns);
+         String[] row = new String[numCol];
+         while (rs.next()){
+            for (int i=1; i<=numCol; ++i)
+               row[i - 1] = rs.getString(i);
+            bytes += QueryStats.size(row);
+            pager.handleRow(row);
+            ++rowCount;
+         }//end while
+         pager.finish();
+         rs.close ();
+         this._stats.record(query, start, rowCount, bytes);
+         return rowCount;
+      } catch (SQLException e) {
+         this._stats.error(query, start, e);
+         conn.failed();
+         throw e;
+      } finally {
+         this._pool.release(conn);
+      }
+   }//end executeQueryAndRender
 
    /**
     * Method to execute an input query SQL instruction (i.e. SELECT).  This
     * method issues the query to the DBMS and returns the results as
     * a list of records. Each record in turn is a list of attribute values
     *
-    * @param query the input query string
+    * @param query the input query string, with '?' placeholders for params
+    * @param params the values bound to the placeholders
     * @return the query result as a list of records
     * @throws java.sql.SQLException when failed to execute the query
     */
-   public List<List<String>> executeQueryAndReturnResult (String query) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
+   public List<List<String>> executeQueryAndReturnResult (String query, Object... params) throws SQLException {
+      long start = System.nanoTime();
+      PooledConnection conn = this._pool.acquire();
+      try {
+         // fetches the cached statement object
+         PreparedStatement stmt = conn.prepare(query);
+         bind(stmt, params);
 
-      // issues the query instruction
-      ResultSet rs = stmt.executeQuery (query);
+         // issues the query instruction
+         ResultSet rs = stmt.executeQuery ();
 
-      /*
-       ** obtains the metadata object for the returned result set.  The metadata
-       ** contains row and column info.
-       */
-      ResultSetMetaData rsmd = rs.getMetaData ();
-      int numCol = rsmd.getColumnCount ();
-      int rowCount = 0;
+         /*
+          ** obtains the metadata object for the returned result set.  The metadata
+          ** contains row and column info.
+          */
+         ResultSetMetaData rsmd = rs.getMetaData ();
+         int numCol = rsmd.getColumnCount ();
 
-      // iterates through the result set and saves the data returned by the query.
-      boolean outputHeader = false;
-      List<List<String>> result  = new ArrayList<List<String>>();
-      while (rs.next()){
-          List<String> record = new ArrayList<String>();
-         for (int i=1; i<=numCol; ++i)
-            record.add(rs.getString (i));
-         result.add(record);
-      }//end while
-      stmt.close ();
-      return result;
+         // iterates through the result set and saves the data returned by the query.
+         List<List<String>> result  = new ArrayList<List<String>>();
+         long bytes = 0;
+         while (rs.next()){
+            List<String> record = new ArrayList<String>();
+            for (int i=1; i<=numCol; ++i) {
+               String value = rs.getString (i);
+               if (value != null)
+                  bytes += value.length();
+               record.add(value);
+            }//end for
+            result.add(record);
+         }//end while
+         rs.close ();
+         this._stats.record(query, start, result.size(), bytes);
+         return result;
+      } catch (SQLException e) {
+         this._stats.error(query, start, e);
+         conn.failed();
+         throw e;
+      } finally {
+         this._pool.release(conn);
+      }
    }//end executeQueryAndReturnResult
 
    /**
     * Method to execute an input query SQL instruction (i.e. SELECT).  This
     * method issues the query to the DBMS and returns the number of results
     *
-    * @param query the input query string
+    * @param query the input query string, with '?' placeholders for params
+    * @param params the values bound to the placeholders
     * @return the number of rows returned
     * @throws java.sql.SQLException when failed to execute the query
     */
-   public int executeQuery (String query) throws SQLException {
-       // creates a statement object
-       Statement stmt = this._connection.createStatement ();
+   public int executeQuery (String query, Object... params) throws SQLException {
+      long start = System.nanoTime();
+      PooledConnection conn = this._pool.acquire();
+      try {
+         // fetches the cached statement object
+         PreparedStatement stmt = conn.prepare(query);
+         bind(stmt, params);
 
-       // issues the query instruction
-       ResultSet rs = stmt.executeQuery (query);
+         // issues the query instruction
+         ResultSet rs = stmt.executeQuery ();
 
-       int rowCount = 0;
+         int rowCount = 0;
 
-       // iterates through the result set and count nuber of results.
-       if(rs.next()){
-          rowCount++;
-       }//end while
-       stmt.close ();
-       return rowCount;
+         // iterates through the result set and count nuber of results.
+         if(rs.next()){
+            rowCount++;
+         }//end while
+         rs.close ();
+         this._stats.record(query, start, rowCount, 0);
+         return rowCount;
+      } catch (SQLException e) {
+         this._stats.error(query, start, e);
+         conn.failed();
+         throw e;
+      } finally {
+         this._pool.release(conn);
+      }
    }
 
    /**
-    * Method to fetch the last value from sequence. This
-    * method issues the query to the DBMS and returns the current
-    * value of sequence used for autogenerated keys
+    * Method to execute an input query SQL instruction (i.e. SELECT) without
+    * holding its result in memory.  The query is opened as a server-side
+    * cursor and read batchSize rows per round trip; every row is handed
+    * to the handler and then dropped, so heap use does not depend on the
+    * size of the result.
+    *
+    * @param query the input query string, with '?' placeholders for params
+    * @param batchSize the number of rows fetched per round trip
+    * @param handler the callback receiving each row
+    * @param params the values bound to the placeholders
+    * @return the number of rows handed to the handler
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int executeQueryStreaming (String query, int batchSize, RowHandler handler, Object... params) throws SQLException {
+      // only time spent on the database counts, not in the handler;
+      // the statistics are handed a start time dbNanos before now.
+      long dbNanos = 0;
+      long start = System.nanoTime();
+      PooledConnection conn = this._pool.acquire();
+      Connection physical = conn.getConnection();
+      boolean autoCommit = true;
+      int rowCount = 0;
+      long bytes = 0;
+      try {
+         autoCommit = physical.getAutoCommit();
+         // a cursor only lives inside a transaction.
+         physical.setAutoCommit(false);
+
+         // DECLARE, FETCH and CLOSE cannot be PREPAREd on the server, so
+         // they bypass the statement cache.
+         PreparedStatement declare = physical.prepareStatement(
+            "DECLARE " + STREAM_CURSOR + " NO SCROLL CURSOR FOR " + query);
+         try {
+            bind(declare, params);
+            declare.executeUpdate();
+         } finally {
+            declare.close();
+         }
+         dbNanos += System.nanoTime() - start;
+
+         Statement cursor = physical.createStatement();
+         try {
+            String[] row = null;
+            boolean more = true;
+            while (more) {
+               long fetchStart = System.nanoTime();
+               ResultSet rs = cursor.executeQuery("FETCH FORWARD " + batchSize + " FROM " + STREAM_CURSOR);
+               dbNanos += System.nanoTime() - fetchStart;
+               try {
+                  if (row == null) {
+                     ResultSetMetaData rsmd = rs.getMetaData ();
+                     String[] columns = new String[rsmd.getColumnCount ()];
+                     for (int i = 0; i < columns.length; ++i)
+                        columns[i] = rsmd.getColumnName(i + 1);
+                     handler.start(columns);
+                     row = new String[columns.length];
+                  }//end if
+                  int fetched = 0;
+                  while (more && rs.next()) {
+                     ++fetched;
+                     for (int i = 0; i < row.length; ++i)
+                        row[i] = rs.getString(i + 1);
+                     ++rowCount;
+                     bytes += QueryStats.size(row);
+                     more = handler.handleRow(row);
+                  }//end while
+                  // a short batch means the cursor is exhausted.
+                  if (fetched < batchSize)
+                     more = false;
+               } finally {
+                  rs.close();
+               }
+            }//end while
+            cursor.executeUpdate("CLOSE " + STREAM_CURSOR);
+         } finally {
+            cursor.close();
+         }
+         physical.commit();
+         this._stats.record(query, System.nanoTime() - dbNanos, rowCount, bytes);
+         return rowCount;
+      } catch (SQLException e) {
+         this._stats.error(query, System.nanoTime() - dbNanos, e);
+         conn.rollbackQuietly();
+         throw e;
+      } finally {
+         conn.restoreAutoCommit(autoCommit);
+         this._pool.release(conn);
+      }
+   }//end executeQueryStreaming
+
+   /**
+    * Method to execute an input query SQL instruction (i.e. SELECT) and
+    * show the result a page at a time.  Each page is one query keyed on a
+    * unique column: it reads the rows past the last key shown, in key
+    * order, plus one more to learn whether another page follows.  No
+    * connection or transaction is held while the user is asked for the
+    * next or previous page, no page re-reads the rows before it, and
+    * quitting stops reading.
+    *
+    * @param query the input query string, ending in its WHERE clause and
+    *        with '?' placeholders for params
+    * @param columns the names of the columns the query returns
+    * @param keyColumn a column that is unique among the rows, e.g. U.userId
+    * @param keyIndex the position of keyColumn among the returned columns
+    * @param params the values bound to the placeholders
+    * @return the number of rows read before the user quit
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int executeQueryAndPage (String query, String[] columns, String keyColumn, int keyIndex,
+         Object... params) throws SQLException {
+      int pageSize = ResultPager.configuredPageSize();
+      ResultPager pager = new ResultPager(ResultRenderer.forConsole(), pageSize, in);
+      pager.start(columns);
+      String first = query + " ORDER BY " + keyColumn + " LIMIT ?";
+      String next = query + " AND " + keyColumn + " > ? ORDER BY " + keyColumn + " LIMIT ?";
+      Object[] args = Arrays.copyOf(params, params.length + 2);
+      int rowCount = 0;
+      String lastKey = null;
+      boolean more = true;
+      while (more) {
+         List<List<String>> page;
+         if (lastKey == null) {
+            args[params.length] = Integer.valueOf(pageSize + 1);
+            page = executeQueryAndReturnResult(first, Arrays.copyOf(args, params.length + 1));
+         } else {
+            args[params.length] = lastKey;
+            args[params.length + 1] = Integer.valueOf(pageSize + 1);
+            page = executeQueryAndReturnResult(next, args);
+         }//end if
+         more = page.size() > pageSize;
+         if (more)
+            page = page.subList(0, pageSize);
+         // the pager prompts after a full page; the connection is back in the pool by now.
+         for (List<String> row : page) {
+            ++rowCount;
+            lastKey = row.get(keyIndex);
+            if (!pager.handleRow(row.toArray(new String[row.size()]))) {
+               more = false;
+               break;
+            }//end if
+         }//end for
+      }//end while
+      pager.finish();
+      return rowCount;
+   }//end executeQueryAndPage
+
+   /**
+    * Method to fetch a fresh value from a sequence. Values are reserved
+    * from the DBMS in blocks by a MessageIdAllocator and handed out from
+    * memory, so most calls make no round trip at all.
     *
     * @param sequence name of the DB sequence
-    * @return current value of a sequence
+    * @return an unused value of the sequence
     * @throws java.sql.SQLException when failed to execute the query
     */
    public int getCurrSeqVal(String sequence) throws SQLException {
-	Statement stmt = this._connection.createStatement ();
-	stmt.executeQuery ("SELECT nextval('"+sequence+"') FROM Message");
-	ResultSet rs = stmt.executeQuery ("SELECT currval('"+sequence+"') ");
-	if (rs.next())
-		return rs.getInt(1);
-	return -1;
+      MessageIdAllocator allocator;
+      synchronized (this._allocators) {
+         allocator = this._allocators.get(sequence);
+         if (allocator == null) {
+            allocator = new MessageIdAllocator(this, sequence, MessageIdAllocator.DEFAULT_BLOCK_SIZE);
+            this._allocators.put(sequence, allocator);
+         }//end if
+      }
+      return allocator.nextId();
    }
 
    /**
-    * Method to close the physical connection if it is open.
+    * Returns the in-memory graph of accepted connections, reading it from
+    * CONNECTION_USR on first use.
+    *
+    * @return the connection graph
+    * @throws java.sql.SQLException when failed to load the graph
+    */
+   public synchronized SocialGraph getSocialGraph () throws SQLException {
+      if (this._graph == null) {
+         GraphSnapshot snapshot = getGraphSnapshot();
+         this._graph = snapshot == null ? SocialGraph.load(this) : snapshot.toGraph();
+      }//end if
+      return this._graph;
+   }//end getSocialGraph
+
+   /**
+    * Returns the snapshot of USR and CONNECTION_USR, loaded and caught up
+    * on first use, or null when snapshots are turned off.  Once open it is
+    * written every SNAPSHOT_MINUTES and again by cleanup().
+    *
+    * @return the snapshot, or null
+    * @throws java.sql.SQLException when failed to catch up the snapshot
+    */
+   public synchronized GraphSnapshot getGraphSnapshot () throws SQLException {
+      if (this._snapshot == null && this._snapshotFile != null) {
+         this._snapshot = GraphSnapshot.open(this, this._snapshotFile);
+         if (SNAPSHOT_MINUTES > 0)
+            this._snapshot.start(SNAPSHOT_MINUTES);
+      }//end if
+      return this._snapshot;
+   }//end getGraphSnapshot
+
+   /**
+    * Returns the in-memory name search index, reading USR on first use.
+    *
+    * @return the name index
+    * @throws java.sql.SQLException when failed to load the index
+    */
+   public synchronized NameIndex getNameIndex () throws SQLException {
+      if (this._names == null)
+         this._names = NameIndex.load(this);
+      return this._names;
+   }//end getNameIndex
+
+   /**
+    * Returns a user's profile row, from the profile cache when possible.
+    *
+    * @param userId the user
+    * @return the name, userId, email and dateOfBirth row, or no rows
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public List<List<String>> getProfile (String userId) throws SQLException {
+      List<List<String>> rows = this._profiles.get(userId);
+      if (rows == null) {
+         long generation = this._profiles.generation();
+         rows = executeQueryAndReturnResult(PROFILE_QUERY, userId);
+         this._profiles.put(userId, rows, generation);
+      }//end if
+      return rows;
+   }//end getProfile
+
+   /**
+    * Returns a user's accepted connections, from the cache when possible.
+    *
+    * @param userId the user
+    * @return name, userId, email and dateOfBirth rows
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public List<List<String>> getFriendList (String userId) throws SQLException {
+      List<List<String>> rows = this._friendLists.get(userId);
+      if (rows == null) {
+         long generation = this._friendLists.generation();
+         Integer key = userKey(userId);
+         rows = executeQueryAndReturnResult(FRIEND_LIST_QUERY, key, key);
+         this._friendLists.put(userId, rows, generation);
+      }//end if
+      return rows;
+   }//end getFriendList
+
+   /**
+    * Returns the USR.userKey of a user, the value the other tables refer
+    * to the user by.
+    *
+    * @param userId the user
+    * @return the key, or UserKeys.NO_KEY if there is no such user
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public Integer userKey (String userId) throws SQLException {
+      return this._userKeys.key(userId);
+   }//end userKey
+
+   /**
+    * Returns the connection requests waiting for a user's decision.
+    *
+    * @param userId the user the requests were sent to
+    * @return userId and name rows of the requesters, by userId
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public List<List<String>> getPendingRequests (String userId) throws SQLException {
+      return executeQueryAndReturnResult(PENDING_REQUESTS_QUERY, userKey(userId));
+   }//end getPendingRequests
+
+   /**
+    * Drops the cached profile and friend list of a user whose USR row or
+    * connections have changed.
+    *
+    * @param userId the user
+    */
+   public void invalidateProfile (String userId) {
+      this._profiles.invalidate(userId);
+      this._friendLists.invalidate(userId);
+   }//end invalidateProfile
+
+   /**
+    * Returns the background loader that fills the profile caches.
+    */
+   public synchronized ProfilePrefetcher getPrefetcher () {
+      if (this._prefetcher == null)
+         this._prefetcher = ProfilePrefetcher.configured(this, this._pool.maxSize());
+      return this._prefetcher;
+   }//end getPrefetcher
+
+   /**
+    * Returns the timings of the statements executed so far.
+    */
+   public QueryStats getQueryStats () {
+      return this._stats;
+   }//end getQueryStats
+
+   /**
+    * Returns the cache behind getProfile.
+    */
+   public ProfileCache getProfileCache () {
+      return this._profiles;
+   }//end getProfileCache
+
+   /**
+    * Returns the cache behind getFriendList.
+    */
+   public ProfileCache getFriendListCache () {
+      return this._friendLists;
+   }//end getFriendListCache
+
+   /**
+    * Returns the filter of known userIds, reading USR on first use.
+    *
+    * @return the userId filter
+    * @throws java.sql.SQLException when failed to load the filter
+    */
+   public synchronized UserFilter getUserFilter () throws SQLException {
+      if (this._userFilter == null) {
+         GraphSnapshot snapshot = getGraphSnapshot();
+         this._userFilter = snapshot == null ? UserFilter.load(this) : snapshot.userFilter();
+      }//end if
+      return this._userFilter;
+   }//end getUserFilter
+
+   /**
+    * Returns false only if userId is certainly not in USR.  A negative
+    * from the UserFilter is only believed after the filter has caught up
+    * with the users created since it was filled, here or by other
+    * processes; that is one indexed read of the newest USR rows.
+    *
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public boolean mightExist (String userId) throws SQLException {
+      if (userId == null)
+         return false;
+      UserFilter filter = getUserFilter();
+      return filter.mightContain(userId) || (filter.catchUp(this) && filter.mightContain(userId));
+   }//end mightExist
+
+   /**
+    * Tells whether a user exists.  Unknown userIds are turned away by the
+    * UserFilter, see mightExist(); the filter's positives are confirmed
+    * through the profile cache, which FriendProfile reads next anyway.
+    *
+    * @param userId the user
+    * @return whether USR has a row for userId
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public boolean userExists (String userId) throws SQLException {
+      if (!mightExist(userId))
+         return false;
+      return !getProfile(userId).isEmpty();
+   }//end userExists
+
+   /**
+    * Adds a user, unless the userId is taken.
+    *
+    * @return false when a user with that userId already exists
+    * @throws java.sql.SQLException when failed to insert the user
+    */
+   public boolean createUser (String userId, String password, String email, String name, String dateOfBirth) throws SQLException {
+      if (userExists(userId))
+         return false;
+      executeUpdate(CREATE_USER_QUERY, userId, password, email, name, dateOfBirth);
+      getUserFilter().put(userId);
+      getNameIndex().put(userId, name);
+      invalidateProfile(userId);
+      return true;
+   }//end createUser
+
+   /**
+    * Finds the people whose name contains the given fragment, best match
+    * first.  Matches come from the NameIndex; their details are then read
+    * by primary key with one fixed-shape query, unused slots bound to NULL.
+    *
+    * @param fragment part of a name
+    * @param limit the maximum number of people returned, at most SEARCH_LIMIT
+    * @return rows of userId, name, email and dateOfBirth
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public List<List<String>> searchPeople (String fragment, int limit) throws SQLException {
+      List<String> ids = getNameIndex().search(fragment, Math.min(limit, SEARCH_LIMIT));
+      List<List<String>> result = new ArrayList<List<String>>();
+      if (ids.isEmpty())
+         return result;
+      Object[] params = new Object[SEARCH_LIMIT];
+      for (int i = 0; i < ids.size(); ++i)
+         params[i] = ids.get(i);
+      List<List<String>> rows = executeQueryAndReturnResult(PEOPLE_BY_ID_QUERY, params);
+      // the database returns them in any order; restore the ranking.
+      Map<String, List<String>> byId = new HashMap<String, List<String>>();
+      for (List<String> row : rows)
+         byId.put(row.get(0).trim(), row);
+      for (String id : ids)
+         if (byId.containsKey(id))
+            result.add(byId.get(id));
+      return result;
+   }//end searchPeople
+
+   /**
+    * Method to fetch one page of a user's received or sent messages, newest
+    * first.  Pages are keyed on (sendTime, msgId): the next page starts
+    * strictly after the last row of the previous one, so every page is a
+    * single range scan of the MESSAGE(receiverKey|senderKey, sendTime, msgId)
+    * index no matter how deep into the history it is.  Messages without a
+    * sendTime have no place in that order and are not listed.
+    *
+    * The page is read from MESSAGE; only when the hot messages run out
+    * before the page is full is the rest read from MESSAGE_ARCHIVE, which
+    * holds nothing newer than them (see MessageCompactor).
+    *
+    * Reading the newest received page clears the user's unread count.
+    *
+    * @param userId the owner of the mailbox
+    * @param sent true for messages the user sent, false for received ones
+    * @param after null for the newest page, otherwise { sendTime, msgId }
+    *        of the last message on the previous page
+    * @param limit the maximum number of messages returned
+    * @return rows of msgId, senderId, receiverId, contents, sendTime, status
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public List<List<String>> fetchMessagePage (String userId, boolean sent, Object[] after, int limit) throws SQLException {
+      Integer key = userKey(userId);
+      boolean newest = after == null;
+      List<List<String>> rows = new ArrayList<List<String>>(fetchMessagePage("MESSAGE", key, sent, after, limit));
+      if (rows.size() < limit) {
+         Object[] archiveAfter = after;
+         if (!rows.isEmpty()) {
+            List<String> last = rows.get(rows.size() - 1);
+            archiveAfter = new Object[] { Timestamp.valueOf(last.get(4).trim()), Integer.valueOf(last.get(0).trim()) };
+         }//end if
+         rows.addAll(fetchMessagePage(MessageCompactor.ARCHIVE_TABLE, key, sent, archiveAfter, limit - rows.size()));
+      }//end if
+      if (!sent && newest) {
+         NotificationHub notifications;
+         synchronized (this) {
+            notifications = this._notifications;
+         }
+         if (notifications != null)
+            notifications.markRead(userId);
+      }//end if
+      return rows;
+   }//end fetchMessagePage
+
+   private List<List<String>> fetchMessagePage (String table, Integer key, boolean sent, Object[] after, int limit) throws SQLException {
+      String owner = sent ? "M.senderKey" : "M.receiverKey";
+      // the deleteStatus values that hide a message from this side.
+      String hidden = sent ? "1, 3" : "2, 3";
+      String sql = "SELECT M.msgId, S.userId, R.userId, M.contents, M.sendTime, M.status " +
+         "FROM " + table + " M JOIN USR S ON S.userKey = M.senderKey JOIN USR R ON R.userKey = M.receiverKey " +
+         "WHERE " + owner + " = ? AND M.deleteStatus NOT IN (" + hidden + ") AND M.sendTime IS NOT NULL" +
+         (after == null ? "" : " AND (M.sendTime, M.msgId) < (?, ?)") +
+         " ORDER BY M.sendTime DESC, M.msgId DESC LIMIT ?";
+      if (after == null)
+         return executeQueryAndReturnResult(sql, key, limit);
+      return executeQueryAndReturnResult(sql, key, after[0], after[1], limit);
+   }//end fetchMessagePage
+
+   /**
+    * Hides a message from one side of the conversation.  The message is
+    * looked for in MESSAGE first and in MESSAGE_ARCHIVE only if it is not
+    * there.
+    *
+    * @param userId the sender when sent is true, otherwise the receiver
+    * @param sent which side userId is on
+    * @param msgId the message
+    * @return false when the message is not in that user's mailbox
+    * @throws java.sql.SQLException when failed to execute the update
+    */
+   public boolean deleteMessage (String userId, boolean sent, int msgId) throws SQLException {
+      Integer key = userKey(userId);
+      if (executeUpdate(sent ? DELETE_SENT_MESSAGE_QUERY : DELETE_RECEIVED_MESSAGE_QUERY,
+            Integer.valueOf(msgId), key) > 0)
+         return true;
+      return executeUpdate(sent ? DELETE_SENT_ARCHIVED_QUERY : DELETE_RECEIVED_ARCHIVED_QUERY,
+         Integer.valueOf(msgId), key) > 0;
+   }//end deleteMessage
+
+   /**
+    * Changes the given fields of a user's USR row; null fields are left
+    * alone.  Keeps the name index and the profile cache up to date.
+    *
+    * @param userId the user
+    * @param email the new email, or null
+    * @param name the new name, or null
+    * @param dateOfBirth the new date of birth, or null
+    * @throws java.sql.SQLException when failed to execute an update
+    */
+   public void updateProfile (String userId, String email, String name, String dateOfBirth) throws SQLException {
+      if (email != null)
+         executeUpdate("UPDATE USR SET email = ? WHERE userId = ?", email, userId);
+      if (name != null) {
+         executeUpdate("UPDATE USR SET name = ? WHERE userId = ?", name, userId);
+         getNameIndex().put(userId, name);
+      }//end if
+      if (dateOfBirth != null)
+         executeUpdate("UPDATE USR SET dateofbirth = ?::date WHERE userId = ?", dateOfBirth, userId);
+      invalidateProfile(userId);
+   }//end updateProfile
+
+   /**
+    * Sends a message.  The message gets its ID right away and is queued on
+    * the MessageWriter, which commits it together with other messages a
+    * few milliseconds later.  A message that then fails to be written is
+    * reported by the sender's next flushMessages(senderId).
+    *
+    * @param senderId the user sending the message
+    * @param receiverId the user receiving it
+    * @param contents the message text
+    * @return the ID of the new message
+    * @throws java.sql.SQLException when no ID could be reserved
+    */
+   public int sendMessage (String senderId, String receiverId, String contents) throws SQLException {
+      // the insert happens later on the writer thread, so check now.
+      int sender = userKey(senderId).intValue();
+      if (sender == UserKeys.NO_KEY)
+         throw new SQLException("There is no user " + senderId);
+      int receiver = userKey(receiverId).intValue();
+      if (receiver == UserKeys.NO_KEY)
+         throw new SQLException("There is no user " + receiverId);
+      int msgId = getCurrSeqVal(MESSAGE_SEQUENCE);
+      getMessageWriter().enqueue(msgId, sender, receiver, contents, new Timestamp(System.currentTimeMillis()));
+      return msgId;
+   }//end sendMessage
+
+   /**
+    * Waits until every message sent so far has been written, then reports
+    * the messages of the given sender that could not be.
+    *
+    * @param senderId the user whose failed messages are reported
+    * @throws java.sql.SQLException naming each message of senderId that
+    *         was not written since the last report
+    */
+   public void flushMessages (String senderId) throws SQLException {
+      flushMessages();
+      MessageWriter writer;
+      synchronized (this) {
+         writer = this._writer;
+      }
+      if (writer == null)
+         return;
+      int sender = userKey(senderId).intValue();
+      if (sender == UserKeys.NO_KEY)
+         return;
+      List<String> failures = writer.takeFailures(sender);
+      if (!failures.isEmpty())
+         throw new SQLException(join(failures, failures.size()));
+   }//end flushMessages
+
+   /**
+    * Waits until every message sent so far has been written.
+    */
+   public void flushMessages () {
+      MessageWriter writer;
+      synchronized (this) {
+         writer = this._writer;
+      }
+      if (writer != null)
+         writer.flush();
+   }//end flushMessages
+
+   private synchronized MessageWriter getMessageWriter () {
+      if (this._writer == null)
+         this._writer = new MessageWriter(this._pool, this._stats);
+      return this._writer;
+   }//end getMessageWriter
+
+   /**
+    * Returns the notification hub, starting its listener on first use.
+    */
+   public synchronized NotificationHub getNotificationHub () {
+      if (this._notifications == null) {
+         this._notifications = NotificationHub.configured(this);
+         this._notifications.start();
+      }//end if
+      return this._notifications;
+   }//end getNotificationHub
+
+   /**
+    * Checks a login against USR.
+    *
+    * @param userId the login
+    * @param password the password
+    * @return whether the userId and password match a user
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public boolean authenticate (String userId, String password) throws SQLException {
+      return executeQuery(LOGIN_QUERY, userId, password) > 0;
+   }//end authenticate
+
+   /**
+    * Sends a connection request if the connection rule allows it.
+    *
+    * @param userId the user asking
+    * @param target the user asked
+    * @return false when target is too far away from userId
+    * @throws java.sql.SQLException when failed to insert the request
+    */
+   public boolean requestConnection (String userId, String target) throws SQLException {
+      if (!userExists(target))
+         throw new SQLException("There is no user " + target);
+      if (!canRequestConnection(this, userId, target))
+         return false;
+      executeUpdate(REQUEST_CONNECTION_QUERY, userKey(userId), userKey(target));
+      return true;
+   }//end requestConnection
+
+   /**
+    * Accepts or rejects several pending connection requests in one
+    * transaction.  The updates go out as one JDBC batch; the in-memory
+    * connection graph is updated for the requests that were still pending.
+    *
+    * @param userId the user the requests were sent to
+    * @param requesters the users who sent the requests
+    * @param decision "Accept" or "Reject"
+    * @return the requesters whose request was decided
+    * @throws java.sql.SQLException when the transaction failed; nothing is changed then
+    */
+   public List<String> decideRequests (String userId, List<String> requesters, String decision) throws SQLException {
+      List<String> decided = new ArrayList<String>();
+      // a key lookup may take a connection of its own, so all are looked
+      // up before this one is held.
+      int key = userKey(userId).intValue();
+      int[] requesterKeys = new int[requesters.size()];
+      for (int i = 0; i < requesterKeys.length; ++i)
+         requesterKeys[i] = userKey(requesters.get(i)).intValue();
+      PooledConnection conn = this._pool.acquire();
+      Connection physical = conn.getConnection();
+      try {
+         physical.setAutoCommit(false);
+         PreparedStatement stmt = physical.prepareStatement(DECIDE_REQUEST_QUERY);
+         try {
+            for (int requesterKey : requesterKeys) {
+               stmt.setString(1, decision);
+               stmt.setInt(2, requesterKey);
+               stmt.setInt(3, key);
+               stmt.addBatch();
+            }//end for
+            long start = System.nanoTime();
+            int[] counts;
+            try {
+               counts = stmt.executeBatch();
+            } catch (SQLException e) {
+               this._stats.error(DECIDE_REQUEST_QUERY, start, e);
+               throw e;
+            }
+            this._stats.record(DECIDE_REQUEST_QUERY, start, counts.length, 0);
+            for (int i = 0; i < counts.length; ++i)
+               if (counts[i] > 0)
+                  decided.add(requesters.get(i));
+         } finally {
+            stmt.close();
+         }
+         physical.commit();
+      } catch (SQLException e) {
+         conn.rollbackQuietly();
+         throw e;
+      } finally {
+         conn.restoreAutoCommit(true);
+         this._pool.release(conn);
+      }
+
+      ConnectionRecommender recommender;
+      synchronized (this) {
+         recommender = this._recommender;
+      }
+      if (!decided.isEmpty())
+         invalidateProfile(userId);
+      for (String requester : decided)
+         invalidateProfile(requester);
+      // a pending request is no edge of the graph, so a rejected one
+      // leaves it alone; an edge between the two may come from an
+      // accepted row in the other direction.
+      if (decision.equals("Accept")) {
+         SocialGraph graph = getSocialGraph();
+         for (String requester : decided)
+            if (graph.addConnection(requester, userId) && recommender != null)
+               recommender.connectionAdded(requester, userId);
+      }//end if
+      return decided;
+   }//end decideRequests
+
+   /**
+    * Returns the users two users are both connected to.
+    *
+    * @throws java.sql.SQLException when failed to load the graph
+    */
+   public List<String> mutualConnections (String userId, String other) throws SQLException {
+      return getSocialGraph().mutualConnections(userId, other);
+   }//end mutualConnections
+
+   /**
+    * Returns one shortest chain of accepted connections from a user to
+    * another, both included, from the in-memory graph.  The search stops
+    * at PATH_MAX_HOPS connections and after PATH_BUDGET_MS milliseconds.
+    *
+    * @return the userIds on the chain; empty if there is none within
+    *         PATH_MAX_HOPS; null if the search ran out of time
+    * @throws java.sql.SQLException when failed to load the graph
+    */
+   public List<String> connectionPath (String userId, String other) throws SQLException {
+      return getSocialGraph().shortestPath(userId, other, PATH_MAX_HOPS,
+         java.util.concurrent.TimeUnit.MILLISECONDS.toNanos(PATH_BUDGET_MS));
+   }//end connectionPath
+
+   /**
+    * Returns the people a user may know, best first.
+    *
+    * @param userId the user
+    * @param limit the most suggestions returned
+    * @return rows of SUGGESTION_COLUMNS
+    * @throws java.sql.SQLException when failed to load the graph or profiles
+    */
+   public List<List<String>> suggestConnections (String userId, int limit) throws SQLException {
+      return getRecommender().suggest(userId, limit);
+   }//end suggestConnections
+
+   /**
+    * Returns the in-memory work and school search index, reading
+    * WORK_EXPR and EDUCATIONAL_DETAILS on first use.
+    *
+    * @return the facet index
+    * @throws java.sql.SQLException when failed to load the index
+    */
+   public synchronized FacetIndex getFacetIndex () throws SQLException {
+      if (this._facets == null)
+         this._facets = FacetIndex.load(this);
+      return this._facets;
+   }//end getFacetIndex
+
+   /**
+    * Brings the in-memory indexes that are loaded up to date with a row
+    * added to WORK_EXPR.
+    */
+   public void workAdded (String userId, String company, String role, String location) throws SQLException {
+      ConnectionRecommender recommender;
+      FacetIndex facets;
+      synchronized (this) {
+         recommender = this._recommender;
+         facets = this._facets;
+      }
+      if (recommender != null)
+         recommender.affiliationAdded(userId, company, false);
+      if (facets != null)
+         facets.addWork(userId, company, role, location);
+   }//end workAdded
+
+   /**
+    * Brings the in-memory indexes that are loaded up to date with a row
+    * added to EDUCATIONAL_DETAILS.
+    */
+   public void schoolAdded (String userId, String school, String major, String degree) throws SQLException {
+      ConnectionRecommender recommender;
+      FacetIndex facets;
+      synchronized (this) {
+         recommender = this._recommender;
+         facets = this._facets;
+      }
+      if (recommender != null)
+         recommender.affiliationAdded(userId, school, true);
+      if (facets != null)
+         facets.addSchool(userId, school, major, degree);
+   }//end schoolAdded
+
+   private synchronized ConnectionRecommender getRecommender () {
+      if (this._recommender == null)
+         this._recommender = ConnectionRecommender.configured(this);
+      return this._recommender;
+   }//end getRecommender
+
+   /**
+    * Returns the connection pool, for components that need to hold a
+    * connection across several statements (e.g. a transaction).
+    */
+   public ConnectionPool getPool () {
+      return this._pool;
+   }//end getPool
+
+   /**
+    * Method to close the physical connections if they are open.
     */
    public void cleanup(){
-      try{
-         if (this._connection != null){
-            this._connection.close ();
+      // write out queued messages while the pool is still open.
+      synchronized (this) {
+         if (this._prefetcher != null){
+            this._prefetcher.shutdown ();
+            this._prefetcher = null;
          }//end if
-      }catch (SQLException e){
-         // ignored.
-      }//end try
+         if (this._recommender != null){
+            this._recommender.shutdown ();
+            this._recommender = null;
+         }//end if
+         if (this._writer != null){
+            this._writer.close ();
+            this._writer = null;
+         }//end if
+         if (this._notifications != null){
+            this._notifications.shutdown ();
+            this._notifications = null;
+         }//end if
+         if (this._snapshot != null){
+            this._snapshot.shutdown ();
+            this._snapshot.run ();
+            this._snapshot = null;
+         }//end if
+      }
+      if (this._pool != null){
+         this._pool.close ();
+      }//end if
+      this._stats.close ();
    }//end cleanup
 
    /**
@@ -268,8 +1233,14 @@ public class ProfNetwork {
                default : System.out.println("Unrecognized choice!"); break;
             }//end switch
             if (authorisedUser != null) {
+              try{
+                esql.getNotificationHub().subscribe(authorisedUser);
+              }catch(Exception e){
+                System.err.println (e.getMessage ());
+              }
               boolean usermenu = true;
               while(usermenu) {
+                PrintNotifications(esql, authorisedUser);
                 System.out.println("MAIN MENU");
                 System.out.println("---------");
                 System.out.println("1. Goto Friend List");
@@ -281,8 +1252,10 @@ public class ProfNetwork {
                 System.out.println("7. Send Connection Request");
 		System.out.println("8. Accept/Reject Connection Requests");
 		System.out.println("9. Search People");
+		System.out.println("10. People You May Know");
+		System.out.println("11. Search by Work and School");
                 System.out.println(".........................");
-                System.out.println("10. Log out");
+                System.out.println("12. Log out");
                 switch (readChoice()){
                    case 1: FriendList(esql, authorisedUser); break;
                    case 2: FriendProfile(esql, authorisedUser); break;
@@ -293,10 +1266,13 @@ public class ProfNetwork {
 		   case 7: SendConnectionRequest(esql, authorisedUser); break;
 		   case 8: DecideRequests(esql, authorisedUser); break;
 		   case 9: SearchPeople(esql); break;
-                   case 10: usermenu = false; break;
+		   case 10: SuggestConnections(esql, authorisedUser); break;
+		   case 11: SearchByFacets(esql); break;
+                   case 12: usermenu = false; break;
                    default : System.out.println("Unrecognized choice!"); break;
                 }
               }
+              esql.getNotificationHub().unsubscribe(authorisedUser);
             }
          }//end while
       }catch(Exception e) {
@@ -350,6 +1326,10 @@ public class ProfNetwork {
       try{
          System.out.print("\tEnter user login: ");
          String login = in.readLine();
+         if (esql.userExists(login)) {
+            System.out.println("That login is already taken.");
+            return;
+         }//end if
          System.out.print("\tEnter user password: ");
          String password = in.readLine();
          System.out.print("\tEnter user email: ");
@@ -358,12 +1338,10 @@ public class ProfNetwork {
          String name = in.readLine();
 	 System.out.print("\tEnter user date of birth: ");
          String dob = in.readLine();
-	 //Creating empty contact\block lists for a user
-	 String query = String.format("INSERT INTO USR (userId, password, email, name, dateofbirth) VALUES ('%s','%s','%s','%s','%s')", 
-				      login, password, email, name, dob);
-
-         esql.executeUpdate(query);
-         System.out.println ("User successfully created!");
+         if (esql.createUser(login, password, email, name, dob))
+            System.out.println ("User successfully created!");
+         else
+            System.out.println ("That login is already taken.");
       }catch(Exception e){
          System.err.println (e.getMessage ());
       }
@@ -380,9 +1358,7 @@ public class ProfNetwork {
          System.out.print("\tEnter user password: ");
          String password = in.readLine();
 
-         String query = String.format("SELECT * FROM USR WHERE userId = '%s' AND password = '%s'", login, password);
-         int userNum = esql.executeQuery(query);
-	 if (userNum > 0)
+	 if (esql.authenticate(login, password))
 		return login;
          return null;
       }catch(Exception e){
@@ -391,6 +1367,115 @@ public class ProfNetwork {
       }
    }//end
 
+   /*
+    * Returns null for a blank answer so optional columns are stored as NULL
+    **/
+   static String emptyToNull(String value) {
+      if (value == null || value.trim().length() == 0)
+         return null;
+      return value;
+   }//end emptyToNull
+
+   // Parameterized menu queries.  Keeping the SQL text identical between
+   // calls is what lets each pooled connection reuse its prepared statement.
+   // Outside USR users are referred to by userKey; see UserKeys.
+   static final String CREATE_USER_QUERY =
+      "INSERT INTO USR (userId, password, email, name, dateofbirth) VALUES (?, ?, ?, ?, ?::date)";
+   static final String LOGIN_QUERY =
+      "SELECT * FROM USR WHERE userId = ? AND password = ?";
+   // an accepted row connects both users, whichever of them sent it, as
+   // in SocialGraph; the user's key is bound twice.
+   static final String FRIEND_LIST_QUERY =
+      "SELECT U.name, U.userId, U.email, U.dateOfBirth FROM USR U WHERE U.userKey IN (" +
+      "SELECT C.connectionKey FROM CONNECTION_USR C WHERE C.userKey = ? AND C.status = 'Accept' UNION " +
+      "SELECT C.userKey FROM CONNECTION_USR C WHERE C.connectionKey = ? AND C.status = 'Accept')";
+   static final String PROFILE_QUERY =
+      "SELECT U.name, U.userId, U.email, U.dateOfBirth FROM USR U WHERE U.userId = ?";
+   // columns of the rows returned by getProfile and getFriendList.
+   static final String[] PROFILE_COLUMNS = { "name", "userid", "email", "dateofbirth" };
+   static final String INSERT_MESSAGE_QUERY =
+      "INSERT INTO MESSAGE (msgId, senderKey, receiverKey, contents, sendTime, deleteStatus, status) " +
+      "VALUES (?, ?, ?, ?, ?, 0, 'Sent')";
+   static final String REQUEST_CONNECTION_QUERY =
+      "INSERT INTO CONNECTION_USR(userKey, connectionKey, status) VALUES(?, ?, 'Request')";
+   static final String PENDING_REQUESTS_QUERY =
+      "SELECT U.userId, U.name FROM CONNECTION_USR C, USR U " +
+      "WHERE C.connectionKey = ? AND C.status = 'Request' AND U.userKey = C.userKey ORDER BY U.userId";
+   static final String[] PENDING_COLUMNS = { "userid", "name" };
+   static final String PENDING_FROM_COMPANY_QUERY =
+      "SELECT U.userId FROM CONNECTION_USR C, USR U " +
+      "WHERE C.connectionKey = ? AND C.status = 'Request' AND U.userKey = C.userKey AND C.userKey IN " +
+      "(SELECT W.userKey FROM WORK_EXPR W WHERE LOWER(W.company) = LOWER(?))";
+   static final String PENDING_FROM_SCHOOL_QUERY =
+      "SELECT U.userId FROM CONNECTION_USR C, USR U " +
+      "WHERE C.connectionKey = ? AND C.status = 'Request' AND U.userKey = C.userKey AND C.userKey IN " +
+      "(SELECT E.userKey FROM EDUCATIONAL_DETAILS E WHERE LOWER(E.instituitionName) = LOWER(?))";
+   // columns of the rows returned by fetchMessagePage.
+   static final String[] MESSAGE_COLUMNS = { "msgid", "senderid", "receiverid", "contents", "sendtime", "status" };
+
+   // deleteStatus: 0 visible to both, 1 deleted by the sender, 2 deleted
+   // by the receiver, 3 deleted by both.
+   static final String DELETE_SENT_MESSAGE_QUERY =
+      "UPDATE MESSAGE SET deleteStatus = CASE WHEN deleteStatus = 2 THEN 3 ELSE 1 END " +
+      "WHERE msgId = ? AND senderKey = ? AND deleteStatus IN (0, 2)";
+   static final String DELETE_RECEIVED_MESSAGE_QUERY =
+      "UPDATE MESSAGE SET deleteStatus = CASE WHEN deleteStatus = 1 THEN 3 ELSE 2 END " +
+      "WHERE msgId = ? AND receiverKey = ? AND deleteStatus IN (0, 1)";
+   static final String DELETE_SENT_ARCHIVED_QUERY =
+      DELETE_SENT_MESSAGE_QUERY.replace("UPDATE MESSAGE ", "UPDATE " + MessageCompactor.ARCHIVE_TABLE + " ");
+   static final String DELETE_RECEIVED_ARCHIVED_QUERY =
+      DELETE_RECEIVED_MESSAGE_QUERY.replace("UPDATE MESSAGE ", "UPDATE " + MessageCompactor.ARCHIVE_TABLE + " ");
+
+   // the requester is userKey, the user deciding is connectionKey.
+   static final String DECIDE_REQUEST_QUERY =
+      "UPDATE CONNECTION_USR SET status = ?, changedAt = localtimestamp " +
+      "WHERE userKey = ? AND connectionKey = ? AND status = 'Request'";
+
+   // most people shown for one name search.
+   static final int SEARCH_LIMIT = 25;
+
+   // most values shown per facet under a work and school search.
+   static final int FACET_VALUES = 5;
+
+   // columns of the rows returned by searchPeople.
+   static final String[] PEOPLE_COLUMNS = { "userid", "name", "email", "dateofbirth" };
+   // columns of the rows returned by suggestConnections.
+   static final String[] SUGGESTION_COLUMNS = ConnectionRecommender.COLUMNS;
+
+   // fixed-shape lookup of up to SEARCH_LIMIT users by userId.
+   static final String PEOPLE_BY_ID_QUERY;
+   static {
+      StringBuilder sql = new StringBuilder("SELECT userId, name, email, dateOfBirth FROM USR WHERE userId IN (");
+      for (int i = 0; i < SEARCH_LIMIT; ++i)
+         sql.append(i == 0 ? "?" : ", ?");
+      PEOPLE_BY_ID_QUERY = sql.append(")").toString();
+   }
+
+   // levels of connection within which a request may be sent.
+   static final int MAX_CONNECTION_LEVEL = 3;
+
+   // connections a user may make before the level rule applies.
+   static final int FREE_CONNECTIONS = 5;
+
+   // how deep and how long connectionPath looks for a chain.
+   static final int PATH_MAX_HOPS = Integer.getInteger("profnetwork.pathMaxHops", 6);
+   static final long PATH_BUDGET_MS = Long.getLong("profnetwork.pathBudgetMs", 20L);
+
+   // minutes between writes of the graph snapshot, 0 for only at cleanup.
+   static final int SNAPSHOT_MINUTES =
+      Integer.getInteger("profnetwork.snapshotMinutes", GraphSnapshot.DEFAULT_MINUTES);
+
+   /*
+    * Applies the connection rule: users with fewer than FREE_CONNECTIONS
+    * connections may ask anyone, everyone else only users within
+    * MAX_CONNECTION_LEVEL levels.  Answered from the in-memory graph.
+    **/
+   static boolean canRequestConnection(ProfNetwork esql, String authorisedUser, String target) throws SQLException {
+      SocialGraph graph = esql.getSocialGraph();
+      return graph.degree(authorisedUser) < FREE_CONNECTIONS
+         || graph.withinHops(authorisedUser, target, MAX_CONNECTION_LEVEL);
+   }//end canRequestConnection
+
 // Rest of the functions definition go in here
 /*
  * case 1: FriendList(esql); break;
@@ -404,10 +1489,9 @@ public class ProfNetwork {
  */
    public static void FriendList(ProfNetwork esql, String authorisedUser){
       try{
-         String query = "SELECT U.name, U.userId, U.email, U.dateOfBirth FROM USR U WHERE U.userId IN " + 
-		 "(SELECT C.connectionID FROM CONNECTION_USR C WHERE C.userId = '" + authorisedUser
-	 + "' AND C.status = 'Accept')";
-         esql.executeQueryAndPrintResult(query);
+         Integer key = esql.userKey(authorisedUser);
+         if (esql.executeQueryAndPage(FRIEND_LIST_QUERY, PROFILE_COLUMNS, "U.userId", 1, key, key) == 0)
+            System.out.println("You have no connections yet.");
       }catch(Exception e){
          System.err.println (e.getMessage ());
       }
@@ -415,12 +1499,8 @@ public class ProfNetwork {
    public static void FriendProfile(ProfNetwork esql, String authorisedUser){
       try{
 	 boolean viewingFriends = true;
-	 int connectionDepth = 0;
 	 while(viewingFriends) {
-		String query = "SELECT U.name, U.userId, U.email, U.dateOfBirth FROM USR U WHERE U.userId IN " + 
-		"(SELECT C.connectionID FROM CONNECTION_USR C WHERE C.userId = '" + authorisedUser
-	 	+ "' AND C.status = 'Accept')";
-         	int numOfFriends = esql.executeQueryAndPrintResult(query);
+         	printFriends(esql, authorisedUser);
 	 	System.out.println("Input the userId of the friend you'd like to visit or type [Exit] to return to main menu: ");
 	 	String friendName = in.readLine();
 		boolean furtherLooking = false;
@@ -431,23 +1511,22 @@ public class ProfNetwork {
 			viewingFriends = false;
 		}
 		while(furtherLooking){
-			if (!friendName.equals(authorisedUser)) {
-				connectionDepth++;
+			if (!esql.userExists(friendName)) {
+				System.out.println("There is no user with that userId.");
+				furtherLooking = false;
+				continue;
 			}
 			System.out.println("Current selected user: ");
-			String viewCurrFriend = "SELECT U.name, U.userId, U.email, U.dateOfBirth FROM USR U WHERE U.userId = '" +
-						friendName + "'";
-			esql.executeQueryAndPrintResult(viewCurrFriend);
+			esql.getPrefetcher().await(friendName);
+			printRows(PROFILE_COLUMNS, esql.getProfile(friendName));
+			printConnection(esql, authorisedUser, friendName);
 			System.out.println("Current user's friend list: ");
-			String viewFriendQuery = "SELECT U.name, U.userId, U.email, U.dateOfBirth FROM USR U WHERE U.userId IN " + 
-						 "(SELECT C.connectionID FROM CONNECTION_USR C WHERE C.userId = '" + friendName
-	 					 + "' AND C.status = 'Accept')";
-			esql.executeQueryAndPrintResult(viewFriendQuery);
+			printFriends(esql, friendName);
 			System.out.println("What do you want to do? (1 to Send Message, 2 to Send Connection Request, 3 to Find Further Users, 4 to Exit): ");
 			boolean newFriendNeeded = false;
 			switch(readChoice()) {
 				case 1: SendMessage(esql, authorisedUser, friendName); break;
-				case 2: if (numOfFriends <= 5 || connectionDepth <=4) {
+				case 2: if (canRequestConnection(esql, authorisedUser, friendName)) {
 					   SendConnectionRequest(esql, authorisedUser, friendName);
 					}
 					else {
@@ -470,6 +1549,9 @@ public class ProfNetwork {
 	 }
       }catch(Exception e){
          System.err.println (e.getMessage ());
+      }finally{
+         // the user has left; nobody is waiting for the rest.
+         esql.getPrefetcher().cancel();
       }
    }//end
    public static void UpdateProfile(ProfNetwork esql, String authorisedUser){
@@ -487,20 +1569,17 @@ public class ProfNetwork {
 	 switch(readChoice()) {
 		 case 1: System.out.println("Enter your new email: ");
 		 	 String newEmail = in.readLine();
-		 	 String emailQuery = "UPDATE USR SET email = '" +newEmail + "' WHERE userId = '" + authorisedUser+"'";
-		 	 esql.executeUpdate(emailQuery);
+		 	 esql.updateProfile(authorisedUser, newEmail, null, null);
 		 	 System.out.println("Email updated!");
 		 	 break;
 		 case 2: System.out.println("Enter your new name: ");
 		 	 String newName = in.readLine();
-		 	 String nameQuery = "UPDATE USR SET name = '" + newName + "' WHERE userId = '" + authorisedUser+"'";
-		 	 esql.executeUpdate(nameQuery);
+		 	 esql.updateProfile(authorisedUser, null, newName, null);
 		 	 System.out.println("Name updated!");
 		 	 break;
 		 case 3: System.out.println("Enter your new date of birth: ");
 		 	 String newDOB = in.readLine();
-		 	 String DOBQuery = "UPDATE USR SET dateofbirth = '" + newDOB + "' WHERE userId = '" + authorisedUser+"'";
-		 	 esql.executeUpdate(DOBQuery);
+		 	 esql.updateProfile(authorisedUser, null, null, newDOB);
 		 	 System.out.println("Date of Birth updated!");
 		 	 break;
 		 case 4: System.out.println("Which part of your Work would you like to change?\n" +
@@ -522,11 +1601,11 @@ public class ProfNetwork {
 							     " Otherwise just press [ENTER]: ");
 				 	 String endDate = in.readLine();
 				 	 String createWorkExperience = "INSERT INTO WORK_EXPR(" +
-						 "userId, company, role, location, startdate, enddate)" +
-						 " VALUES('" + authorisedUser + "',' " + company + "', '" +
-						 role + "', '" + location + "', '" + startDate + "', '" +
-						 endDate + "')";
-				 	 esql.executeUpdate(createWorkExperience);
+						 "userKey, company, role, location, startdate, enddate)" +
+						 " VALUES(?, ?, ?, ?, ?::date, ?::date)";
+				 	 esql.executeUpdate(createWorkExperience, esql.userKey(authorisedUser), company, role,
+						 emptyToNull(location), startDate, emptyToNull(endDate));
+				 	 esql.workAdded(authorisedUser, company, role, emptyToNull(location));
 				 	 System.out.println("Work Experience Created!");
 				 	 break;
 				 case 2: System.out.println("Which previous company are you updating for?: ");
@@ -556,19 +1635,14 @@ public class ProfNetwork {
 				 	 System.out.println("Please input your ending date. If this is your current school, enter [Current]: ");
 				 	 String endDate = in.readLine();
 					 String createWorkExperience = "INSERT INTO EDUCATIONAL_DETAILS(" +
-						 "userId, instituitionName, major, degree, startdate, enddate)" +
-						 " VALUES('" + authorisedUser + "',' " + schoolName + "', '" +
-						 major + "', '" + degree + "', '" + startDate + "', '" +
-						 endDate + "')";
+						 "userKey, instituitionName, major, degree, startdate, enddate)" +
+						 " VALUES(?, ?, ?, ?, ?::date, ?::date)";
 					 if (endDate.toLowerCase().equals("current")) {
-						Date currDate = new Date();
-						createWorkExperience = "INSERT INTO EDUCATIONAL_DETAILS(" +
-						 "userId, instituitionName, major, degree, startdate, enddate)" +
-						 " VALUES('" + authorisedUser + "',' " + schoolName + "', '" +
-						 major + "', '" + degree + "', '" + startDate + "', '" +
-						 currDate + "')";
+						endDate = new java.sql.Date(new Date().getTime()).toString();
 					 }
-				 	 esql.executeUpdate(createWorkExperience);
+				 	 esql.executeUpdate(createWorkExperience, esql.userKey(authorisedUser), schoolName,
+						 major, degree, startDate, endDate);
+				 	 esql.schoolAdded(authorisedUser, schoolName, major, degree);
 				 	 System.out.println("School History Created!");
 				 	 break;
 				 case 2: System.out.println("Which previous school are you updating for?: ");
@@ -583,6 +1657,8 @@ public class ProfNetwork {
 		 default: System.out.println("Unrecognized input, exiting...");
 			  break;
 	 }
+	 // whatever was changed, the cached profile is stale now.
+	 esql.invalidateProfile(authorisedUser);
 	 
       }catch(Exception e){
          System.err.println (e.getMessage ());
@@ -597,8 +1673,8 @@ public class ProfNetwork {
 	 	if (authUser != null) {
 			 System.out.println("User recognized! Please input your new password: ");
 			 String newPass = in.readLine();	
-			 String passQuery = "UPDATE USR SET password = '" + newPass + "' WHERE userId = '" + authUser+"'";
-			 esql.executeUpdate(passQuery);
+			 esql.executeUpdate("UPDATE USR SET password = ? WHERE userId = ?", newPass, authUser);
+			 esql.invalidateProfile(authUser);
 			 System.out.println("Password successfully updated!");
 			 tryingToLogin = false;
 		} else {
@@ -627,8 +1703,7 @@ public class ProfNetwork {
 	 while(searchingForUser) {
 		 System.out.println("Input name (not userId) of user you would like to send a message to: ");
 	 	 String userName = in.readLine();
-	 	 String userQuery = "SELECT userId, email, name, dateofbirth FROM USR WHERE name LIKE '%" + userName + "%'";
-	 	 esql.executeQueryAndPrintResult(userQuery);
+	 	 printPeople(esql.searchPeople(userName, SEARCH_LIMIT));
 		 System.out.println("Did you find the user you were looking for? (1 for Yes, 2 for No and Search Again, 3 to Exit): ");
 		 switch(readChoice()) {
 			 case 1: searchingForUser = false;
@@ -646,13 +1721,7 @@ public class ProfNetwork {
 		 String userID = in.readLine();
 		 System.out.println("Please enter the message you wish to send. Do not press [Enter] until your message is complete: ");
 		 String userMessage = in.readLine();
-		 Date currDate = new Date();
-		 String sequence = "MessageIDSequence";
-		 int messageID = esql.getCurrSeqVal(sequence); //Needs to be a sequence value, will fix in future.
-		
-		 String insertMessageQuery = "INSERT INTO MESSAGE VALUES ('" + messageID + "', '" + authorisedUser +
-			 		     "', '" + userID + "', '" + userMessage + "', '" + currDate + "', 0, 'Sent')";
-		 esql.executeUpdate(insertMessageQuery);
+		 esql.sendMessage(authorisedUser, userID, userMessage);
 		 System.out.println("Message Sent!");
 	 }
          
@@ -665,12 +1734,7 @@ public class ProfNetwork {
       try{
 	System.out.println("Please enter the message you wish to send. Do not press [Enter] until your message is complete: ");
 	String userMessage = in.readLine();
-	Date currDate = new Date();
-	String sequence = "MessageIDSequence";
-	int messageID = esql.getCurrSeqVal(sequence); //Needs to be a sequence value, will fix in future.	
-	String insertMessageQuery = "INSERT INTO MESSAGE VALUES ('" + messageID + "', '" + authorisedUser +
-			 	    "', '" + userID + "', '" + userMessage + "', '" + currDate + "', 0, 'Sent')";
-	esql.executeUpdate(insertMessageQuery);
+	esql.sendMessage(authorisedUser, userID, userMessage);
 	System.out.println("Message Sent!");
       }catch(Exception e){
          System.err.println (e.getMessage ());
@@ -678,28 +1742,64 @@ public class ProfNetwork {
    }//end
   public static void ViewMessages(ProfNetwork esql, String authorisedUser){
       try{
-	 
+	 System.out.println("Which messages do you want to see? (1 for Received, 2 for Sent, 3 to Exit): ");
+	 boolean sent;
+	 switch(readChoice()) {
+		 case 1: sent = false; break;
+		 case 2: sent = true; break;
+		 default: return;
+	 }
+	 // make sure messages still queued for writing show up.
+	 try {
+	    esql.flushMessages(authorisedUser);
+	 }catch(SQLException e){
+	    System.out.println(e.getMessage());
+	 }
 	 System.out.println("Displaying messages...");
 	 System.out.println("**********************");
-         String query = "SELECT * FROM MESSAGE M WHERE (M.senderId = '" + authorisedUser +"' AND (M.deleteStatus = 0 OR M.deleteStatus = 2)) OR (M.receiverId = '" + authorisedUser +"' AND (M.deleteStatus = 0 OR M.deleteStatus = 1))" ;
-         int numOfMessages = esql.executeQueryAndPrintResult(query);
-	 boolean deciding = true;
-	 if (numOfMessages < 1) {
-		 System.out.println("No messages received yet!");
-		 deciding = false;
-	 }
-	 while(deciding) {
-		 System.out.println("Do you want to delete any messages? (1 for Yes, 2 for No): ");
+	 int pageSize = ResultPager.configuredPageSize();
+	 // where each earlier page started, for going back; null is the newest message.
+	 List<Object[]> pageStarts = new ArrayList<Object[]>();
+	 Object[] start = null;
+	 boolean viewing = true;
+	 while(viewing) {
+		 // one extra row tells whether there is a next page.
+		 List<List<String>> page = esql.fetchMessagePage(authorisedUser, sent, start, pageSize + 1);
+		 boolean hasMore = page.size() > pageSize;
+		 if (hasMore) {
+			 page = page.subList(0, pageSize);
+		 }
+		 if (page.isEmpty() && start == null) {
+			 System.out.println(sent ? "No messages sent yet!" : "No messages received yet!");
+			 return;
+		 }
+		 printRows(MESSAGE_COLUMNS, page);
+		 System.out.println("What next? (1 for Next Page, 2 for Previous Page, 3 to Delete a Message, 4 to Exit): ");
 		 switch(readChoice()) {
-			 case 1: System.out.println("Which message do you want to delete? (Enter full message ID here): ");
+			 case 1: if (hasMore) {
+					 pageStarts.add(start);
+					 List<String> last = page.get(page.size() - 1);
+					 start = new Object[] { Timestamp.valueOf(last.get(4).trim()), Integer.valueOf(last.get(0).trim()) };
+				 } else {
+					 System.out.println("This is the last page.");
+				 }
+				 break;
+			 case 2: if (!pageStarts.isEmpty()) {
+					 start = pageStarts.remove(pageStarts.size() - 1);
+				 } else {
+					 System.out.println("This is the first page.");
+				 }
+				 break;
+			 case 3: System.out.println("Which message do you want to delete? (Enter full message ID here): ");
 				 String mID = in.readLine();
-				 String messageQuery = "UPDATE MESSAGE SET deleteStatus=1 WHERE msgId = '" + mID + "'";
-				 esql.executeUpdate(messageQuery);
-				 System.out.println("Message successfully deleted for User!");
-				 deciding = false;
+				 if (esql.deleteMessage(authorisedUser, sent, Integer.parseInt(mID.trim()))) {
+					 System.out.println("Message successfully deleted for User!");
+				 } else {
+					 System.out.println("That message is not on this list.");
+				 }
 				 break;
-			 case 2: deciding = false; break;
-			 default: System.out.println("Please enter 1 for yes or 2 for no.");
+			 case 4: viewing = false; break;
+			 default: System.out.println("Please enter a number from 1 to 4.");
 				  break;
 		 }
 	 }
@@ -714,8 +1814,7 @@ public class ProfNetwork {
 while(searchingForUser) {
 		 System.out.println("Input name (not userId) of user you would like to connect with ");
 	 	 String userName = in.readLine();
-	 	 String userQuery = "SELECT userId, email, name, dateofbirth FROM USR WHERE name LIKE '%" + userName + "%'";
-	 	 esql.executeQueryAndPrintResult(userQuery);
+	 	 printPeople(esql.searchPeople(userName, SEARCH_LIMIT));
 		 System.out.println("Did you find the user you were looking for? (1 for Yes, 2 for No and Search Again, 3 to Exit): ");
 		 switch(readChoice()) {
 			 case 1: searchingForUser = false;
@@ -729,32 +1828,9 @@ while(searchingForUser) {
 		 }
 	 }
 if (foundRightUser) {
-        int connectionLevel=0;
-        boolean canAdd=false;
-        String countQuery;
         System.out.println("Please enter the exact userId of the user you want to connect with: ");
         String connection=in.readLine();
-        String query= "SELECT * FROM CONNECTION_USR C WHERE C.userId='"+authorisedUser+"' AND C.status='Accept'";
-        int numC=esql.executeQuery(query);
-        if(numC<5)
-        	canAdd=true;
-        else {
-        	query="SELECT * FROM CONNECTION_USR C WHERE C.userId= '"+authorisedUser+"' AND C.status='Accept'";
-        	countQuery="SELECT C.connectionId FROM CONNECTION_USR C  WHERE C.userId= '"+authorisedUser+"' AND C.status='Accept' AND C.connectionId='"+connection+"'";
-        	numC=esql.executeQuery(query);
-		
-        	while (connectionLevel<3 || numC>=0){
-        		connectionLevel+=1;
-        		query="SELECT C.connectionId FROM CONNECTION_USR C WHERE C.userId="+ query ;
-			countQuery="SELECT COUNT(*) FROM CONNECTION_USR WHERE "+query+"AND C.connectionId='"+connection+"'";
-       			numC=esql.executeQuery(countQuery);
-        }
-        if(numC>0&&connectionLevel<4)
-        	canAdd=true;
-        }
-	if(canAdd){
-		query="INSERT INTO CONNECTION_USR(userId,connectionId, status) VALUES('"+authorisedUser+"','"+connection+"','Request')";
-		esql.executeUpdate(query);
+	if(esql.requestConnection(authorisedUser, connection)){
 		System.out.println ("Connection requested successfully created!");
 	}
 	else{
@@ -767,9 +1843,11 @@ if (foundRightUser) {
    }//end
    public static void SendConnectionRequest(ProfNetwork esql, String authorisedUser, String friendName) { //Overloaded function for FriendProfile functionality
 	try {
-	   String query = "INSERT INTO CONNECTION_USR(userId,connectionId, status) VALUES('"+authorisedUser+"','"+friendName+"','Request')";
-	   esql.executeUpdate(query);
-	   System.out.println ("Connection requested successfully created!");
+	   // the same checks and graph rule as the menu and the server.
+	   if (esql.requestConnection(authorisedUser, friendName))
+	      System.out.println ("Connection requested successfully created!");
+	   else
+	      System.out.println ("ERROR, Connection not requested successfully created!");
 	}catch(Exception e){
            System.err.println (e.getMessage ());
 	}
@@ -777,61 +1855,202 @@ if (foundRightUser) {
 
    public static void DecideRequests(ProfNetwork esql, String authorisedUser){
       try{
-         String query = "SELECT * FROM CONNECTION_USR C WHERE C.connectionId ='"+authorisedUser +"' AND C.status != 'Accept' AND C.status != 'Reject'";
-         int numOfUnDecided = esql.executeQueryAndPrintResult(query);
+	 // read the pending requests once; decisions are applied to this copy.
+	 List<List<String>> pending = esql.getPendingRequests(authorisedUser);
 	 boolean deciding = true;
-	 boolean deciding2 = false;
-	 if (numOfUnDecided < 1) {
-		 System.out.println("No connection requests yet...");
-		 deciding = false;
-	 }
 	 while(deciding) {
-		 System.out.println("Select a connection to accept or decline using its connection ID " +
-				    "(If you wish to exit instead, Please Type [Exit]): ");
-		 
-		 String connectionID =in.readLine();
-		 if(!connectionID.toLowerCase().equals("exit")) {
-			 deciding2 = true;
-			 while(deciding2){
-				 System.out.println("What do you want to do with the connection? (1 for Accept, 2 for Decline, 3 to exit): ");
-				 switch(readChoice()) {
-					 case 1: String acceptQuery = "UPDATE CONNECTION_USR SET status = 'Accept' WHERE connectionId = '" + connectionID + 
-						 "' AND userId = '" + authorisedUser + "'";
-						 esql.executeUpdate(acceptQuery);
-						 System.out.println("Connection Accepted!");
-						 deciding2 = false;
-						 break;
-					 case 2: String declineQuery = "UPDATE CONNECTION_USR SET status = 'Reject' WHERE connectionId = '" + connectionID + 
-						 "' AND userId = '" + authorisedUser + "'";
-						 esql.executeUpdate(declineQuery);
-						 System.out.println("Connection Declined.");
-						 deciding2 = false;
-						 break;
-					 case 3: deciding2 = false; break;
-					 default: System.out.println("Unrecognized Input, please input a valid answer.");
-						  break;
-				 }
-				 System.out.println("Connection Requests Left: ");
-				 String connections = "SELECT * FROM CONNECTION_USR C WHERE C.connectionId ='"+authorisedUser +
-							 "' AND C.status != 'Accept' AND C.status != 'Reject'";
-				 esql.executeQueryAndPrintResult(connections);
-			 }
+		 if (pending.isEmpty()) {
+			 System.out.println("No connection requests yet...");
+			 break;
 		 }
-		 else{
-			deciding = false;
-			deciding2 = false;
+		 System.out.println("Connection Requests Left: ");
+		 printRows(PENDING_COLUMNS, pending);
+		 System.out.println("Which requests do you want to decide on?\n" +
+				    "1 for Some userIds (separated by commas)\n" +
+				    "2 for Everyone who worked at a company\n" +
+				    "3 for Everyone who studied at a school\n" +
+				    "4 for All of them\n" +
+				    "5 to exit");
+		 List<String> chosen = new ArrayList<String>();
+		 switch(readChoice()) {
+			 case 1: System.out.println("Enter the userIds: ");
+				 String[] ids = in.readLine().split(",");
+				 for (String id : ids)
+					 if (id.trim().length() > 0)
+						 chosen.add(id.trim());
+				 break;
+			 case 2: System.out.println("Enter the company: ");
+				 for (List<String> row : esql.executeQueryAndReturnResult(PENDING_FROM_COMPANY_QUERY, esql.userKey(authorisedUser), in.readLine().trim()))
+					 chosen.add(row.get(0).trim());
+				 break;
+			 case 3: System.out.println("Enter the school: ");
+				 for (List<String> row : esql.executeQueryAndReturnResult(PENDING_FROM_SCHOOL_QUERY, esql.userKey(authorisedUser), in.readLine().trim()))
+					 chosen.add(row.get(0).trim());
+				 break;
+			 case 4: for (List<String> row : pending)
+					 chosen.add(row.get(0).trim());
+				 break;
+			 case 5: deciding = false; continue;
+			 default: System.out.println("Unrecognized Input, please input a valid answer.");
+				  continue;
+		 }
+		 if (chosen.isEmpty()) {
+			 System.out.println("No pending requests matched.");
+			 continue;
 		 }
+		 System.out.println("What do you want to do with these " + chosen.size() +
+				    " requests? (1 for Accept, 2 for Decline, 3 to exit): ");
+		 String decision;
+		 switch(readChoice()) {
+			 case 1: decision = "Accept"; break;
+			 case 2: decision = "Reject"; break;
+			 default: continue;
+		 }
+		 List<String> decided = esql.decideRequests(authorisedUser, chosen, decision);
+		 System.out.println(decided.size() + (decision.equals("Accept") ? " connections accepted." : " connections declined."));
+		 if (decided.size() < chosen.size())
+			 System.out.println((chosen.size() - decided.size()) + " of them had no pending request.");
+		 // drop the decided requests from the local copy instead of re-querying.
+		 java.util.Set<String> done = new java.util.HashSet<String>(decided);
+		 for (java.util.Iterator<List<String>> it = pending.iterator(); it.hasNext(); )
+			 if (done.contains(it.next().get(0).trim()))
+				 it.remove();
 	 }
       }catch(Exception e){
          System.err.println (e.getMessage ());
       }
    }//end
+   /*
+    * Prints rows held in memory through the console renderer
+    **/
+   static void printRows(String[] columns, List<List<String>> result) throws java.io.IOException {
+      List<String[]> rows = new ArrayList<String[]>(result.size());
+      for (List<String> row : result)
+         rows.add(row.toArray(new String[row.size()]));
+      ResultRenderer.forConsole().renderPage(columns, rows, true);
+   }//end printRows
+
+   /*
+    * Shows a friend list and starts loading the friends on it in the
+    * background, so whichever the user picks next is likely cached.
+    **/
+   static void printFriends(ProfNetwork esql, String userId) throws Exception {
+      List<List<String>> friends = esql.getFriendList(userId);
+      printRows(PROFILE_COLUMNS, friends);
+      List<String> ids = new ArrayList<String>(friends.size());
+      for (List<String> friend : friends)
+         ids.add(friend.get(1));
+      esql.getPrefetcher().prefetch(ids);
+   }//end printFriends
+
+   /*
+    * Prints how the user is connected to another: a shortest chain of
+    * connections and the connections they have in common
+    **/
+   static void printConnection(ProfNetwork esql, String userId, String other) throws SQLException {
+      if (userId.trim().equals(other.trim()))
+         return;
+      List<String> path = esql.connectionPath(userId, other);
+      if (path == null)
+         System.out.println("Could not work out how you are connected in time.");
+      else if (path.isEmpty())
+         System.out.println("You are not within " + PATH_MAX_HOPS + " connections of " + other.trim() + ".");
+      else {
+         StringBuilder chain = new StringBuilder("You");
+         for (int i = 1; i < path.size(); ++i)
+            chain.append(" -> ").append(path.get(i));
+         System.out.println("How you are connected: " + chain);
+      }//end if
+      List<String> mutual = esql.mutualConnections(userId, other);
+      if (!mutual.isEmpty())
+         System.out.println("Mutual connections (" + mutual.size() + "): " + join(mutual, SEARCH_LIMIT));
+   }//end printConnection
+
+   // the first limit values, separated by commas.
+   static String join(List<String> values, int limit) {
+      StringBuilder out = new StringBuilder();
+      for (int i = 0; i < values.size() && i < limit; ++i)
+         out.append(i == 0 ? "" : ", ").append(values.get(i));
+      if (values.size() > limit)
+         out.append(", ...");
+      return out.toString();
+   }//end join
+
+   /*
+    * Prints the rows returned by searchPeople, or a note when there are none
+    **/
+   static void printPeople(List<List<String>> people) throws java.io.IOException {
+      if (people.isEmpty()) {
+         System.out.println("No one matched that name.");
+         return;
+      }//end if
+      printRows(PEOPLE_COLUMNS, people);
+      if (people.size() == SEARCH_LIMIT)
+         System.out.println("Showing the best " + SEARCH_LIMIT + " matches; type more of the name to narrow them down.");
+   }//end printPeople
+
+   /*
+    * Prints what arrived for the user since the last look, if anything,
+    * from the counts kept by the notification hub
+    **/
+   public static void PrintNotifications(ProfNetwork esql, String authorisedUser){
+      NotificationHub.Mailbox box = esql.getNotificationHub().mailbox(authorisedUser);
+      if (box == null)
+         return;
+      int unread = box.unread();
+      int pending = box.pending();
+      if (unread > 0)
+         System.out.println("You have " + unread + (unread == 1 ? " new message." : " new messages."));
+      if (pending > 0)
+         System.out.println("You have " + pending + (pending == 1 ? " connection request" : " connection requests") +
+            " waiting for you.");
+   }//end
+
+   public static void SuggestConnections(ProfNetwork esql, String authorisedUser){
+      try {
+	 List<List<String>> suggestions = esql.suggestConnections(authorisedUser, ConnectionRecommender.DEFAULT_LIMIT);
+	 if (suggestions.isEmpty()) {
+	    System.out.println("No suggestions yet; connect with someone or add your work and schools first.");
+	    return;
+	 }//end if
+	 printRows(SUGGESTION_COLUMNS, suggestions);
+	 System.out.println("Use Send Connection Request to connect with any of them.");
+      }catch(Exception e){
+         System.err.println (e.getMessage ());
+      }
+   }//end
+
+   public static void SearchByFacets(ProfNetwork esql){
+      try {
+         System.out.println("Enter facet:value terms, e.g. role:\"Senior Developer\" company:Babbleopia major:history");
+         System.out.println("(facets: company, role, location, school, major, degree; a|b for either value): ");
+	 String query = in.readLine();
+	 FacetIndex.Found found = esql.getFacetIndex().find(query, SEARCH_LIMIT, FACET_VALUES);
+	 int total = found.total;
+	 if (total == 0) {
+	    System.out.println("No one matched all of those.");
+	    return;
+	 }//end if
+	 List<List<String>> rows = new ArrayList<List<String>>();
+	 for (String userId : found.users)
+	    rows.add(Arrays.asList(userId));
+	 printRows(new String[] { "userid" }, rows);
+	 if (total > SEARCH_LIMIT)
+	    System.out.println("Showing " + SEARCH_LIMIT + " of " + total + " people; add terms to narrow them down.");
+	 System.out.println("Among them: ");
+	 printRows(FacetIndex.COUNT_COLUMNS, found.counts);
+      }catch(IllegalArgumentException e){
+         System.out.println (e.getMessage ());
+      }catch(Exception e){
+         System.err.println (e.getMessage ());
+      }
+   }//end
+
    public static void SearchPeople(ProfNetwork esql){
       try {
          System.out.println("Enter name of person you want to look for: ");
 	 String userName = in.readLine();
-	 String userQuery = "SELECT name, email, dateOfBirth, userId FROM USR WHERE name LIKE '%" + userName + "%'";
-	 esql.executeQueryAndPrintResult(userQuery);
+	 printPeople(esql.searchPeople(userName, SEARCH_LIMIT));
       }catch(Exception e){
          System.err.println (e.getMessage ());
       }
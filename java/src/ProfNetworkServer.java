@@ -0,0 +1,599 @@
+/*
+ * HTTP/JSON Server
+ * =============================
+ * Edward Martens (862256447), Cody Phu (862107077)
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.security.SecureRandom;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves the menu operations as JSON over HTTP, for many users from one
+ * process and one connection pool.
+ *
+ * Parameters come from the query string and, for POST, from a form
+ * encoded body.  POST /login answers a session token, which every other
+ * call passes as "Authorization: Bearer TOKEN"; sessions end on
+ * POST /logout or after -Dprofnetwork.sessionMinutes idle minutes.
+ *
+ *    POST /login             userId, password
+ *    POST /logout
+ *    GET  /friends           [userId]
+ *    GET  /profile           [userId]
+ *    POST /profile           [email] [name] [dateOfBirth]
+ *    GET  /search            q [limit]
+ *    GET  /messages          [box=received|sent] [limit] [beforeTime beforeId]
+ *    POST /messages          to, contents
+ *    POST /messages/delete   msgId [box]
+ *    GET  /requests
+ *    POST /requests          userId
+ *    POST /requests/decide   decision=accept|reject, userIds (comma separated)
+ *    GET  /suggestions       [limit]
+ *    GET  /connection        userId
+ *    GET  /find              q (facet:value terms) [limit]
+ *    GET  /notifications     [since] [wait]
+ *
+ * GET /notifications answers the user's unread message and pending
+ * request counts, a version, and the events newer than the version given
+ * as since.  With wait it is a long poll: it answers once the version
+ * passes since, or after wait seconds, at most MAX_WAIT_SECONDS, so a
+ * client learns about new mail without polling the message queries.
+ * Waits are parked on their own pool of -Dprofnetwork.waitThreads
+ * threads, not the request threads; when every wait thread is taken the
+ * call is answered at once and the client simply polls again.
+ *
+ * Rows are answered as {"columns":[...],"rows":[[...]]}, failures as
+ * {"error":"..."} with a 4xx or 5xx status.  Requests are handled by a
+ * fixed pool of -Dprofnetwork.serverThreads threads.  Every
+ * -Dprofnetwork.compactMinutes minutes (0 for never) a MessageCompactor
+ * pass moves cold messages into the archive.
+ */
+public class ProfNetworkServer implements HttpHandler {
+
+   public static final int DEFAULT_HTTP_PORT = 8080;
+   public static final int DEFAULT_THREADS = 64;
+   public static final int DEFAULT_WAIT_THREADS = 256;
+   public static final int DEFAULT_POOL_SIZE = 16;
+   public static final int DEFAULT_SESSION_MINUTES = 30;
+   public static final int DEFAULT_COMPACT_MINUTES = 60;
+
+   // most messages answered per page.
+   private static final int MAX_PAGE = 100;
+
+   // largest request body read.
+   private static final int MAX_BODY = 64 * 1024;
+
+   // longest a GET /notifications waits; each wait holds a wait thread.
+   private static final int MAX_WAIT_SECONDS = 25;
+
+   /**
+    * A failed request and the status it is answered with.
+    */
+   private static class HttpError extends Exception {
+      private static final long serialVersionUID = 1L;
+
+      final int status;
+
+      HttpError (int status, String message) {
+         super(message);
+         this.status = status;
+      }
+   }//end HttpError
+
+   /**
+    * A logged in user.
+    */
+   private static class Session {
+      final String userId;
+      volatile long lastUsed;
+
+      Session (String userId) {
+         this.userId = userId;
+         this.lastUsed = System.nanoTime();
+      }
+   }//end Session
+
+   private final ProfNetwork _esql;
+   private final long _idleNanos;
+   private final ConcurrentHashMap<String, Session> _sessions = new ConcurrentHashMap<String, Session>();
+   private final SecureRandom _random = new SecureRandom();
+   private final ThreadPoolExecutor _waiters;
+
+   public ProfNetworkServer (ProfNetwork esql, int sessionMinutes, int waitThreads) {
+      this._esql = esql;
+      this._idleNanos = TimeUnit.MINUTES.toNanos(sessionMinutes);
+      // no queue: a wait either gets a thread now or is answered at once
+      this._waiters = new ThreadPoolExecutor(0, Math.max(1, waitThreads), 60, TimeUnit.SECONDS,
+         new SynchronousQueue<Runnable>(), new ThreadFactory() {
+            private int _count = 0;
+            public synchronized Thread newThread (Runnable r) {
+               Thread t = new Thread(r, "notification-wait-" + (++this._count));
+               t.setDaemon(true);
+               return t;
+            }
+         });
+   }//end ProfNetworkServer
+
+   /**
+    * Stops the parked long polls.
+    */
+   public void shutdown () {
+      this._waiters.shutdownNow();
+   }//end shutdown
+
+   public void handle (HttpExchange exchange) throws IOException {
+      int status = 200;
+      StringBuilder json = new StringBuilder(256);
+      try {
+         Map<String, String> params = params(exchange);
+         if (dispatch(exchange, params, json))
+            return;
+      }catch (HttpError e){
+         status = e.status;
+         error(json, e.getMessage());
+      }catch (IllegalArgumentException e){
+         status = 400;
+         error(json, e.getMessage());
+      }catch (SQLException e){
+         status = 500;
+         error(json, e.getMessage());
+      }catch (RuntimeException e){
+         status = 500;
+         error(json, e.toString());
+      }//end try
+      respond(exchange, status, json);
+   }//end handle
+
+   private static void respond (HttpExchange exchange, int status, StringBuilder json) throws IOException {
+      byte[] body = json.toString().getBytes("UTF-8");
+      exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+      exchange.sendResponseHeaders(status, body.length);
+      OutputStream out = exchange.getResponseBody();
+      try {
+         out.write(body);
+      } finally {
+         out.close();
+      }
+   }//end respond
+
+   /**
+    * Runs the request, appending its answer to json.
+    *
+    * @return true if the answer is left to a parked long poll
+    */
+   private boolean dispatch (HttpExchange exchange, Map<String, String> params, StringBuilder json)
+         throws HttpError, SQLException {
+      String path = exchange.getRequestURI().getPath();
+      boolean post = exchange.getRequestMethod().equals("POST");
+      if (path.equals("/login")) {
+         expectPost(post);
+         String userId = required(params, "userId");
+         if (!this._esql.authenticate(userId, required(params, "password")))
+            throw new HttpError(401, "login failed");
+         this._esql.getNotificationHub().subscribe(userId.trim());
+         String token = newToken();
+         this._sessions.put(token, new Session(userId.trim()));
+         json.append("{\"token\":\"").append(token).append("\"}");
+         return false;
+      }//end if
+
+      String user = authenticate(exchange);
+      switch (path) {
+         case "/logout":
+            expectPost(post);
+            endSession(token(exchange));
+            ok(json);
+            break;
+         case "/friends":
+            rows(json, ProfNetwork.PROFILE_COLUMNS, this._esql.getFriendList(optional(params, "userId", user)));
+            break;
+         case "/profile":
+            if (post) {
+               this._esql.updateProfile(user, params.get("email"), params.get("name"), params.get("dateOfBirth"));
+               ok(json);
+            } else {
+               rows(json, ProfNetwork.PROFILE_COLUMNS, this._esql.getProfile(optional(params, "userId", user)));
+            }//end if
+            break;
+         case "/search":
+            rows(json, ProfNetwork.PEOPLE_COLUMNS, this._esql.searchPeople(required(params, "q"),
+               number(params, "limit", ProfNetwork.SEARCH_LIMIT)));
+            break;
+         case "/messages":
+            if (post) {
+               int msgId = this._esql.sendMessage(user, required(params, "to"), required(params, "contents"));
+               json.append("{\"msgId\":").append(msgId).append('}');
+            } else {
+               boolean sent = box(params);
+               Object[] before = null;
+               if (params.containsKey("beforeTime"))
+                  before = new Object[] { Timestamp.valueOf(params.get("beforeTime")),
+                     Integer.valueOf(number(params, "beforeId", Integer.MAX_VALUE)) };
+               this._esql.flushMessages(user);
+               rows(json, ProfNetwork.MESSAGE_COLUMNS, this._esql.fetchMessagePage(user, sent, before,
+                  Math.min(number(params, "limit", ResultPager.DEFAULT_PAGE_SIZE), MAX_PAGE)));
+            }//end if
+            break;
+         case "/messages/delete":
+            expectPost(post);
+            if (!this._esql.deleteMessage(user, box(params), number(params, "msgId", -1)))
+               throw new HttpError(404, "no such message");
+            ok(json);
+            break;
+         case "/requests":
+            if (post) {
+               if (!this._esql.requestConnection(user, required(params, "userId")))
+                  throw new HttpError(403, "that user is too far away");
+               ok(json);
+            } else {
+               rows(json, ProfNetwork.PENDING_COLUMNS,
+                  this._esql.getPendingRequests(user));
+            }//end if
+            break;
+         case "/requests/decide":
+            expectPost(post);
+            String decision = required(params, "decision");
+            if (!decision.equals("accept") && !decision.equals("reject"))
+               throw new IllegalArgumentException("decision must be accept or reject");
+            List<String> requesters = new ArrayList<String>();
+            for (String id : required(params, "userIds").split(","))
+               if (id.trim().length() > 0)
+                  requesters.add(id.trim());
+            List<String> decided = this._esql.decideRequests(user, requesters,
+               decision.equals("accept") ? "Accept" : "Reject");
+            json.append("{\"decided\":");
+            strings(json, decided);
+            json.append('}');
+            break;
+         case "/connection":
+            String other = required(params, "userId");
+            List<String> chain = this._esql.connectionPath(user, other);
+            json.append("{\"path\":");
+            if (chain == null)
+               json.append("null");
+            else
+               strings(json, chain);
+            json.append(",\"mutual\":");
+            strings(json, this._esql.mutualConnections(user, other));
+            json.append('}');
+            break;
+         case "/find":
+            String query = required(params, "q");
+            FacetIndex.Found found = this._esql.getFacetIndex().find(query,
+               Math.min(number(params, "limit", ProfNetwork.SEARCH_LIMIT), MAX_PAGE), ProfNetwork.FACET_VALUES);
+            json.append("{\"total\":").append(found.total).append(",\"users\":");
+            strings(json, found.users);
+            json.append(",\"facets\":");
+            rows(json, FacetIndex.COUNT_COLUMNS, found.counts);
+            json.append('}');
+            break;
+         case "/notifications":
+            NotificationHub.Mailbox box = this._esql.getNotificationHub().mailbox(user);
+            if (box == null)
+               throw new HttpError(401, "log in first");
+            int since = number(params, "since", -1);
+            int wait = Math.min(number(params, "wait", 0), MAX_WAIT_SECONDS);
+            if (since >= 0 && wait > 0 && park(exchange, box, since, wait))
+               return true;
+            notifications(json, box, since);
+            break;
+         case "/suggestions":
+            rows(json, ProfNetwork.SUGGESTION_COLUMNS, this._esql.suggestConnections(user,
+               Math.min(number(params, "limit", ConnectionRecommender.DEFAULT_LIMIT), MAX_PAGE)));
+            break;
+         default:
+            throw new HttpError(404, "no such operation " + path);
+      }//end switch
+      return false;
+   }//end dispatch
+
+   /**
+    * Hands a long poll to a wait thread, which answers it once the version
+    * passes since or the wait is over.
+    *
+    * @return false if every wait thread is taken
+    */
+   private boolean park (final HttpExchange exchange, final NotificationHub.Mailbox box,
+         final int since, final int wait) {
+      try {
+         this._waiters.execute(new Runnable() {
+            public void run () {
+               try {
+                  box.await(since, TimeUnit.SECONDS.toMillis(wait));
+               }catch (InterruptedException e){
+                  Thread.currentThread().interrupt();
+               }//end try
+               StringBuilder json = new StringBuilder(256);
+               notifications(json, box, since);
+               try {
+                  respond(exchange, 200, json);
+               }catch (IOException e){
+                  exchange.close();
+               }//end try
+            }
+         });
+         return true;
+      }catch (RejectedExecutionException e){
+         return false;
+      }//end try
+   }//end park
+
+   // the user of the session named by the request, renewing the session.
+   private String authenticate (HttpExchange exchange) throws HttpError {
+      String token = token(exchange);
+      Session session = token == null ? null : this._sessions.get(token);
+      long now = System.nanoTime();
+      if (session == null || now - session.lastUsed > this._idleNanos) {
+         if (session != null)
+            endSession(token);
+         throw new HttpError(401, "log in first");
+      }//end if
+      session.lastUsed = now;
+      return session.userId;
+   }//end authenticate
+
+   private static String token (HttpExchange exchange) {
+      String header = exchange.getRequestHeaders().getFirst("Authorization");
+      if (header == null || !header.startsWith("Bearer "))
+         return null;
+      return header.substring("Bearer ".length()).trim();
+   }//end token
+
+   private String newToken () {
+      byte[] bytes = new byte[24];
+      this._random.nextBytes(bytes);
+      StringBuilder token = new StringBuilder(48);
+      for (byte b : bytes)
+         token.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+      return token.toString();
+   }//end newToken
+
+   /**
+    * Drops the sessions idle for longer than the session lifetime.
+    */
+   public void expireSessions () {
+      long now = System.nanoTime();
+      for (Map.Entry<String, Session> e : this._sessions.entrySet())
+         if (now - e.getValue().lastUsed > this._idleNanos)
+            endSession(e.getKey());
+   }//end expireSessions
+
+   // drops a session and its share of the user's mailbox.
+   private void endSession (String token) {
+      Session session = token == null ? null : this._sessions.remove(token);
+      if (session != null)
+         this._esql.getNotificationHub().unsubscribe(session.userId);
+   }//end endSession
+
+   private static Map<String, String> params (HttpExchange exchange) throws IOException, HttpError {
+      Map<String, String> params = new HashMap<String, String>();
+      decode(exchange.getRequestURI().getRawQuery(), params);
+      if (exchange.getRequestMethod().equals("POST")) {
+         InputStream in = exchange.getRequestBody();
+         ByteArrayOutputStream body = new ByteArrayOutputStream();
+         byte[] buf = new byte[4096];
+         for (int n; (n = in.read(buf)) > 0; ) {
+            body.write(buf, 0, n);
+            if (body.size() > MAX_BODY)
+               throw new HttpError(413, "request body too large");
+         }//end for
+         decode(body.toString("UTF-8"), params);
+      }//end if
+      return params;
+   }//end params
+
+   private static void decode (String form, Map<String, String> params) throws IOException {
+      if (form == null || form.length() == 0)
+         return;
+      for (String pair : form.split("&")) {
+         int eq = pair.indexOf('=');
+         String key = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), "UTF-8");
+         String value = eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), "UTF-8");
+         params.put(key, value);
+      }//end for
+   }//end decode
+
+   private static void expectPost (boolean post) throws HttpError {
+      if (!post)
+         throw new HttpError(405, "use POST");
+   }//end expectPost
+
+   private static String required (Map<String, String> params, String name) {
+      String value = params.get(name);
+      if (value == null || value.trim().length() == 0)
+         throw new IllegalArgumentException("missing parameter " + name);
+      return value;
+   }//end required
+
+   private static String optional (Map<String, String> params, String name, String otherwise) {
+      String value = params.get(name);
+      return value == null || value.trim().length() == 0 ? otherwise : value;
+   }//end optional
+
+   private static int number (Map<String, String> params, String name, int otherwise) {
+      String value = params.get(name);
+      if (value == null)
+         return otherwise;
+      try {
+         return Integer.parseInt(value.trim());
+      }catch (NumberFormatException e){
+         throw new IllegalArgumentException(name + " is not a number");
+      }//end try
+   }//end number
+
+   // true for the sent box, false for the received one.
+   private static boolean box (Map<String, String> params) {
+      String box = optional(params, "box", "received");
+      if (!box.equals("sent") && !box.equals("received"))
+         throw new IllegalArgumentException("box must be received or sent");
+      return box.equals("sent");
+   }//end box
+
+   private static void ok (StringBuilder json) {
+      json.append("{\"ok\":true}");
+   }//end ok
+
+   private static void error (StringBuilder json, String message) {
+      json.setLength(0);
+      json.append("{\"error\":");
+      ResultRenderer.quoteJson(json, message == null ? "internal error" : message);
+      json.append('}');
+   }//end error
+
+   private static void rows (StringBuilder json, String[] columns, List<List<String>> rows) {
+      json.append("{\"columns\":[");
+      for (int c = 0; c < columns.length; ++c) {
+         if (c > 0)
+            json.append(',');
+         ResultRenderer.quoteJson(json, columns[c]);
+      }//end for
+      json.append("],\"rows\":[");
+      for (int r = 0; r < rows.size(); ++r) {
+         json.append(r == 0 ? "[" : ",[");
+         List<String> row = rows.get(r);
+         for (int c = 0; c < row.size(); ++c) {
+            if (c > 0)
+               json.append(',');
+            ResultRenderer.quoteJson(json, row.get(c));
+         }//end for
+         json.append(']');
+      }//end for
+      json.append("]}");
+   }//end rows
+
+   private static void notifications (StringBuilder json, NotificationHub.Mailbox box, long since) {
+      json.append("{\"version\":").append(box.version())
+         .append(",\"unread\":").append(box.unread())
+         .append(",\"pending\":").append(box.pending())
+         .append(",\"events\":[");
+      List<NotificationHub.Event> events = box.eventsAfter(since);
+      for (int i = 0; i < events.size(); ++i) {
+         NotificationHub.Event e = events.get(i);
+         json.append(i == 0 ? "{\"kind\":" : ",{\"kind\":");
+         ResultRenderer.quoteJson(json, e.kind);
+         json.append(",\"from\":");
+         if (e.from == null)
+            json.append("null");
+         else
+            ResultRenderer.quoteJson(json, e.from);
+         json.append('}');
+      }//end for
+      json.append("]}");
+   }//end notifications
+
+   private static void strings (StringBuilder json, List<String> values) {
+      json.append('[');
+      for (int i = 0; i < values.size(); ++i) {
+         if (i > 0)
+            json.append(',');
+         ResultRenderer.quoteJson(json, values.get(i));
+      }//end for
+      json.append(']');
+   }//end strings
+
+   /**
+    * The main execution method
+    *
+    * @param args the command line arguments: <dbname> <port> <user> [http port]
+    */
+   public static void main (String[] args) {
+      if (args.length != 3 && args.length != 4) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            ProfNetworkServer.class.getName () +
+            " <dbname> <port> <user> [http port]");
+         return;
+      }//end if
+
+      int httpPort = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_HTTP_PORT;
+      int threads = Integer.getInteger("profnetwork.serverThreads", DEFAULT_THREADS);
+      int waitThreads = Integer.getInteger("profnetwork.waitThreads", DEFAULT_WAIT_THREADS);
+      int poolSize = Integer.getInteger("profnetwork.serverPoolSize", DEFAULT_POOL_SIZE);
+      int sessionMinutes = Integer.getInteger("profnetwork.sessionMinutes", DEFAULT_SESSION_MINUTES);
+      int compactMinutes = Integer.getInteger("profnetwork.compactMinutes", DEFAULT_COMPACT_MINUTES);
+
+      final ProfNetwork esql;
+      try{
+         Class.forName ("org.postgresql.Driver");
+         esql = new ProfNetwork (args[0], args[1], args[2], "", poolSize);
+      }catch(Exception e) {
+         System.err.println (e.getMessage ());
+         return;
+      }//end try
+
+      try{
+         final ProfNetworkServer handler = new ProfNetworkServer(esql, sessionMinutes, waitThreads);
+         final ExecutorService workers = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private int _count = 0;
+            public synchronized Thread newThread (Runnable r) {
+               return new Thread(r, "http-" + (++this._count));
+            }
+         });
+         final HttpServer server = HttpServer.create(new InetSocketAddress(httpPort), 0);
+         server.createContext("/", handler);
+         server.setExecutor(workers);
+         server.start();
+
+         Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread (Runnable r) {
+               Thread t = new Thread(r, "session-expiry");
+               t.setDaemon(true);
+               return t;
+            }
+         }).scheduleWithFixedDelay(new Runnable() {
+            public void run () {
+               handler.expireSessions();
+            }
+         }, 1, 1, TimeUnit.MINUTES);
+
+         final MessageCompactor compactor = MessageCompactor.configured(esql);
+         if (compactMinutes > 0)
+            compactor.start(compactMinutes);
+
+         Runtime.getRuntime().addShutdownHook(new Thread() {
+            public void run () {
+               server.stop(1);
+               handler.shutdown();
+               workers.shutdown();
+               compactor.shutdown();
+               esql.cleanup();
+            }
+         });
+         System.out.println("Serving on port " + httpPort + " with " + threads +
+            " threads and " + poolSize + " connections");
+      }catch(IOException e) {
+         System.err.println (e.getMessage ());
+         esql.cleanup();
+      }//end try
+   }//end main
+}//end ProfNetworkServer
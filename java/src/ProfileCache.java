@@ -0,0 +1,173 @@
+/*
+ * Profile Cache
+ * =============================
+ * Edward Martens (862256447), Cody Phu (862107077)
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A bounded cache of query results keyed by userId, used for the profile
+ * row and the friend list shown while browsing in FriendProfile.
+ *
+ * Entries are kept in least-recently-used order and the eldest is dropped
+ * once more than capacity are held.  An entry older than the time to live
+ * counts as a miss, so changes made by other sessions show up after at
+ * most that long; changes made through this session call invalidate().
+ * A reader takes generation() before it queries and hands it to put(), so
+ * rows read before an invalidate() are not cached after it.  Hits, misses
+ * and evictions are counted for monitoring.
+ *
+ * All public methods are synchronized.
+ */
+public class ProfileCache {
+
+   // default number of users cached.
+   public static final int DEFAULT_CAPACITY = 256;
+
+   // default lifetime of a cached entry, in seconds.
+   public static final int DEFAULT_TTL_SECONDS = 60;
+
+   /**
+    * A cached result and when it was read.
+    */
+   private static class Cached {
+      final List<List<String>> rows;
+      final long loadedAt;
+
+      Cached (List<List<String>> rows, long loadedAt) {
+         this.rows = rows;
+         this.loadedAt = loadedAt;
+      }
+   }//end Cached
+
+   private final int _capacity;
+   private final long _ttlNanos;
+   private final LinkedHashMap<String, Cached> _entries;
+
+   private long _hits = 0;
+   private long _misses = 0;
+   private long _evictions = 0;
+
+   // bumped by every invalidate() and clear().
+   private long _generation = 0;
+
+   /**
+    * Creates a cache sized from -Dprofnetwork.profileCacheSize and
+    * -Dprofnetwork.profileCacheTtl (seconds), or the defaults.
+    */
+   public static ProfileCache configured () {
+      return new ProfileCache(
+         Integer.getInteger("profnetwork.profileCacheSize", DEFAULT_CAPACITY),
+         Integer.getInteger("profnetwork.profileCacheTtl", DEFAULT_TTL_SECONDS));
+   }//end configured
+
+   /**
+    * @param capacity the most users kept
+    * @param ttlSeconds how long an entry is served before it is read again
+    */
+   public ProfileCache (int capacity, int ttlSeconds) {
+      this._capacity = Math.max(1, capacity);
+      this._ttlNanos = TimeUnit.SECONDS.toNanos(Math.max(0, ttlSeconds));
+      this._entries = new LinkedHashMap<String, Cached>(16, 0.75f, true) {
+         protected boolean removeEldestEntry (Map.Entry<String, Cached> eldest) {
+            if (size() <= ProfileCache.this._capacity)
+               return false;
+            ++ProfileCache.this._evictions;
+            return true;
+         }
+      };
+   }//end ProfileCache
+
+   /**
+    * Returns the cached rows for userId, or null when they have to be read
+    * from the database.
+    */
+   public synchronized List<List<String>> get (String userId) {
+      String key = userId.trim();
+      Cached entry = this._entries.get(key);
+      if (entry != null && System.nanoTime() - entry.loadedAt >= this._ttlNanos) {
+         this._entries.remove(key);
+         entry = null;
+      }//end if
+      if (entry == null) {
+         ++this._misses;
+         return null;
+      }//end if
+      ++this._hits;
+      return entry.rows;
+   }//end get
+
+   /**
+    * Tells whether userId has a live entry, without counting a hit or miss.
+    */
+   public synchronized boolean contains (String userId) {
+      Cached entry = this._entries.get(userId.trim());
+      return entry != null && System.nanoTime() - entry.loadedAt < this._ttlNanos;
+   }//end contains
+
+   /**
+    * Returns the current invalidation generation, to be taken before the
+    * rows for a put() are read.
+    */
+   public synchronized long generation () {
+      return this._generation;
+   }//end generation
+
+   /**
+    * Caches the rows read for userId, unless something was invalidated
+    * since the given generation was taken.
+    */
+   public synchronized void put (String userId, List<List<String>> rows, long generation) {
+      if (generation == this._generation)
+         this._entries.put(userId.trim(), new Cached(rows, System.nanoTime()));
+   }//end put
+
+   /**
+    * Drops whatever is cached for userId.
+    */
+   public synchronized void invalidate (String userId) {
+      ++this._generation;
+      if (userId != null)
+         this._entries.remove(userId.trim());
+   }//end invalidate
+
+   /**
+    * Drops every entry.
+    */
+   public synchronized void clear () {
+      ++this._generation;
+      this._entries.clear();
+   }//end clear
+
+   public synchronized int size () {
+      return this._entries.size();
+   }//end size
+
+   public synchronized long hits () {
+      return this._hits;
+   }//end hits
+
+   public synchronized long misses () {
+      return this._misses;
+   }//end misses
+
+   public synchronized long evictions () {
+      return this._evictions;
+   }//end evictions
+
+   public synchronized String toString () {
+      return "size=" + this._entries.size() + " hits=" + this._hits +
+         " misses=" + this._misses + " evictions=" + this._evictions;
+   }//end toString
+}//end ProfileCache
@@ -0,0 +1,165 @@
+/*
+ * Profile Prefetcher
+ * =============================
+ * Edward Martens (862256447), Cody Phu (862107077)
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Loads profiles and friend lists into the ProfNetwork caches in the
+ * background while the user is still reading the screen.
+ *
+ * After FriendProfile shows a friend list, the first fan-out users on it
+ * that are not cached yet are handed to a small pool of daemon threads,
+ * each of which reads the profile and friend list through its own pooled
+ * connection.  When the user then picks one of them, await() waits for a
+ * load already under way instead of starting a second one.  cancel()
+ * drops the loads that have not started when the user leaves the menu.
+ *
+ * The thread count stays below the connection pool size so the
+ * interactive path always has a connection to use.
+ */
+public class ProfilePrefetcher {
+
+   // default number of prefetch threads.
+   public static final int DEFAULT_THREADS = 2;
+
+   // default number of users prefetched after one friend list is shown.
+   public static final int DEFAULT_FANOUT = 8;
+
+   private final ProfNetwork _esql;
+   private final int _fanout;
+   private final ExecutorService _executor;
+
+   // userId -> load queued or running, guarded by this.
+   private final HashMap<String, Future<?>> _pending = new HashMap<String, Future<?>>();
+
+   /**
+    * Creates a prefetcher sized from -Dprofnetwork.prefetchThreads and
+    * -Dprofnetwork.prefetchFanout, or the defaults.  At most poolSize - 1
+    * threads are started.
+    */
+   public static ProfilePrefetcher configured (ProfNetwork esql, int poolSize) {
+      int threads = Integer.getInteger("profnetwork.prefetchThreads", DEFAULT_THREADS);
+      return new ProfilePrefetcher(esql, Math.min(threads, poolSize - 1),
+         Integer.getInteger("profnetwork.prefetchFanout", DEFAULT_FANOUT));
+   }//end configured
+
+   /**
+    * @param esql where profiles are read and cached
+    * @param threads the number of loads run at once
+    * @param fanout the most users prefetched per call to prefetch
+    */
+   public ProfilePrefetcher (ProfNetwork esql, int threads, int fanout) {
+      this._esql = esql;
+      this._fanout = fanout;
+      this._executor = Executors.newFixedThreadPool(Math.max(1, threads), new ThreadFactory() {
+         private int _count = 0;
+         public synchronized Thread newThread (Runnable r) {
+            Thread t = new Thread(r, "profile-prefetch-" + (++this._count));
+            t.setDaemon(true);
+            return t;
+         }
+      });
+   }//end ProfilePrefetcher
+
+   /**
+    * Starts loading the first fan-out users that are neither cached nor
+    * already being loaded.
+    *
+    * @param userIds the users just shown, in display order
+    */
+   public synchronized void prefetch (List<String> userIds) {
+      int started = 0;
+      for (int i = 0; i < userIds.size() && started < this._fanout; ++i) {
+         final String userId = userIds.get(i).trim();
+         if (this._pending.containsKey(userId)
+             || (this._esql.getProfileCache().contains(userId)
+                 && this._esql.getFriendListCache().contains(userId)))
+            continue;
+         FutureTask<Void> load = new FutureTask<Void>(new Runnable() {
+            public void run () {
+               load(userId);
+            }
+         }, null) {
+            protected void done () {
+               finished(userId, this);
+            }
+         };
+         this._pending.put(userId, load);
+         this._executor.execute(load);
+         ++started;
+      }//end for
+   }//end prefetch
+
+   /**
+    * Waits for a load of userId that is queued or running, if there is one.
+    */
+   public void await (String userId) {
+      Future<?> load;
+      synchronized (this) {
+         load = this._pending.get(userId.trim());
+      }
+      if (load == null)
+         return;
+      try {
+         load.get();
+      }catch (InterruptedException e){
+         Thread.currentThread().interrupt();
+      }catch (ExecutionException e){
+         // the caller reads the profile itself.
+      }catch (java.util.concurrent.CancellationException e){
+         // likewise.
+      }//end try
+   }//end await
+
+   /**
+    * Drops every load that has not started yet; running ones finish.
+    */
+   public synchronized void cancel () {
+      for (Future<?> load : new ArrayList<Future<?>>(this._pending.values()))
+         load.cancel(false);
+      this._pending.clear();
+   }//end cancel
+
+   /**
+    * Cancels outstanding loads and stops the threads.
+    */
+   public void shutdown () {
+      cancel();
+      this._executor.shutdown();
+   }//end shutdown
+
+   private void load (String userId) {
+      try {
+         this._esql.getProfile(userId);
+         this._esql.getFriendList(userId);
+      }catch (SQLException e){
+         // only a missed prefetch; the interactive path will report it.
+      }//end try
+   }//end load
+
+   // forgets a finished or cancelled load, unless a newer one of the same
+   // user has taken its place.
+   private synchronized void finished (String userId, Future<?> load) {
+      if (this._pending.get(userId) == load)
+         this._pending.remove(userId);
+   }//end finished
+}//end ProfilePrefetcher
@@ -0,0 +1,367 @@
+/*
+ * Query Statistics
+ * =============================
+ * Edward Martens (862256447), Cody Phu (862107077)
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Times every statement ProfNetwork executes, per query shape.
+ *
+ * A shape is the SQL text with its whitespace collapsed and any literal
+ * numbers and strings replaced by '?', so the menu queries, which are
+ * already parameterized, each count as one shape.  For every shape a
+ * LatencyHistogram, the rows returned or affected, the bytes of text
+ * returned and the errors are kept.  A statement taking at least the
+ * slow query threshold is written to the slow query log with its shape.
+ *
+ * The counters are published as a JMX MBean and, when a dump interval is
+ * configured, written to standard error as a table at that interval.
+ * Configured by -Dprofnetwork.slowQueryMs, -Dprofnetwork.slowQueryLog (a
+ * file; standard error if absent) and -Dprofnetwork.statsDumpSeconds.
+ */
+public class QueryStats implements QueryStatsMBean {
+
+   // default slow query threshold, in milliseconds.
+   public static final long DEFAULT_SLOW_QUERY_MS = 200;
+
+   // most distinct SQL texts remembered on the way to their shape.
+   private static final int MAX_TEXTS = 10000;
+
+   private static final String[] DUMP_COLUMNS =
+      { "calls", "errors", "rows", "bytes", "mean ms", "p50 ms", "p99 ms", "max ms", "total ms", "query" };
+
+   /**
+    * The counters of one query shape, guarded by the Shape.
+    */
+   private static class Shape {
+      final String sql;
+      final LatencyHistogram latencies = new LatencyHistogram();
+      long totalMicros = 0;
+      long rows = 0;
+      long bytes = 0;
+      long errors = 0;
+
+      Shape (String sql) {
+         this.sql = sql;
+      }
+   }//end Shape
+
+   // SQL text as executed -> its shape; several texts may share one.
+   private final ConcurrentHashMap<String, Shape> _byText = new ConcurrentHashMap<String, Shape>();
+   // normalized SQL -> shape.
+   private final ConcurrentHashMap<String, Shape> _byShape = new ConcurrentHashMap<String, Shape>();
+
+   private final AtomicLong _queries = new AtomicLong();
+   private final AtomicLong _errors = new AtomicLong();
+   private final AtomicLong _slow = new AtomicLong();
+   private volatile long _slowNanos;
+
+   private final PrintStream _slowLog;
+   private ObjectName _name = null;
+   private ScheduledExecutorService _dumper = null;
+
+   /**
+    * Creates the statistics from the system properties described above.
+    */
+   public static QueryStats configured () {
+      PrintStream log = System.err;
+      String file = System.getProperty("profnetwork.slowQueryLog");
+      if (file != null) {
+         try {
+            log = new PrintStream(new FileOutputStream(file, true), true);
+         }catch (IOException e){
+            System.err.println("Cannot open slow query log " + file + ": " + e.getMessage());
+         }//end try
+      }//end if
+      QueryStats stats = new QueryStats(Long.getLong("profnetwork.slowQueryMs", DEFAULT_SLOW_QUERY_MS), log);
+      int dumpSeconds = Integer.getInteger("profnetwork.statsDumpSeconds", 0);
+      if (dumpSeconds > 0)
+         stats.startDumps(dumpSeconds);
+      return stats;
+   }//end configured
+
+   /**
+    * @param slowQueryMillis statements taking at least this long are logged
+    * @param slowLog where slow statements are logged
+    */
+   public QueryStats (long slowQueryMillis, PrintStream slowLog) {
+      this._slowNanos = TimeUnit.MILLISECONDS.toNanos(slowQueryMillis);
+      this._slowLog = slowLog;
+   }//end QueryStats
+
+   /**
+    * Counts a statement that succeeded.
+    *
+    * @param sql the statement as executed
+    * @param startNanos System.nanoTime() when it was started
+    * @param rows the rows it returned or affected
+    * @param bytes the characters of text it returned
+    */
+   public void record (String sql, long startNanos, long rows, long bytes) {
+      long elapsed = System.nanoTime() - startNanos;
+      Shape shape = shape(sql);
+      synchronized (shape) {
+         shape.latencies.record(elapsed / 1000);
+         shape.totalMicros += elapsed / 1000;
+         shape.rows += rows;
+         shape.bytes += bytes;
+      }
+      this._queries.incrementAndGet();
+      if (elapsed >= this._slowNanos)
+         logSlow(shape, elapsed, rows, null);
+   }//end record
+
+   /**
+    * Counts a statement that failed.
+    */
+   public void error (String sql, long startNanos, SQLException e) {
+      long elapsed = System.nanoTime() - startNanos;
+      Shape shape = shape(sql);
+      synchronized (shape) {
+         ++shape.errors;
+      }
+      this._queries.incrementAndGet();
+      this._errors.incrementAndGet();
+      if (elapsed >= this._slowNanos)
+         logSlow(shape, elapsed, 0, e);
+   }//end error
+
+   /**
+    * Returns the characters of text in a row, as counted for bytes.
+    */
+   public static long size (String[] row) {
+      long n = 0;
+      for (int i = 0; i < row.length; ++i)
+         if (row[i] != null)
+            n += row[i].length();
+      return n;
+   }//end size
+
+   public long getQueryCount () {
+      return this._queries.get();
+   }
+
+   public long getErrorCount () {
+      return this._errors.get();
+   }
+
+   public long getSlowQueryCount () {
+      return this._slow.get();
+   }
+
+   public int getShapeCount () {
+      return this._byShape.size();
+   }
+
+   public long getSlowQueryThresholdMillis () {
+      return TimeUnit.NANOSECONDS.toMillis(this._slowNanos);
+   }
+
+   public void setSlowQueryThresholdMillis (long millis) {
+      this._slowNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+   }
+
+   public String dump () {
+      Shape[] shapes = this._byShape.values().toArray(new Shape[0]);
+      final long[] totals = new long[shapes.length];
+      List<String[]> rows = new ArrayList<String[]>(shapes.length);
+      for (int i = 0; i < shapes.length; ++i) {
+         Shape s = shapes[i];
+         synchronized (s) {
+            LatencyHistogram h = s.latencies;
+            rows.add(new String[] {
+               String.valueOf(h.count() + s.errors), String.valueOf(s.errors),
+               String.valueOf(s.rows), String.valueOf(s.bytes),
+               millis(h.mean()), millis(h.percentile(0.50)), millis(h.percentile(0.99)),
+               millis(h.max()), millis(s.totalMicros), s.sql });
+            totals[i] = s.totalMicros;
+         }
+      }//end for
+      Integer[] order = new Integer[rows.size()];
+      for (int i = 0; i < order.length; ++i)
+         order[i] = Integer.valueOf(i);
+      Arrays.sort(order, new Comparator<Integer>() {
+         public int compare (Integer a, Integer b) {
+            long x = totals[a.intValue()], y = totals[b.intValue()];
+            return x < y ? 1 : x > y ? -1 : 0;
+         }
+      });
+      List<String[]> sorted = new ArrayList<String[]>(order.length);
+      for (Integer i : order)
+         sorted.add(rows.get(i.intValue()));
+
+      StringWriter out = new StringWriter();
+      try {
+         new ResultRenderer(ResultRenderer.Format.TABLE, out).renderPage(DUMP_COLUMNS, sorted, true);
+      }catch (IOException e){
+         // a StringWriter does not fail.
+      }//end try
+      return out.toString();
+   }//end dump
+
+   public void reset () {
+      this._byText.clear();
+      this._byShape.clear();
+      this._queries.set(0);
+      this._errors.set(0);
+      this._slow.set(0);
+   }//end reset
+
+   /**
+    * Publishes these statistics on the platform MBean server.
+    *
+    * @param name the JMX object name, e.g. ProfNetwork:type=QueryStats
+    */
+   public synchronized void register (String name) {
+      try {
+         ObjectName objectName = new ObjectName(name);
+         ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+         this._name = objectName;
+      }catch (JMException e){
+         System.err.println("Query statistics not published: " + e.getMessage());
+      }//end try
+   }//end register
+
+   /**
+    * Writes dump() to standard error every given number of seconds.
+    */
+   public synchronized void startDumps (int seconds) {
+      if (this._dumper != null)
+         return;
+      this._dumper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+         public Thread newThread (Runnable r) {
+            Thread t = new Thread(r, "query-stats-dump");
+            t.setDaemon(true);
+            return t;
+         }
+      });
+      this._dumper.scheduleAtFixedRate(new Runnable() {
+         public void run () {
+            System.err.print("Query statistics at " + new Timestamp(System.currentTimeMillis()) + "\n" + dump());
+         }
+      }, seconds, seconds, TimeUnit.SECONDS);
+   }//end startDumps
+
+   /**
+    * Stops the dumps and withdraws the MBean.
+    */
+   public synchronized void close () {
+      if (this._dumper != null) {
+         this._dumper.shutdownNow();
+         this._dumper = null;
+      }//end if
+      if (this._name != null) {
+         try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(this._name);
+         }catch (JMException e){
+            // already gone.
+         }//end try
+         this._name = null;
+      }//end if
+      if (this._slowLog != System.err)
+         this._slowLog.close();
+   }//end close
+
+   private Shape shape (String sql) {
+      Shape shape = this._byText.get(sql);
+      if (shape != null)
+         return shape;
+      String normalized = normalize(sql);
+      shape = this._byShape.get(normalized);
+      if (shape == null) {
+         Shape created = new Shape(normalized);
+         shape = this._byShape.putIfAbsent(normalized, created);
+         if (shape == null)
+            shape = created;
+      }//end if
+      // statements with inlined values each have their own text.
+      if (this._byText.size() < MAX_TEXTS)
+         this._byText.put(sql, shape);
+      return shape;
+   }//end shape
+
+   private void logSlow (Shape shape, long elapsedNanos, long rows, SQLException e) {
+      this._slow.incrementAndGet();
+      this._slowLog.println(new Timestamp(System.currentTimeMillis()) + " slow query " +
+         millis(elapsedNanos / 1000) + " ms" + (e == null ? ", " + rows + " rows" : ", failed: " + e.getMessage()) +
+         ": " + shape.sql);
+   }//end logSlow
+
+   private static String millis (double micros) {
+      return String.format("%.3f", micros / 1000);
+   }//end millis
+
+   /**
+    * Collapses whitespace and replaces literal numbers and quoted strings
+    * by '?'.
+    */
+   static String normalize (String sql) {
+      StringBuilder out = new StringBuilder(sql.length());
+      int n = sql.length();
+      boolean space = false;
+      for (int i = 0; i < n; ) {
+         char ch = sql.charAt(i);
+         if (Character.isWhitespace(ch)) {
+            space = out.length() > 0;
+            ++i;
+            continue;
+         }//end if
+         if (space) {
+            out.append(' ');
+            space = false;
+         }//end if
+         if (ch == '\'') {
+            // a quoted string; '' inside is an escaped quote.
+            for (++i; i < n; ++i) {
+               if (sql.charAt(i) == '\'') {
+                  if (i + 1 < n && sql.charAt(i + 1) == '\'')
+                     ++i;
+                  else
+                     break;
+               }//end if
+            }//end for
+            ++i;
+            out.append('?');
+         } else if (Character.isDigit(ch) && (i == 0 || !isWordChar(sql.charAt(i - 1)))) {
+            while (i < n && (Character.isDigit(sql.charAt(i)) || sql.charAt(i) == '.'))
+               ++i;
+            out.append('?');
+         } else {
+            out.append(ch);
+            ++i;
+         }//end if
+      }//end for
+      return out.toString();
+   }//end normalize
+
+   private static boolean isWordChar (char ch) {
+      return Character.isLetterOrDigit(ch) || ch == '_';
+   }//end isWordChar
+}//end QueryStats
@@ -0,0 +1,40 @@
+/*
+ * Query Statistics Management Interface
+ * =============================
+ * Edward Martens (862256447), Cody Phu (862107077)
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+/**
+ * What QueryStats shows through JMX, e.g. in jconsole.
+ */
+public interface QueryStatsMBean {
+
+   /** Statements executed, failed ones included. */
+   long getQueryCount ();
+
+   /** Statements that failed. */
+   long getErrorCount ();
+
+   /** Statements that took at least the slow query threshold. */
+   long getSlowQueryCount ();
+
+   /** Distinct normalized statements seen. */
+   int getShapeCount ();
+
+   long getSlowQueryThresholdMillis ();
+
+   void setSlowQueryThresholdMillis (long millis);
+
+   /** Returns the per-statement table, slowest in total first. */
+   String dump ();
+
+   /** Forgets everything counted so far. */
+   void reset ();
+}//end QueryStatsMBean
@@ -0,0 +1,158 @@
+/*
+ * Paged Result Output
+ * =============================
+ * Edward Martens (862256447), Cody Phu (862107077)
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * A RowHandler that collects rows into pages and hands each full page to
+ * a ResultRenderer.  In interactive mode it stops after every page and asks
+ * for the next page, the previous page or to quit; a few recent pages are
+ * kept so the user can step back without re-running the query.
+ *
+ * Non-interactive pagers simply render every page as soon as it fills up,
+ * which keeps table columns aligned per page while output stays buffered.
+ *
+ */
+public class ResultPager implements RowHandler {
+
+   // default number of rows per page.
+   public static final int DEFAULT_PAGE_SIZE = 20;
+
+   // number of already shown pages kept for [p]rev.
+   private static final int PAGE_HISTORY = 10;
+
+   private final ResultRenderer _renderer;
+   private final int _pageSize;
+   private final BufferedReader _in;
+
+   private String[] _columns;
+   private List<String[]> _page;
+
+   // pages already rendered, oldest first; the last one is on screen.
+   private final LinkedList<List<String[]>> _history = new LinkedList<List<String[]>>();
+   private int _pagesShown = 0;
+   private boolean _quit = false;
+
+   /**
+    * Creates a pager.
+    *
+    * @param renderer the renderer receiving each page
+    * @param pageSize the number of rows per page
+    * @param in where next/prev/quit answers are read from, or null to
+    *        render every page without asking
+    */
+   public ResultPager (ResultRenderer renderer, int pageSize, BufferedReader in) {
+      this._renderer = renderer;
+      this._pageSize = pageSize;
+      this._in = in;
+      this._page = new ArrayList<String[]>(pageSize);
+   }//end ResultPager
+
+   /**
+    * Returns the page size named by the profnetwork.pageSize system
+    * property, or DEFAULT_PAGE_SIZE.
+    */
+   public static int configuredPageSize () {
+      try {
+         int size = Integer.parseInt(System.getProperty("profnetwork.pageSize", "" + DEFAULT_PAGE_SIZE));
+         return size > 0 ? size : DEFAULT_PAGE_SIZE;
+      }catch (NumberFormatException e){
+         return DEFAULT_PAGE_SIZE;
+      }//end try
+   }//end configuredPageSize
+
+   public void start (String[] columns) {
+      this._columns = columns.clone();
+   }//end start
+
+   public boolean handleRow (String[] row) {
+      this._page.add(row.clone());
+      if (this._page.size() < this._pageSize)
+         return true;
+      List<String[]> full = this._page;
+      this._page = new ArrayList<String[]>(this._pageSize);
+      show(full);
+      return !this._quit && (this._in == null || prompt(true));
+   }//end handleRow
+
+   /**
+    * Renders the last, possibly partial, page.  Must be called once after
+    * the query has finished.
+    */
+   public void finish () {
+      if (this._columns == null || this._quit)
+         return;
+      if (!this._page.isEmpty())
+         show(this._page);
+      // let the user page back once the result is exhausted.
+      if (this._in != null && this._history.size() > 1)
+         prompt(false);
+   }//end finish
+
+   private void show (List<String[]> page) {
+      try {
+         this._renderer.renderPage(this._columns, page, this._pagesShown == 0);
+      }catch (IOException e){
+         System.err.println(e.getMessage());
+         this._quit = true;
+      }//end try
+      ++this._pagesShown;
+      this._history.addLast(page);
+      if (this._history.size() > PAGE_HISTORY)
+         this._history.removeFirst();
+   }//end show
+
+   // asks what to do next; returns true when the caller should read on.
+   private boolean prompt (boolean moreRows) {
+      int cursor = this._history.size() - 1;
+      while (true) {
+         String options = moreRows || cursor < this._history.size() - 1
+            ? "[n]ext, [p]rev, [q]uit: " : "[p]rev, [q]uit: ";
+         String answer;
+         try {
+            this._renderer.renderLine("-- page " + (this._pagesShown - (this._history.size() - 1 - cursor)) +
+               " -- " + options);
+            answer = this._in.readLine();
+         }catch (IOException e){
+            answer = null;
+         }//end try
+         if (answer == null || answer.trim().toLowerCase().startsWith("q")) {
+            this._quit = true;
+            return false;
+         }//end if
+         if (answer.trim().toLowerCase().startsWith("p")) {
+            if (cursor > 0)
+               --cursor;
+            redraw(cursor);
+         } else if (cursor < this._history.size() - 1) {
+            ++cursor;
+            redraw(cursor);
+         } else {
+            // next on the newest page reads on, or ends a finished result.
+            return moreRows;
+         }//end if
+      }//end while
+   }//end prompt
+
+   private void redraw (int index) {
+      try {
+         this._renderer.renderPage(this._columns, this._history.get(index), index == 0 && this._pagesShown <= PAGE_HISTORY);
+      }catch (IOException e){
+         System.err.println(e.getMessage());
+      }//end try
+   }//end redraw
+}//end ResultPager
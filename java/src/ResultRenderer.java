@@ -0,0 +1,358 @@
+/*
+ * Query Result Renderer
+ * =============================
+ * Edward Martens (862256447), Cody Phu (862107077)
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedWriter;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * Formats query results for the console.  All output goes through one
+ * buffered writer on standard out and values are copied through a reused
+ * char buffer, so printing a page costs one write syscall instead of one
+ * per cell, and the char(N) padding is skipped without calling trim().
+ *
+ * Rows are rendered a page at a time; the TABLE format sizes its columns
+ * to the widest value on the page.  The machine-read formats keep a value
+ * whole apart from its trailing blank padding: TSV writes tab, newline,
+ * carriage return and backslash as \t, \n, \r and \\, CSV quotes, and
+ * JSON escapes.
+ *
+ */
+public class ResultRenderer {
+
+   /**
+    * The supported output formats.
+    */
+   public enum Format { TABLE, TSV, CSV, JSON }
+
+   // size of the shared standard out buffer.
+   private static final int OUT_BUFFER_SIZE = 64 * 1024;
+
+   // single buffered writer shared by every renderer on standard out.
+   private static Writer _stdout = null;
+
+   private final Format _format;
+   private final Writer _out;
+
+   // scratch space for escaping and padding values, grown on demand.
+   private char[] _buf = new char[256];
+
+   // per-column widths for the TABLE format, reused between pages.
+   private int[] _widths = new int[0];
+
+   /**
+    * Creates a renderer writing to the given writer.
+    *
+    * @param format the output format
+    * @param out the destination; it is flushed after every page
+    */
+   public ResultRenderer (Format format, Writer out) {
+      this._format = format;
+      this._out = out;
+   }//end ResultRenderer
+
+   /**
+    * Creates a renderer on standard out using the format named by the
+    * profnetwork.format system property (table by default).
+    */
+   public static ResultRenderer forConsole () {
+      Format format = Format.TABLE;
+      String name = System.getProperty("profnetwork.format");
+      if (name != null) {
+         try {
+            format = Format.valueOf(name.trim().toUpperCase());
+         }catch (IllegalArgumentException e){
+            System.err.println("Unknown output format '" + name + "', using table");
+         }//end try
+      }//end if
+      return new ResultRenderer(format, stdout());
+   }//end forConsole
+
+   /**
+    * Returns the shared buffered writer on standard out.
+    */
+   public static synchronized Writer stdout () {
+      if (_stdout == null)
+         _stdout = new BufferedWriter(new OutputStreamWriter(
+            new FileOutputStream(FileDescriptor.out)), OUT_BUFFER_SIZE);
+      return _stdout;
+   }//end stdout
+
+   /**
+    * Returns the output format.
+    */
+   public Format getFormat () {
+      return this._format;
+   }//end getFormat
+
+   /**
+    * Writes one page of rows and flushes the writer.
+    *
+    * @param columns the column names
+    * @param rows the rows of this page
+    * @param firstPage whether this is the first page of the result; the
+    *        TSV and CSV header is only written once
+    * @throws java.io.IOException when writing fails
+    */
+   public void renderPage (String[] columns, List<String[]> rows, boolean firstPage) throws IOException {
+      switch (this._format) {
+         case TABLE: renderTable(columns, rows); break;
+         case TSV:
+         case CSV:
+            char sep = this._format == Format.TSV ? '\t' : ',';
+            if (firstPage)
+               renderDelimited(columns, sep);
+            for (int r = 0; r < rows.size(); ++r)
+               renderDelimited(rows.get(r), sep);
+            break;
+         case JSON:
+            for (int r = 0; r < rows.size(); ++r)
+               renderJson(columns, rows.get(r));
+            break;
+      }//end switch
+      this._out.flush();
+   }//end renderPage
+
+   /**
+    * Writes a line of text through the same buffer, e.g. a pager prompt.
+    */
+   public void renderLine (String line) throws IOException {
+      this._out.write(line);
+      this._out.write('\n');
+      this._out.flush();
+   }//end renderLine
+
+   private void renderTable (String[] columns, List<String[]> rows) throws IOException {
+      if (this._widths.length != columns.length)
+         this._widths = new int[columns.length];
+      for (int c = 0; c < columns.length; ++c)
+         this._widths[c] = trimmedLength(columns[c]);
+      for (int r = 0; r < rows.size(); ++r) {
+         String[] row = rows.get(r);
+         for (int c = 0; c < columns.length; ++c)
+            this._widths[c] = Math.max(this._widths[c], trimmedLength(row[c]));
+      }//end for
+
+      renderAligned(columns);
+      int total = 0;
+      for (int c = 0; c < columns.length; ++c)
+         total += this._widths[c] + (c == 0 ? 0 : 3);
+      fill('-', total);
+      this._out.write(this._buf, 0, total);
+      this._out.write('\n');
+      for (int r = 0; r < rows.size(); ++r)
+         renderAligned(rows.get(r));
+   }//end renderTable
+
+   private void renderAligned (String[] row) throws IOException {
+      for (int c = 0; c < row.length; ++c) {
+         if (c > 0)
+            this._out.write(" | ", 0, 3);
+         int len = writeTrimmed(row[c]);
+         if (c < row.length - 1) {
+            int pad = this._widths[c] - len;
+            fill(' ', pad);
+            this._out.write(this._buf, 0, pad);
+         }//end if
+      }//end for
+      this._out.write('\n');
+   }//end renderAligned
+
+   private void renderDelimited (String[] row, char sep) throws IOException {
+      for (int c = 0; c < row.length; ++c) {
+         if (c > 0)
+            this._out.write(sep);
+         if (this._format == Format.CSV)
+            writeCsv(row[c]);
+         else
+            writeTsv(row[c]);
+      }//end for
+      this._out.write('\n');
+   }//end renderDelimited
+
+   private void renderJson (String[] columns, String[] row) throws IOException {
+      this._out.write('{');
+      for (int c = 0; c < columns.length; ++c) {
+         if (c > 0)
+            this._out.write(',');
+         writeJsonString(columns[c]);
+         this._out.write(':');
+         if (row[c] == null)
+            this._out.write("null");
+         else
+            writeJsonString(row[c]);
+      }//end for
+      this._out.write("}\n");
+   }//end renderJson
+
+   // writes the value without surrounding blanks; returns the length written.
+   private int writeTrimmed (String value) throws IOException {
+      if (value == null)
+         return 0;
+      int start = trimStart(value);
+      int end = trimEnd(value, start);
+      this._out.write(value, start, end - start);
+      return end - start;
+   }//end writeTrimmed
+
+   private void writeTsv (String value) throws IOException {
+      if (value == null)
+         return;
+      int end = paddedEnd(value);
+      ensure(2 * end);
+      int n = 0;
+      for (int i = 0; i < end; ++i) {
+         char ch = value.charAt(i);
+         switch (ch) {
+            case '\t': this._buf[n++] = '\\'; this._buf[n++] = 't'; break;
+            case '\n': this._buf[n++] = '\\'; this._buf[n++] = 'n'; break;
+            case '\r': this._buf[n++] = '\\'; this._buf[n++] = 'r'; break;
+            case '\\': this._buf[n++] = '\\'; this._buf[n++] = '\\'; break;
+            default: this._buf[n++] = ch;
+         }//end switch
+      }//end for
+      this._out.write(this._buf, 0, n);
+   }//end writeTsv
+
+   private void writeCsv (String value) throws IOException {
+      if (value == null)
+         return;
+      int start = 0;
+      int end = paddedEnd(value);
+      boolean quote = false;
+      for (int i = start; i < end && !quote; ++i) {
+         char ch = value.charAt(i);
+         quote = ch == ',' || ch == '"' || ch == '\n' || ch == '\r';
+      }//end for
+      if (!quote) {
+         this._out.write(value, start, end - start);
+         return;
+      }//end if
+      ensure(2 * (end - start) + 2);
+      int n = 0;
+      this._buf[n++] = '"';
+      for (int i = start; i < end; ++i) {
+         char ch = value.charAt(i);
+         if (ch == '"')
+            this._buf[n++] = '"';
+         this._buf[n++] = ch;
+      }//end for
+      this._buf[n++] = '"';
+      this._out.write(this._buf, 0, n);
+   }//end writeCsv
+
+   private void writeJsonString (String value) throws IOException {
+      int start = 0;
+      int end = paddedEnd(value);
+      ensure(6 * (end - start) + 2);
+      int n = 0;
+      this._buf[n++] = '"';
+      for (int i = start; i < end; ++i) {
+         char ch = value.charAt(i);
+         switch (ch) {
+            case '"': this._buf[n++] = '\\'; this._buf[n++] = '"'; break;
+            case '\\': this._buf[n++] = '\\'; this._buf[n++] = '\\'; break;
+            case '\n': this._buf[n++] = '\\'; this._buf[n++] = 'n'; break;
+            case '\r': this._buf[n++] = '\\'; this._buf[n++] = 'r'; break;
+            case '\t': this._buf[n++] = '\\'; this._buf[n++] = 't'; break;
+            default:
+               if (ch < 0x20) {
+                  String hex = Integer.toHexString(ch);
+                  this._buf[n++] = '\\';
+                  this._buf[n++] = 'u';
+                  for (int k = hex.length(); k < 4; ++k)
+                     this._buf[n++] = '0';
+                  for (int k = 0; k < hex.length(); ++k)
+                     this._buf[n++] = hex.charAt(k);
+               } else {
+                  this._buf[n++] = ch;
+               }//end if
+         }//end switch
+      }//end for
+      this._buf[n++] = '"';
+      this._out.write(this._buf, 0, n);
+   }//end writeJsonString
+
+   /**
+    * Appends value as a JSON string, without its trailing padding, or null.
+    */
+   public static void quoteJson (StringBuilder json, String value) {
+      if (value == null) {
+         json.append("null");
+         return;
+      }//end if
+      int start = 0;
+      int end = paddedEnd(value);
+      json.append('"');
+      for (int i = start; i < end; ++i) {
+         char ch = value.charAt(i);
+         switch (ch) {
+            case '"': json.append("\\\""); break;
+            case '\\': json.append("\\\\"); break;
+            case '\n': json.append("\\n"); break;
+            case '\r': json.append("\\r"); break;
+            case '\t': json.append("\\t"); break;
+            default:
+               if (ch < 0x20)
+                  json.append(String.format("\\u%04x", (int) ch));
+               else
+                  json.append(ch);
+         }//end switch
+      }//end for
+      json.append('"');
+   }//end quoteJson
+
+   private void fill (char ch, int count) {
+      ensure(count);
+      for (int i = 0; i < count; ++i)
+         this._buf[i] = ch;
+   }//end fill
+
+   private void ensure (int capacity) {
+      if (this._buf.length < capacity)
+         this._buf = new char[Math.max(capacity, 2 * this._buf.length)];
+   }//end ensure
+
+   private static int trimmedLength (String value) {
+      if (value == null)
+         return 0;
+      int start = trimStart(value);
+      return trimEnd(value, start) - start;
+   }//end trimmedLength
+
+   private static int trimStart (String value) {
+      int start = 0;
+      while (start < value.length() && value.charAt(start) <= ' ')
+         ++start;
+      return start;
+   }//end trimStart
+
+   // the end of the value without the blanks char(N) pads it with.
+   private static int paddedEnd (String value) {
+      int end = value.length();
+      while (end > 0 && value.charAt(end - 1) == ' ')
+         --end;
+      return end;
+   }//end paddedEnd
+
+   private static int trimEnd (String value, int start) {
+      int end = value.length();
+      while (end > start && value.charAt(end - 1) <= ' ')
+         --end;
+      return end;
+   }//end trimEnd
+}//end ResultRenderer
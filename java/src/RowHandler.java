@@ -0,0 +1,37 @@
+/*
+ * Streaming Row Callback
+ * =============================
+ * Edward Martens (862256447), Cody Phu (862107077)
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+/**
+ * Receives the rows of a query run through
+ * ProfNetwork.executeQueryStreaming, one at a time, as they are fetched
+ * from the server-side cursor.
+ *
+ */
+public interface RowHandler {
+
+   /**
+    * Called once before the first row with the result's column names.
+    *
+    * @param columns the column labels, in select-list order
+    */
+   void start (String[] columns);
+
+   /**
+    * Called for every row.  The array is reused for the next row, so
+    * copy any value that has to outlive this call.
+    *
+    * @param row the column values of the current row
+    * @return false to stop reading further rows
+    */
+   boolean handleRow (String[] row);
+}//end RowHandler
@@ -0,0 +1,499 @@
+/*
+ * In-Memory Connection Graph
+ * =============================
+ * Edward Martens (862256447), Cody Phu (862107077)
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * An in-process copy of the accepted connections in CONNECTION_USR, used
+ * to answer "is X within N levels of me" and "how am I connected to X"
+ * without a round trip per level.
+ *
+ * An accepted row links both users, whichever of them sent the request.
+ * Users are dictionary encoded to ints and the adjacency is kept in CSR
+ * form: the neighbors of user u are _targets[_offsets[u] .. _offsets[u+1]),
+ * sorted ascending.  Connections accepted or removed after loading go into
+ * a small overlay that is folded back into the CSR arrays once it grows.
+ *
+ * All public methods are synchronized.
+ */
+public class SocialGraph {
+
+   // overlay size, relative to the CSR edge count, that triggers a rebuild.
+   private static final int REBUILD_DIVISOR = 8;
+   private static final int MIN_REBUILD_EDGES = 1024;
+
+   private final UserDictionary _users;
+
+   // CSR adjacency for users 0.._offsets.length-2.
+   private int[] _offsets;
+   private int[] _targets;
+
+   // edges added since the last rebuild, per user, unsorted.
+   private int[][] _extra = new int[0][];
+   private int[] _extraCount = new int[0];
+   private int _extraEdges = 0;
+
+   // CSR edges deleted since the last rebuild, as edgeKey(u, v), both directions.
+   private final HashSet<Long> _removed = new HashSet<Long>();
+
+   // BFS scratch space; a user is marked on a side when its stamp equals _epoch.
+   private int[] _stampFrom = new int[0];
+   private int[] _stampTo = new int[0];
+   private int[] _depthFrom = new int[0];
+   private int[] _depthTo = new int[0];
+   private int[] _parentFrom = new int[0];
+   private int[] _parentTo = new int[0];
+   private int _epoch = 0;
+
+   // what search() returns when it runs out of time.
+   private static final int[] TIMED_OUT = new int[0];
+
+   /**
+    * Creates a graph from an edge list.  Each pair (src[i], dst[i]) is an
+    * undirected connection; duplicates are ignored.
+    *
+    * @param users the dictionary the codes in src and dst come from
+    * @param src one end of each edge
+    * @param dst the other end of each edge
+    * @param edges the number of edges used from src and dst
+    */
+   public SocialGraph (UserDictionary users, int[] src, int[] dst, int edges) {
+      this._users = users;
+      build(users.size(), src, dst, edges);
+   }//end SocialGraph
+
+   /**
+    * Reads every accepted connection from the database and builds the
+    * graph.  The rows are streamed, so only the int edge list is held in
+    * memory while loading.
+    *
+    * @param esql the database to read CONNECTION_USR from
+    * @return the loaded graph
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public static SocialGraph load (ProfNetwork esql) throws SQLException {
+      final UserDictionary users = new UserDictionary();
+      final int[][] edges = { new int[1024], new int[1024] };
+      final int[] count = { 0 };
+      esql.executeQueryStreaming(
+         "SELECT A.userId, B.userId FROM CONNECTION_USR C " +
+         "JOIN USR A ON A.userKey = C.userKey JOIN USR B ON B.userKey = C.connectionKey " +
+         "WHERE C.status = 'Accept'",
+         ProfNetwork.STREAM_BATCH_SIZE, new RowHandler() {
+            public void start (String[] columns) {
+            }
+            public boolean handleRow (String[] row) {
+               if (count[0] == edges[0].length) {
+                  edges[0] = Arrays.copyOf(edges[0], 2 * count[0]);
+                  edges[1] = Arrays.copyOf(edges[1], 2 * count[0]);
+               }//end if
+               edges[0][count[0]] = users.intern(row[0]);
+               edges[1][count[0]] = users.intern(row[1]);
+               ++count[0];
+               return true;
+            }
+         });
+      return new SocialGraph(users, edges[0], edges[1], count[0]);
+   }//end load
+
+   /**
+    * Returns the dictionary mapping userIds to the codes used here.
+    */
+   public UserDictionary users () {
+      return this._users;
+   }//end users
+
+   /**
+    * Returns the code of userId, or -1 if it has no code yet.
+    */
+   public synchronized int lookup (String userId) {
+      return this._users.lookup(userId);
+   }//end lookup
+
+   /**
+    * Returns the code of userId, assigning one if it has none yet.
+    */
+   public synchronized int intern (String userId) {
+      return this._users.intern(userId);
+   }//end intern
+
+   /**
+    * Returns the userId with the given code.
+    */
+   public synchronized String userId (int code) {
+      return this._users.userId(code);
+   }//end userId
+
+   /**
+    * Returns the number of accepted connections the user has.
+    */
+   public synchronized int degree (String userId) {
+      int u = this._users.lookup(userId);
+      return u < 0 ? 0 : neighbors(u).length;
+   }//end degree
+
+   /**
+    * Returns the sorted codes of the users connected to the given one.
+    */
+   public synchronized int[] neighbors (int u) {
+      int csrEnd = u + 1 < this._offsets.length ? this._offsets[u + 1] : 0;
+      int csrStart = u + 1 < this._offsets.length ? this._offsets[u] : 0;
+      int extra = u < this._extraCount.length ? this._extraCount[u] : 0;
+      int[] result = new int[csrEnd - csrStart + extra];
+      int n = 0;
+      for (int i = csrStart; i < csrEnd; ++i) {
+         int v = this._targets[i];
+         if (this._removed.isEmpty() || !this._removed.contains(edgeKey(u, v)))
+            result[n++] = v;
+      }//end for
+      for (int i = 0; i < extra; ++i)
+         result[n++] = this._extra[u][i];
+      result = n == result.length ? result : Arrays.copyOf(result, n);
+      if (extra > 0)
+         Arrays.sort(result);
+      return result;
+   }//end neighbors
+
+   /**
+    * Returns the sorted neighbor codes of each of the given users, taken
+    * together so they are consistent with each other.
+    */
+   public synchronized int[][] neighborLists (int[] users) {
+      int[][] lists = new int[users.length][];
+      for (int i = 0; i < users.length; ++i)
+         lists[i] = neighbors(users[i]);
+      return lists;
+   }//end neighborLists
+
+   /**
+    * Checks whether the target is at most maxHops accepted connections
+    * away from the source.
+    */
+   public boolean withinHops (String from, String to, int maxHops) {
+      return distance(from, to, maxHops) >= 0;
+   }//end withinHops
+
+   /**
+    * Returns the number of connections on the shortest path between two
+    * users, or -1 if there is none of at most maxHops.
+    */
+   public synchronized int distance (String from, String to, int maxHops) {
+      if (from.trim().equals(to.trim()))
+         return 0;
+      int s = this._users.lookup(from);
+      int t = this._users.lookup(to);
+      if (s < 0 || t < 0)
+         return -1;
+      int[] path = search(s, t, maxHops, Long.MAX_VALUE);
+      return path == null ? -1 : path.length - 1;
+   }//end distance
+
+   /**
+    * Returns the users two users are both connected to, by userId.
+    */
+   public synchronized List<String> mutualConnections (String a, String b) {
+      List<String> mutual = new ArrayList<String>();
+      int u = this._users.lookup(a);
+      int v = this._users.lookup(b);
+      if (u < 0 || v < 0)
+         return mutual;
+      int[] x = neighbors(u);
+      int[] y = neighbors(v);
+      for (int i = 0, j = 0; i < x.length && j < y.length; ) {
+         if (x[i] < y[j])
+            ++i;
+         else if (x[i] > y[j])
+            ++j;
+         else {
+            mutual.add(this._users.userId(x[i]));
+            ++i;
+            ++j;
+         }//end if
+      }//end for
+      Collections.sort(mutual);
+      return mutual;
+   }//end mutualConnections
+
+   /**
+    * Returns one shortest chain of connections between two users, both
+    * included, searching at most maxHops connections deep and for at most
+    * budgetNanos.
+    *
+    * @return the userIds from one end to the other; an empty list if there
+    *         is no chain of at most maxHops; null if the budget ran out first
+    */
+   public synchronized List<String> shortestPath (String from, String to, int maxHops, long budgetNanos) {
+      List<String> result = new ArrayList<String>();
+      int s = this._users.lookup(from);
+      int t = this._users.lookup(to);
+      if (from.trim().equals(to.trim())) {
+         result.add(from.trim());
+         return result;
+      }//end if
+      if (s < 0 || t < 0)
+         return result;
+      int[] path = search(s, t, maxHops, System.nanoTime() + budgetNanos);
+      if (path == TIMED_OUT)
+         return null;
+      if (path != null)
+         for (int u : path)
+            result.add(this._users.userId(u));
+      return result;
+   }//end shortestPath
+
+   // Breadth-first search from both ends, always growing the smaller
+   // frontier, stopping once the two searches together cover maxHops.
+   // Returns the codes on a shortest path from s to t, null if there is
+   // none within maxHops, or TIMED_OUT once System.nanoTime() passes the
+   // deadline.
+   private int[] search (int s, int t, int maxHops, long deadline) {
+      ensureScratch();
+      int epoch = ++this._epoch;
+      int[] frontierFrom = { s };
+      int[] frontierTo = { t };
+      int sizeFrom = 1, sizeTo = 1;
+      int depthFrom = 0, depthTo = 0;
+      this._stampFrom[s] = epoch;
+      this._depthFrom[s] = 0;
+      this._parentFrom[s] = -1;
+      this._stampTo[t] = epoch;
+      this._depthTo[t] = 0;
+      this._parentTo[t] = -1;
+      int visited = 0;
+
+      while (depthFrom + depthTo < maxHops && sizeFrom > 0 && sizeTo > 0) {
+         boolean forward = sizeFrom <= sizeTo;
+         int[] frontier = forward ? frontierFrom : frontierTo;
+         int size = forward ? sizeFrom : sizeTo;
+         int depth = forward ? depthFrom : depthTo;
+         int[] stampThis = forward ? this._stampFrom : this._stampTo;
+         int[] depthThis = forward ? this._depthFrom : this._depthTo;
+         int[] parentThis = forward ? this._parentFrom : this._parentTo;
+         int[] stampOther = forward ? this._stampTo : this._stampFrom;
+
+         int[] next = new int[Math.max(4, size * 2)];
+         int nextSize = 0;
+         for (int f = 0; f < size; ++f) {
+            int u = frontier[f];
+            // the clock is read once every few hundred users.
+            if ((++visited & 0xff) == 0 && deadline != Long.MAX_VALUE && System.nanoTime() > deadline)
+               return TIMED_OUT;
+            int csrStart = u + 1 < this._offsets.length ? this._offsets[u] : 0;
+            int csrEnd = u + 1 < this._offsets.length ? this._offsets[u + 1] : 0;
+            int extra = u < this._extraCount.length ? this._extraCount[u] : 0;
+            // walk the CSR slice, then the overlay, without copying either.
+            for (int i = csrStart; i < csrEnd + extra; ++i) {
+               int v = i < csrEnd ? this._targets[i] : this._extra[u][i - csrEnd];
+               if (i < csrEnd && !this._removed.isEmpty() && this._removed.contains(edgeKey(u, v)))
+                  continue;
+               if (stampOther[v] == epoch)
+                  return forward ? join(u, v) : join(v, u);
+               if (stampThis[v] != epoch) {
+                  stampThis[v] = epoch;
+                  depthThis[v] = depth + 1;
+                  parentThis[v] = u;
+                  if (nextSize == next.length)
+                     next = Arrays.copyOf(next, 2 * nextSize);
+                  next[nextSize++] = v;
+               }//end if
+            }//end for
+         }//end for
+
+         if (forward) {
+            frontierFrom = next;
+            sizeFrom = nextSize;
+            ++depthFrom;
+         } else {
+            frontierTo = next;
+            sizeTo = nextSize;
+            ++depthTo;
+         }//end if
+      }//end while
+      return null;
+   }//end search
+
+   // the path through the edge a-b, a reached from the source and b from
+   // the target.
+   private int[] join (int a, int b) {
+      int[] path = new int[this._depthFrom[a] + 1 + this._depthTo[b] + 1];
+      int i = this._depthFrom[a];
+      for (int u = a; u >= 0; u = this._parentFrom[u])
+         path[i--] = u;
+      i = this._depthFrom[a] + 1;
+      for (int u = b; u >= 0; u = this._parentTo[u])
+         path[i++] = u;
+      return path;
+   }//end join
+
+   /**
+    * Records a newly accepted connection.
+    *
+    * @return false if the two users were already connected
+    */
+   public synchronized boolean addConnection (String a, String b) {
+      int u = this._users.intern(a);
+      int v = this._users.intern(b);
+      if (u == v || hasEdge(u, v))
+         return false;
+      if (this._removed.remove(edgeKey(u, v))) {
+         this._removed.remove(edgeKey(v, u));
+         return true;
+      }//end if
+      addExtra(u, v);
+      addExtra(v, u);
+      ++this._extraEdges;
+      maybeRebuild();
+      return true;
+   }//end addConnection
+
+   /**
+    * Forgets a connection, e.g. after it was rejected or deleted.
+    *
+    * @return false if the two users were not connected
+    */
+   public synchronized boolean removeConnection (String a, String b) {
+      int u = this._users.lookup(a);
+      int v = this._users.lookup(b);
+      if (u < 0 || v < 0 || !hasEdge(u, v))
+         return false;
+      if (removeExtra(u, v) && removeExtra(v, u)) {
+         --this._extraEdges;
+         return true;
+      }//end if
+      this._removed.add(edgeKey(u, v));
+      this._removed.add(edgeKey(v, u));
+      maybeRebuild();
+      return true;
+   }//end removeConnection
+
+   private boolean hasEdge (int u, int v) {
+      if (u + 1 < this._offsets.length
+          && Arrays.binarySearch(this._targets, this._offsets[u], this._offsets[u + 1], v) >= 0)
+         return !this._removed.contains(edgeKey(u, v));
+      if (u < this._extraCount.length)
+         for (int i = 0; i < this._extraCount[u]; ++i)
+            if (this._extra[u][i] == v)
+               return true;
+      return false;
+   }//end hasEdge
+
+   private void addExtra (int u, int v) {
+      if (u >= this._extraCount.length) {
+         int capacity = Math.max(this._users.size(), 2 * this._extraCount.length);
+         this._extra = Arrays.copyOf(this._extra, capacity);
+         this._extraCount = Arrays.copyOf(this._extraCount, capacity);
+      }//end if
+      int[] list = this._extra[u];
+      if (list == null)
+         list = this._extra[u] = new int[4];
+      else if (this._extraCount[u] == list.length)
+         list = this._extra[u] = Arrays.copyOf(list, 2 * list.length);
+      list[this._extraCount[u]++] = v;
+   }//end addExtra
+
+   private boolean removeExtra (int u, int v) {
+      if (u >= this._extraCount.length)
+         return false;
+      int[] list = this._extra[u];
+      for (int i = 0; i < this._extraCount[u]; ++i) {
+         if (list[i] == v) {
+            list[i] = list[--this._extraCount[u]];
+            return true;
+         }//end if
+      }//end for
+      return false;
+   }//end removeExtra
+
+   private void maybeRebuild () {
+      int pending = this._extraEdges + this._removed.size() / 2;
+      if (pending < Math.max(MIN_REBUILD_EDGES, this._targets.length / REBUILD_DIVISOR))
+         return;
+      int n = this._users.size();
+      int[] src = new int[this._targets.length / 2 + this._extraEdges];
+      int[] dst = new int[src.length];
+      int m = 0;
+      for (int u = 0; u < n; ++u) {
+         int[] adj = neighbors(u);
+         for (int i = 0; i < adj.length; ++i) {
+            if (adj[i] > u) {
+               src[m] = u;
+               dst[m] = adj[i];
+               ++m;
+            }//end if
+         }//end for
+      }//end for
+      this._extra = new int[0][];
+      this._extraCount = new int[0];
+      this._extraEdges = 0;
+      this._removed.clear();
+      build(n, src, dst, m);
+   }//end maybeRebuild
+
+   // builds the CSR arrays from an undirected edge list, dropping duplicates.
+   private void build (int n, int[] src, int[] dst, int edges) {
+      int[] offsets = new int[n + 1];
+      for (int i = 0; i < edges; ++i) {
+         if (src[i] == dst[i])
+            continue;
+         ++offsets[src[i] + 1];
+         ++offsets[dst[i] + 1];
+      }//end for
+      for (int u = 0; u < n; ++u)
+         offsets[u + 1] += offsets[u];
+      int[] targets = new int[offsets[n]];
+      int[] fill = Arrays.copyOf(offsets, n);
+      for (int i = 0; i < edges; ++i) {
+         if (src[i] == dst[i])
+            continue;
+         targets[fill[src[i]]++] = dst[i];
+         targets[fill[dst[i]]++] = src[i];
+      }//end for
+
+      // sort every adjacency list and squeeze out duplicate edges.
+      int write = 0;
+      int start = 0;
+      for (int u = 0; u < n; ++u) {
+         int end = offsets[u + 1];
+         Arrays.sort(targets, start, end);
+         offsets[u] = write;
+         for (int i = start; i < end; ++i)
+            if (i == start || targets[i] != targets[i - 1])
+               targets[write++] = targets[i];
+         start = end;
+      }//end for
+      offsets[n] = write;
+      this._offsets = offsets;
+      this._targets = write == targets.length ? targets : Arrays.copyOf(targets, write);
+   }//end build
+
+   private void ensureScratch () {
+      int n = this._users.size();
+      if (this._stampFrom.length >= n)
+         return;
+      this._stampFrom = Arrays.copyOf(this._stampFrom, n);
+      this._stampTo = Arrays.copyOf(this._stampTo, n);
+      this._depthFrom = Arrays.copyOf(this._depthFrom, n);
+      this._depthTo = Arrays.copyOf(this._depthTo, n);
+      this._parentFrom = Arrays.copyOf(this._parentFrom, n);
+      this._parentTo = Arrays.copyOf(this._parentTo, n);
+   }//end ensureScratch
+
+   private static long edgeKey (int u, int v) {
+      return ((long) u << 32) | (v & 0xffffffffL);
+   }//end edgeKey
+}//end SocialGraph
@@ -0,0 +1,68 @@
+/*
+ * User ID Dictionary
+ * =============================
+ * Edward Martens (862256447), Cody Phu (862107077)
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Maps userId strings to dense int codes 0..size()-1 and back, so
+ * in-memory indexes can store users in primitive arrays.  Values coming
+ * from char(N) columns are trimmed before they are looked up.
+ *
+ * Not thread safe; owners synchronize around it.
+ */
+public class UserDictionary {
+
+   private final HashMap<String, Integer> _codes = new HashMap<String, Integer>();
+   private final List<String> _userIds = new ArrayList<String>();
+
+   /**
+    * Returns the code of userId, assigning the next free one if it has
+    * not been seen before.
+    */
+   public int intern (String userId) {
+      String key = userId.trim();
+      Integer code = this._codes.get(key);
+      if (code == null) {
+         code = Integer.valueOf(this._userIds.size());
+         this._codes.put(key, code);
+         this._userIds.add(key);
+      }//end if
+      return code.intValue();
+   }//end intern
+
+   /**
+    * Returns the code of userId, or -1 if it was never interned.
+    */
+   public int lookup (String userId) {
+      if (userId == null)
+         return -1;
+      Integer code = this._codes.get(userId.trim());
+      return code == null ? -1 : code.intValue();
+   }//end lookup
+
+   /**
+    * Returns the userId with the given code.
+    */
+   public String userId (int code) {
+      return this._userIds.get(code);
+   }//end userId
+
+   /**
+    * Returns the number of interned userIds.
+    */
+   public int size () {
+      return this._userIds.size();
+   }//end size
+}//end UserDictionary
@@ -0,0 +1,205 @@
+/*
+ * User Existence Filter
+ * =============================
+ * Edward Martens (862256447), Cody Phu (862107077)
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * A Bloom filter over the userIds in USR.
+ *
+ * mightContain() never answers false for a userId that was added, and
+ * answers true for one that was not with about FALSE_POSITIVE_RATE
+ * probability, so a negative answer rejects a mistyped userId without a
+ * round trip while a positive one still has to be confirmed.  The filter
+ * is sized for twice the users present when it is loaded, leaving room
+ * for the users created afterwards before the error rate goes up.
+ *
+ * Users created by other processes after the load are not in the filter
+ * until catchUp() reads the USR rows above the largest userKey seen, so a
+ * negative answer is only final once a catch up started after the
+ * question found nothing new; ProfNetwork.mightExist() does that.
+ * Concurrent callers share one catch up.  reload() rebuilds the filter.
+ *
+ * All public methods are synchronized.
+ */
+public class UserFilter {
+
+   // wanted probability of a false positive at the planned size.
+   public static final double FALSE_POSITIVE_RATE = 0.01;
+
+   // how far below the largest userKey seen a catch up starts, for keys
+   // handed out before it whose insert committed after it.
+   static final int KEY_SLACK = 32;
+
+   static final String USERS_QUERY = "SELECT userId, userKey FROM USR";
+   static final String NEW_USERS_QUERY = "SELECT userId, userKey FROM USR WHERE userKey > ?";
+
+   private long[] _bits;
+   private int _bitCount;
+   private int _hashes;
+   private int _added = 0;
+
+   // largest userKey read and when the last catch up started; guarded by _catchUpLock.
+   private final Object _catchUpLock = new Object();
+   private int _maxKey = 0;
+   private long _lastCatchUp = System.nanoTime();
+
+   /**
+    * Creates an empty filter planned for the given number of userIds.
+    */
+   public UserFilter (int expected) {
+      size(expected);
+   }//end UserFilter
+
+   /**
+    * Reads every userId from USR into a new filter.
+    *
+    * @param esql the database to read USR from
+    * @return the loaded filter
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public static UserFilter load (ProfNetwork esql) throws SQLException {
+      UserFilter filter = new UserFilter(0);
+      filter.reload(esql);
+      return filter;
+   }//end load
+
+   /**
+    * Rebuilds the filter from the current contents of USR.
+    *
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public void reload (ProfNetwork esql) throws SQLException {
+      List<List<String>> count = esql.executeQueryAndReturnResult("SELECT count(*) FROM USR");
+      final UserFilter fresh = new UserFilter(2 * Integer.parseInt(count.get(0).get(0).trim()));
+      final int[] maxKey = { 0 };
+      long started = System.nanoTime();
+      esql.executeQueryStreaming(USERS_QUERY, ProfNetwork.STREAM_BATCH_SIZE, new RowHandler() {
+         public void start (String[] columns) {
+         }
+         public boolean handleRow (String[] row) {
+            fresh.put(row[0]);
+            maxKey[0] = Math.max(maxKey[0], Integer.parseInt(row[1].trim()));
+            return true;
+         }
+      });
+      synchronized (this._catchUpLock) {
+         synchronized (this) {
+            this._bits = fresh._bits;
+            this._bitCount = fresh._bitCount;
+            this._hashes = fresh._hashes;
+            this._added = fresh._added;
+         }
+         this._maxKey = maxKey[0];
+         this._lastCatchUp = started;
+      }
+   }//end reload
+
+   /**
+    * Records that every USR row up to the given userKey is in the filter,
+    * for a filter filled from somewhere else than USR.
+    */
+   public void caughtUpTo (int userKey) {
+      synchronized (this._catchUpLock) {
+         this._maxKey = userKey;
+      }
+   }//end caughtUpTo
+
+   /**
+    * Adds the users created since the filter was filled, unless a catch
+    * up that started after this call did so already.
+    *
+    * @return false when a userId that was not in the filter before this
+    *         call is certainly still not in USR
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public boolean catchUp (ProfNetwork esql) throws SQLException {
+      long asked = System.nanoTime();
+      synchronized (this._catchUpLock) {
+         if (this._lastCatchUp - asked > 0)
+            return true;
+         this._lastCatchUp = System.nanoTime();
+         int before = size();
+         for (List<String> row : esql.executeQueryAndReturnResult(NEW_USERS_QUERY,
+               Integer.valueOf(Math.max(0, this._maxKey - KEY_SLACK)))) {
+            put(row.get(0));
+            this._maxKey = Math.max(this._maxKey, Integer.parseInt(row.get(1).trim()));
+         }//end for
+         return size() > before;
+      }
+   }//end catchUp
+
+   /**
+    * Adds a userId; blanks around it are ignored.
+    */
+   public synchronized void put (String userId) {
+      long h = hash(userId.trim());
+      int h1 = (int) h;
+      int h2 = (int) (h >>> 32);
+      for (int i = 0; i < this._hashes; ++i) {
+         int bit = ((h1 + i * h2) & 0x7fffffff) % this._bitCount;
+         this._bits[bit >>> 6] |= 1L << bit;
+      }//end for
+      ++this._added;
+   }//end put
+
+   /**
+    * Returns false if userId was certainly never added.
+    */
+   public synchronized boolean mightContain (String userId) {
+      if (userId == null)
+         return false;
+      long h = hash(userId.trim());
+      int h1 = (int) h;
+      int h2 = (int) (h >>> 32);
+      for (int i = 0; i < this._hashes; ++i) {
+         int bit = ((h1 + i * h2) & 0x7fffffff) % this._bitCount;
+         if ((this._bits[bit >>> 6] & (1L << bit)) == 0)
+            return false;
+      }//end for
+      return true;
+   }//end mightContain
+
+   /**
+    * Returns the number of userIds added.
+    */
+   public synchronized int size () {
+      return this._added;
+   }//end size
+
+   // bits and hash count for n entries at FALSE_POSITIVE_RATE.
+   private void size (int expected) {
+      int n = Math.max(1024, expected);
+      double ln2 = Math.log(2);
+      long bits = (long) Math.ceil(-n * Math.log(FALSE_POSITIVE_RATE) / (ln2 * ln2));
+      this._bitCount = (int) Math.min(bits, Integer.MAX_VALUE - 63);
+      this._bits = new long[(this._bitCount + 63) >>> 6];
+      this._hashes = Math.max(1, (int) Math.round((double) this._bitCount / n * ln2));
+   }//end size
+
+   // 64 well mixed bits of a string: FNV-1a over its chars, then a
+   // murmur3 finalizer; the halves serve as the two base hashes.
+   private static long hash (String s) {
+      long h = 0xcbf29ce484222325L;
+      for (int i = 0; i < s.length(); ++i) {
+         h ^= s.charAt(i);
+         h *= 0x100000001b3L;
+      }//end for
+      h ^= h >>> 33;
+      h *= 0xff51afd7ed558ccdL;
+      h ^= h >>> 33;
+      h *= 0xc4ceb9fe1a85ec53L;
+      h ^= h >>> 33;
+      return h;
+   }//end hash
+}//end UserFilter
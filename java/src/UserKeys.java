@@ -0,0 +1,76 @@
+/*
+ * User Key Map
+ * =============================
+ * Edward Martens (862256447), Cody Phu (862107077)
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps userId strings to the integer USR.userKey that WORK_EXPR,
+ * EDUCATIONAL_DETAILS, MESSAGE and CONNECTION_USR refer to users by
+ * (see sql/src/migrate_user_keys.sql).
+ *
+ * A userId is looked up in USR the first time it is asked for and
+ * remembered for the rest of the session; keys never change once
+ * assigned.  Unknown userIds are not remembered, so a user created later
+ * is found; the UserFilter turns most of them away without a query.
+ * Thread safe.
+ */
+public class UserKeys {
+
+   // the key of no user; binding it matches no rows.
+   public static final int NO_KEY = -1;
+
+   static final String KEY_QUERY = "SELECT userKey FROM USR WHERE userId = ?";
+
+   private final ProfNetwork _esql;
+   private final ConcurrentHashMap<String, Integer> _keys = new ConcurrentHashMap<String, Integer>();
+
+   /**
+    * @param esql the database to read USR from
+    */
+   public UserKeys (ProfNetwork esql) {
+      this._esql = esql;
+   }//end UserKeys
+
+   /**
+    * Returns the key of userId, or NO_KEY if there is no such user.
+    * Blanks around userId are ignored.
+    *
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public Integer key (String userId) throws SQLException {
+      if (userId == null)
+         return Integer.valueOf(NO_KEY);
+      String id = userId.trim();
+      Integer key = this._keys.get(id);
+      if (key != null)
+         return key;
+      // most mistyped userIds never reach the database.
+      if (!this._esql.mightExist(id))
+         return Integer.valueOf(NO_KEY);
+      List<List<String>> rows = this._esql.executeQueryAndReturnResult(KEY_QUERY, id);
+      if (rows.isEmpty())
+         return Integer.valueOf(NO_KEY);
+      key = Integer.valueOf(rows.get(0).get(0).trim());
+      this._keys.put(id, key);
+      return key;
+   }//end key
+
+   /**
+    * Returns the number of userIds remembered.
+    */
+   public int size () {
+      return this._keys.size();
+   }//end size
+}//end UserKeys
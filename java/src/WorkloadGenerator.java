@@ -0,0 +1,331 @@
+/*
+ * Synthetic Workload Generator
+ * =============================
+ * Edward Martens (862256447), Cody Phu (862107077)
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Drives ProfNetwork with many simulated users at once and reports the
+ * throughput and latency of every operation.
+ *
+ * Each worker thread plays one user after another without think time,
+ * picking operations at random in proportion to the mix, e.g.
+ *
+ *    -Dprofnetwork.workloadMix=login=10,friend-list=25,search=20
+ *
+ * Operations go through the same ProfNetwork methods as the menus, so
+ * send-message measures the time to queue a message, as a user would see
+ * it.  The first -Dprofnetwork.workloadWarmup seconds are not measured.
+ * The report is one row per operation with count, errors, operations per
+ * second and latency percentiles in milliseconds; it is rendered like any
+ * other result, so -Dprofnetwork.format=TSV gives a file that can be
+ * diffed against the report of an earlier build.
+ *
+ * The workload writes: it sends messages, connection requests and
+ * decisions as randomly chosen users.  Run it against a scratch database.
+ */
+public class WorkloadGenerator {
+
+   /**
+    * The operations of the workload, named as in the mix.
+    */
+   enum Operation {
+      LOGIN("login"),
+      FRIEND_LIST("friend-list"),
+      SEND_MESSAGE("send-message"),
+      VIEW_MESSAGES("view-messages"),
+      SEARCH_PEOPLE("search"),
+      SEND_CONNECTION_REQUEST("request"),
+      DECIDE_REQUESTS("decide");
+
+      final String label;
+
+      Operation (String label) {
+         this.label = label;
+      }
+   }//end Operation
+
+   public static final String DEFAULT_MIX =
+      "login=10,friend-list=25,send-message=15,view-messages=20,search=20,request=5,decide=5";
+
+   public static final int DEFAULT_THREADS = 50;
+   public static final int DEFAULT_SECONDS = 60;
+   public static final int DEFAULT_WARMUP_SECONDS = 5;
+
+   // most physical connections, however many threads run.
+   public static final int MAX_POOL_SIZE = 32;
+
+   private static final String[] REPORT_COLUMNS =
+      { "operation", "count", "errors", "ops/s", "mean ms", "p50 ms", "p99 ms", "p999 ms", "max ms" };
+
+   private final ProfNetwork _esql;
+
+   // cumulative weights, indexed like Operation.values().
+   private final int[] _weights;
+
+   // the users to play, read from USR.
+   private final List<String> _userIds = new ArrayList<String>();
+   private final List<String> _passwords = new ArrayList<String>();
+   private final List<String> _names = new ArrayList<String>();
+
+   private volatile boolean _measuring = false;
+   private volatile boolean _running = true;
+
+   /**
+    * @param esql the database to drive
+    * @param mix comma separated operation=weight pairs
+    */
+   public WorkloadGenerator (ProfNetwork esql, String mix) {
+      this._esql = esql;
+      this._weights = parseMix(mix);
+   }//end WorkloadGenerator
+
+   static int[] parseMix (String mix) {
+      Operation[] ops = Operation.values();
+      int[] weights = new int[ops.length];
+      for (String part : mix.split(",")) {
+         String[] kv = part.trim().split("=");
+         boolean known = false;
+         for (int i = 0; i < ops.length && kv.length == 2; ++i) {
+            if (ops[i].label.equals(kv[0].trim())) {
+               weights[i] = Integer.parseInt(kv[1].trim());
+               known = true;
+            }//end if
+         }//end for
+         if (!known)
+            throw new IllegalArgumentException("bad workload mix entry: " + part);
+      }//end for
+      for (int i = 1; i < weights.length; ++i)
+         weights[i] += weights[i - 1];
+      if (weights[weights.length - 1] <= 0)
+         throw new IllegalArgumentException("workload mix has no weight");
+      return weights;
+   }//end parseMix
+
+   /**
+    * Reads the users to play and loads the in-memory indexes, so the
+    * measured run does not pay for them.
+    */
+   public void prepare () throws SQLException {
+      this._esql.executeQueryStreaming("SELECT userId, password, name FROM USR",
+         ProfNetwork.STREAM_BATCH_SIZE, new RowHandler() {
+            public void start (String[] columns) {
+            }
+            public boolean handleRow (String[] row) {
+               _userIds.add(row[0].trim());
+               _passwords.add(row[1] == null ? "" : row[1].trim());
+               _names.add(row[2] == null ? "" : row[2].trim());
+               return true;
+            }
+         });
+      if (this._userIds.size() < 2)
+         throw new SQLException("USR needs at least two users to run a workload");
+      this._esql.getSocialGraph();
+      this._esql.getNameIndex();
+   }//end prepare
+
+   /**
+    * Runs the workload and returns the latencies of each operation,
+    * indexed like Operation.values().
+    *
+    * @param threads the number of simulated users at a time
+    * @param warmupSeconds how long to run before measuring
+    * @param seconds how long to measure
+    * @param seed seeds the random choices, for repeatable runs
+    */
+   public Worker[] run (int threads, int warmupSeconds, int seconds, long seed) throws InterruptedException {
+      Worker[] workers = new Worker[threads];
+      Thread[] running = new Thread[threads];
+      for (int t = 0; t < threads; ++t) {
+         workers[t] = new Worker(new Random(seed + t));
+         running[t] = new Thread(workers[t], "workload-" + t);
+         running[t].setDaemon(true);
+         running[t].start();
+      }//end for
+      Thread.sleep(warmupSeconds * 1000L);
+      this._measuring = true;
+      Thread.sleep(seconds * 1000L);
+      this._running = false;
+      for (int t = 0; t < threads; ++t)
+         running[t].join();
+      return workers;
+   }//end run
+
+   /**
+    * Renders one row per operation that ran, plus the total.
+    */
+   public static void report (Worker[] workers, int seconds) throws IOException {
+      Operation[] ops = Operation.values();
+      LatencyHistogram all = new LatencyHistogram();
+      long allErrors = 0;
+      List<String[]> rows = new ArrayList<String[]>();
+      for (int i = 0; i < ops.length; ++i) {
+         LatencyHistogram merged = new LatencyHistogram();
+         long errors = 0;
+         for (Worker w : workers) {
+            merged.add(w.latencies[i]);
+            errors += w.errors[i];
+         }//end for
+         if (merged.count() == 0 && errors == 0)
+            continue;
+         all.add(merged);
+         allErrors += errors;
+         rows.add(reportRow(ops[i].label, merged, errors, seconds));
+      }//end for
+      rows.add(reportRow("total", all, allErrors, seconds));
+      ResultRenderer.forConsole().renderPage(REPORT_COLUMNS, rows, true);
+   }//end report
+
+   private static String[] reportRow (String label, LatencyHistogram h, long errors, int seconds) {
+      return new String[] {
+         label, String.valueOf(h.count()), String.valueOf(errors),
+         String.format("%.1f", (double) h.count() / seconds),
+         millis(h.mean()), millis(h.percentile(0.50)), millis(h.percentile(0.99)),
+         millis(h.percentile(0.999)), millis(h.max()) };
+   }//end reportRow
+
+   private static String millis (double micros) {
+      return String.format("%.3f", micros / 1000);
+   }//end millis
+
+   /**
+    * One simulated user at a time, with its own histograms so recording
+    * needs no locking.
+    */
+   class Worker implements Runnable {
+      final Random random;
+      final LatencyHistogram[] latencies = new LatencyHistogram[Operation.values().length];
+      final long[] errors = new long[Operation.values().length];
+
+      Worker (Random random) {
+         this.random = random;
+         for (int i = 0; i < this.latencies.length; ++i)
+            this.latencies[i] = new LatencyHistogram();
+      }
+
+      public void run () {
+         Operation[] ops = Operation.values();
+         while (_running) {
+            int pick = this.random.nextInt(_weights[_weights.length - 1]);
+            int op = 0;
+            while (_weights[op] <= pick)
+               ++op;
+            boolean measured = _measuring;
+            long start = System.nanoTime();
+            try {
+               perform(ops[op]);
+               if (measured)
+                  this.latencies[op].record((System.nanoTime() - start) / 1000);
+            }catch (SQLException e){
+               if (measured)
+                  ++this.errors[op];
+            }//end try
+         }//end while
+      }//end run
+
+      private void perform (Operation op) throws SQLException {
+         int me = this.random.nextInt(_userIds.size());
+         String user = _userIds.get(me);
+         switch (op) {
+            case LOGIN:
+               _esql.authenticate(user, _passwords.get(me));
+               break;
+            case FRIEND_LIST:
+               Integer key = _esql.userKey(user);
+               _esql.executeQueryAndReturnResult(ProfNetwork.FRIEND_LIST_QUERY, key, key);
+               break;
+            case SEND_MESSAGE:
+               _esql.sendMessage(user, other(me), "workload message " + this.random.nextInt());
+               break;
+            case VIEW_MESSAGES:
+               _esql.fetchMessagePage(user, this.random.nextBoolean(), null, ResultPager.DEFAULT_PAGE_SIZE);
+               break;
+            case SEARCH_PEOPLE:
+               _esql.searchPeople(fragment(), ProfNetwork.SEARCH_LIMIT);
+               break;
+            case SEND_CONNECTION_REQUEST:
+               _esql.requestConnection(user, other(me));
+               break;
+            case DECIDE_REQUESTS:
+               List<List<String>> pending =
+                  _esql.getPendingRequests(user);
+               if (pending.isEmpty())
+                  break;
+               List<String> requesters = new ArrayList<String>();
+               for (int i = 0; i < pending.size() && i < 3; ++i)
+                  requesters.add(pending.get(i).get(0).trim());
+               _esql.decideRequests(user, requesters, this.random.nextBoolean() ? "Accept" : "Reject");
+               break;
+         }//end switch
+      }//end perform
+
+      // a user other than the one at index me.
+      private String other (int me) {
+         int other = this.random.nextInt(_userIds.size() - 1);
+         return _userIds.get(other >= me ? other + 1 : other);
+      }//end other
+
+      // a few letters out of a random user's name.
+      private String fragment () {
+         String name = _names.get(this.random.nextInt(_names.size()));
+         if (name.length() <= 3)
+            return name;
+         int length = 3 + this.random.nextInt(Math.min(3, name.length() - 2));
+         int at = this.random.nextInt(name.length() - length + 1);
+         return name.substring(at, at + length);
+      }//end fragment
+   }//end Worker
+
+   /**
+    * The main execution method
+    *
+    * @param args the command line arguments: <dbname> <port> <user> [threads] [seconds]
+    */
+   public static void main (String[] args) {
+      if (args.length < 3 || args.length > 5) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            WorkloadGenerator.class.getName () +
+            " <dbname> <port> <user> [threads] [seconds]");
+         return;
+      }//end if
+
+      int threads = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_THREADS;
+      int seconds = args.length > 4 ? Integer.parseInt(args[4]) : DEFAULT_SECONDS;
+      int warmup = Integer.getInteger("profnetwork.workloadWarmup", DEFAULT_WARMUP_SECONDS);
+      int poolSize = Integer.getInteger("profnetwork.workloadPoolSize", Math.min(threads, MAX_POOL_SIZE));
+      long seed = Long.getLong("profnetwork.workloadSeed", 42L);
+      String mix = System.getProperty("profnetwork.workloadMix", DEFAULT_MIX);
+
+      ProfNetwork esql = null;
+      try{
+         Class.forName ("org.postgresql.Driver");
+         esql = new ProfNetwork (args[0], args[1], args[2], "", poolSize);
+         WorkloadGenerator generator = new WorkloadGenerator(esql, mix);
+         generator.prepare();
+         System.out.println("Running " + threads + " users on " + poolSize + " connections for " +
+            seconds + "s after " + warmup + "s warmup, mix " + mix);
+         Worker[] workers = generator.run(threads, warmup, seconds, seed);
+         report(workers, seconds);
+      }catch(Exception e) {
+         System.err.println (e.getMessage ());
+      }finally{
+         if (esql != null)
+            esql.cleanup ();
+      }//end try
+   }//end main
+}//end WorkloadGenerator
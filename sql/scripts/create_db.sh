@@ -2,5 +2,9 @@
 export DB_NAME=$USER"_DB"
 DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
 psql -h localhost -p $PGPORT $DB_NAME < $DIR/../src/create_tables.sql
-psql -h localhost -p $PGPORT $DB_NAME < $DIR/../src/create_index.sql
 psql -h localhost -p $PGPORT $DB_NAME < $DIR/../src/load_data.sql
+psql -h localhost -p $PGPORT $DB_NAME < $DIR/../src/migrate_user_keys.sql
+psql -h localhost -p $PGPORT $DB_NAME < $DIR/../src/create_message_archive.sql
+psql -h localhost -p $PGPORT $DB_NAME < $DIR/../src/track_connection_changes.sql
+psql -h localhost -p $PGPORT $DB_NAME < $DIR/../src/create_notifications.sql
+psql -h localhost -p $PGPORT $DB_NAME < $DIR/../src/create_index.sql
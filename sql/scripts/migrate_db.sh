@@ -0,0 +1,12 @@
+#!/bin/bash
+export DB_NAME=$USER"_DB"
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+# moves an already loaded database onto integer user keys, adds the message
+# archive, the change times GraphSnapshot reads and the notification
+# triggers, then rebuilds the indexes on the new columns.  Stops if the
+# key migration fails, e.g. because the database was migrated before.
+psql -v ON_ERROR_STOP=1 -h localhost -p $PGPORT $DB_NAME < $DIR/../src/migrate_user_keys.sql || exit 1
+psql -h localhost -p $PGPORT $DB_NAME < $DIR/../src/create_message_archive.sql
+psql -h localhost -p $PGPORT $DB_NAME < $DIR/../src/track_connection_changes.sql
+psql -h localhost -p $PGPORT $DB_NAME < $DIR/../src/create_notifications.sql
+psql -h localhost -p $PGPORT $DB_NAME < $DIR/../src/create_index.sql
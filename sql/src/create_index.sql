@@ -0,0 +1,32 @@
+--Edward Martens (862256447), Cody Phu (862107077)
+
+-- Run after migrate_user_keys.sql; the tables refer to users by userKey.
+
+-- ViewMessages pages a mailbox newest first, keyed on (sendTime, msgId).
+-- With the owner column leading, each page is one backward range scan
+-- that stops after the page size, however many messages the user has.
+DROP INDEX IF EXISTS message_receiver_time_idx;
+CREATE INDEX message_receiver_time_idx ON MESSAGE (receiverKey, sendTime, msgId);
+
+DROP INDEX IF EXISTS message_sender_time_idx;
+CREATE INDEX message_sender_time_idx ON MESSAGE (senderKey, sendTime, msgId);
+
+-- pending requests are looked up by the user they were sent to; the
+-- primary key only leads with the requester.
+DROP INDEX IF EXISTS connection_usr_connection_idx;
+CREATE INDEX connection_usr_connection_idx ON CONNECTION_USR (connectionKey, status);
+
+-- GraphSnapshot reads the rows changed since its file was taken.
+DROP INDEX IF EXISTS connection_usr_changed_idx;
+CREATE INDEX connection_usr_changed_idx ON CONNECTION_USR (changedAt);
+
+-- the archive is only read once a mailbox is paged past its hot messages.
+DROP INDEX IF EXISTS message_archive_receiver_time_idx;
+CREATE INDEX message_archive_receiver_time_idx ON MESSAGE_ARCHIVE (receiverKey, sendTime, msgId);
+
+DROP INDEX IF EXISTS message_archive_sender_time_idx;
+CREATE INDEX message_archive_sender_time_idx ON MESSAGE_ARCHIVE (senderKey, sendTime, msgId);
+
+-- MessageCompactor looks for the messages deleted by both sides.
+DROP INDEX IF EXISTS message_deleted_idx;
+CREATE INDEX message_deleted_idx ON MESSAGE (msgId) WHERE deleteStatus = 3;
@@ -0,0 +1,21 @@
+--Edward Martens (862256447), Cody Phu (862107077)
+
+-- Cold messages, moved out of MESSAGE by MessageCompactor: those deleted
+-- by both sides and those older than the hot window.  Same columns as
+-- MESSAGE after migrate_user_keys.sql, so rows move with INSERT ... SELECT.
+DROP TABLE IF EXISTS MESSAGE_ARCHIVE;
+
+CREATE TABLE MESSAGE_ARCHIVE(
+	msgId integer UNIQUE NOT NULL,
+	senderKey integer NOT NULL,
+	receiverKey integer NOT NULL,
+	contents text NOT NULL,
+	sendTime timestamp,
+	deleteStatus integer,
+	status varchar(30) NOT NULL,
+	PRIMARY KEY(msgId),
+	FOREIGN KEY(senderKey)
+		REFERENCES USR(userKey),
+	FOREIGN KEY(receiverKey)
+		REFERENCES USR(userKey)
+);
@@ -0,0 +1,54 @@
+--Edward Martens (862256447), Cody Phu (862107077)
+
+-- Run after migrate_user_keys.sql.  New messages, new connection requests
+-- and requests leaving the Request status are recorded in
+-- NOTIFICATION_EVENT and announced on the profnetwork_events channel.
+-- NotificationHub listens on the channel and reads the new rows, which
+-- carry what a NOTIFY payload would; the 7.3 JDBC driver cannot receive
+-- payloads.  Needs PL/pgSQL: before PostgreSQL 9.0 run
+-- CREATE LANGUAGE plpgsql first.
+DROP TABLE IF EXISTS NOTIFICATION_EVENT;
+
+-- userKey is the user told, otherKey the user who caused the event.
+-- Rows are deleted by NotificationHub once they are old.
+CREATE TABLE NOTIFICATION_EVENT(
+	eventId serial PRIMARY KEY,
+	userKey integer NOT NULL,
+	kind varchar(10) NOT NULL,
+	otherKey integer,
+	createdAt timestamp NOT NULL DEFAULT localtimestamp
+);
+
+CREATE OR REPLACE FUNCTION notify_message() RETURNS trigger AS $$
+BEGIN
+	INSERT INTO NOTIFICATION_EVENT(userKey, kind, otherKey)
+		VALUES (NEW.receiverKey, 'message', NEW.senderKey);
+	NOTIFY profnetwork_events;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS message_notify ON MESSAGE;
+CREATE TRIGGER message_notify AFTER INSERT ON MESSAGE
+	FOR EACH ROW EXECUTE PROCEDURE notify_message();
+
+CREATE OR REPLACE FUNCTION notify_connection() RETURNS trigger AS $$
+BEGIN
+	IF TG_OP = 'INSERT' THEN
+		IF NEW.status = 'Request' THEN
+			INSERT INTO NOTIFICATION_EVENT(userKey, kind, otherKey)
+				VALUES (NEW.connectionKey, 'request', NEW.userKey);
+			NOTIFY profnetwork_events;
+		END IF;
+	ELSIF OLD.status = 'Request' AND NEW.status <> 'Request' THEN
+		INSERT INTO NOTIFICATION_EVENT(userKey, kind, otherKey)
+			VALUES (NEW.connectionKey, 'decided', NEW.userKey);
+		NOTIFY profnetwork_events;
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS connection_usr_notify ON CONNECTION_USR;
+CREATE TRIGGER connection_usr_notify AFTER INSERT OR UPDATE ON CONNECTION_USR
+	FOR EACH ROW EXECUTE PROCEDURE notify_connection();
@@ -1,3 +1,5 @@
+-- The tables as loaded from the CSV files; migrate_user_keys.sql then moves
+-- them onto integer user keys.
 DROP TABLE IF EXISTS WORK_EXPR CASCADE;
 DROP TABLE IF EXISTS EDUCATIONAL_DETAILS CASCADE;
 DROP TABLE IF EXISTS MESSAGE CASCADE;
@@ -0,0 +1,95 @@
+--Edward Martens (862256447), Cody Phu (862107077)
+
+-- Moves a database loaded by create_tables.sql onto integer user keys.
+-- USR gets a serial userKey and every other table refers to users by it
+-- instead of a blank-padded char(30) copy of userId, so the friend,
+-- message and connection joins compare 4-byte integers.  The char(n)
+-- text columns become varchar/text without their padding.  userId stays
+-- the login and the key of USR.
+--
+-- Runs as one transaction; on any error nothing is changed, and it
+-- refuses to run on a database that already has USR.userKey.  Connection
+-- rows whose userId or connectionId is not in USR (there is no foreign key
+-- on connectionId) have no key to point at; each is reported with a
+-- NOTICE and dropped.  create_index.sql has to be run afterwards.
+BEGIN;
+
+DO $$
+BEGIN
+	IF EXISTS (SELECT 1 FROM information_schema.columns
+			WHERE table_schema = current_schema() AND table_name = 'usr' AND column_name = 'userkey') THEN
+		RAISE EXCEPTION 'USR already has userKey: this database has been migrated';
+	END IF;
+END;
+$$;
+
+ALTER TABLE USR ADD COLUMN userKey serial;
+ALTER TABLE USR ADD CONSTRAINT usr_userkey_key UNIQUE (userKey);
+ALTER TABLE USR ALTER COLUMN name TYPE varchar(50) USING rtrim(name);
+
+
+ALTER TABLE WORK_EXPR ADD COLUMN userKey integer;
+UPDATE WORK_EXPR SET userKey = U.userKey FROM USR U WHERE U.userId = rtrim(WORK_EXPR.userId);
+ALTER TABLE WORK_EXPR DROP COLUMN userId;
+ALTER TABLE WORK_EXPR ALTER COLUMN userKey SET NOT NULL;
+ALTER TABLE WORK_EXPR ALTER COLUMN company TYPE varchar(50) USING rtrim(company);
+ALTER TABLE WORK_EXPR ALTER COLUMN role TYPE varchar(50) USING rtrim(role);
+ALTER TABLE WORK_EXPR ALTER COLUMN location TYPE varchar(50) USING rtrim(location);
+ALTER TABLE WORK_EXPR ADD PRIMARY KEY (userKey, company, role, startDate);
+ALTER TABLE WORK_EXPR ADD FOREIGN KEY (userKey) REFERENCES USR(userKey);
+
+
+ALTER TABLE EDUCATIONAL_DETAILS ADD COLUMN userKey integer;
+UPDATE EDUCATIONAL_DETAILS SET userKey = U.userKey FROM USR U WHERE U.userId = rtrim(EDUCATIONAL_DETAILS.userId);
+ALTER TABLE EDUCATIONAL_DETAILS DROP COLUMN userId;
+ALTER TABLE EDUCATIONAL_DETAILS ALTER COLUMN userKey SET NOT NULL;
+ALTER TABLE EDUCATIONAL_DETAILS ALTER COLUMN instituitionName TYPE varchar(50) USING rtrim(instituitionName);
+ALTER TABLE EDUCATIONAL_DETAILS ALTER COLUMN major TYPE varchar(50) USING rtrim(major);
+ALTER TABLE EDUCATIONAL_DETAILS ALTER COLUMN degree TYPE varchar(50) USING rtrim(degree);
+ALTER TABLE EDUCATIONAL_DETAILS ADD PRIMARY KEY (userKey, major, degree);
+ALTER TABLE EDUCATIONAL_DETAILS ADD FOREIGN KEY (userKey) REFERENCES USR(userKey);
+
+
+ALTER TABLE MESSAGE ADD COLUMN senderKey integer;
+ALTER TABLE MESSAGE ADD COLUMN receiverKey integer;
+UPDATE MESSAGE SET senderKey = S.userKey, receiverKey = R.userKey
+FROM USR S, USR R
+WHERE S.userId = rtrim(MESSAGE.senderId) AND R.userId = rtrim(MESSAGE.receiverId);
+ALTER TABLE MESSAGE DROP COLUMN senderId;
+ALTER TABLE MESSAGE DROP COLUMN receiverId;
+ALTER TABLE MESSAGE ALTER COLUMN senderKey SET NOT NULL;
+ALTER TABLE MESSAGE ALTER COLUMN receiverKey SET NOT NULL;
+ALTER TABLE MESSAGE ALTER COLUMN contents TYPE text USING rtrim(contents);
+ALTER TABLE MESSAGE ALTER COLUMN status TYPE varchar(30) USING rtrim(status);
+ALTER TABLE MESSAGE ADD FOREIGN KEY (senderKey) REFERENCES USR(userKey);
+ALTER TABLE MESSAGE ADD FOREIGN KEY (receiverKey) REFERENCES USR(userKey);
+
+
+ALTER TABLE CONNECTION_USR ADD COLUMN userKey integer;
+ALTER TABLE CONNECTION_USR ADD COLUMN connectionKey integer;
+UPDATE CONNECTION_USR SET userKey = U.userKey FROM USR U WHERE U.userId = rtrim(CONNECTION_USR.userId);
+UPDATE CONNECTION_USR SET connectionKey = U.userKey FROM USR U WHERE U.userId = rtrim(CONNECTION_USR.connectionId);
+DO $$
+DECLARE
+	r record;
+BEGIN
+	FOR r IN SELECT userId, connectionId, status FROM CONNECTION_USR
+			WHERE userKey IS NULL OR connectionKey IS NULL LOOP
+		RAISE NOTICE 'dropping connection % -> % (%): user not in USR',
+			rtrim(r.userId), rtrim(r.connectionId), rtrim(r.status);
+	END LOOP;
+END;
+$$;
+DELETE FROM CONNECTION_USR WHERE userKey IS NULL OR connectionKey IS NULL;
+ALTER TABLE CONNECTION_USR DROP COLUMN userId;
+ALTER TABLE CONNECTION_USR DROP COLUMN connectionId;
+ALTER TABLE CONNECTION_USR ALTER COLUMN userKey SET NOT NULL;
+ALTER TABLE CONNECTION_USR ALTER COLUMN connectionKey SET NOT NULL;
+ALTER TABLE CONNECTION_USR ALTER COLUMN status TYPE varchar(30) USING rtrim(status);
+ALTER TABLE CONNECTION_USR ADD PRIMARY KEY (userKey, connectionKey);
+ALTER TABLE CONNECTION_USR ADD FOREIGN KEY (userKey) REFERENCES USR(userKey);
+ALTER TABLE CONNECTION_USR ADD FOREIGN KEY (connectionKey) REFERENCES USR(userKey);
+
+COMMIT;
+
+ANALYZE;
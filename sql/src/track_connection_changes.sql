@@ -0,0 +1,8 @@
+--Edward Martens (862256447), Cody Phu (862107077)
+
+-- Run after migrate_user_keys.sql.  GraphSnapshot catches a saved copy of
+-- CONNECTION_USR up with the rows changed since it was taken; new rows get
+-- the time they were sent, and ProfNetwork sets it again when a request
+-- is accepted or rejected.
+ALTER TABLE CONNECTION_USR DROP COLUMN IF EXISTS changedAt;
+ALTER TABLE CONNECTION_USR ADD COLUMN changedAt timestamp NOT NULL DEFAULT localtimestamp;